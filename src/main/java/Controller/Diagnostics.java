@@ -0,0 +1,273 @@
+package Controller;
+
+import Service.ConcurrencyLimiter;
+import Service.HashingExecutor;
+import Service.MessagePurger;
+import Service.RetryPolicy;
+import Service.SingleFlight;
+import Service.Transactions;
+import Util.AccessLog;
+import Util.ChangeLog;
+import Util.ConnectionUtil;
+import Util.JsonLogAppender;
+import Util.RateLimiter;
+import Util.ResponseCache;
+import Util.RouteStats;
+import Util.RoutingDataSource;
+import Util.Tracer;
+import Util.UdpInvalidationBus;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Diagnostics class collects the runtime state served by /diagnostics:
+ * JVM heap, GC and threads, the database pools, the caches, the overload
+ * protection of the service layer, tracing and logging, and the in-flight
+ * requests of every route.
+ *
+ * Every value is read from a counter or an MXBean attribute, nothing is
+ * walked, dumped or queried from the database, so a snapshot takes
+ * microseconds and can be scraped every second.
+ */
+public class Diagnostics {
+    private final ResponseCache listCache;
+    private final RateLimiter rateLimiter;
+    private final RouteStats routeStats;
+
+    /**
+     * @param listCache   the list page cache of the controller.
+     * @param rateLimiter the rate limiter of the controller.
+     * @param routeStats  the request counters of the controller.
+     */
+    public Diagnostics(ResponseCache listCache, RateLimiter rateLimiter, RouteStats routeStats) {
+        this.listCache = listCache;
+        this.rateLimiter = rateLimiter;
+        this.routeStats = routeStats;
+    }
+
+    /**
+     * @return the current state, as nested maps and lists ready to be
+     *         written as JSON.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("jvm", jvm());
+        snapshot.put("database", database());
+        snapshot.put("caches", caches());
+        snapshot.put("services", services());
+        snapshot.put("requests", requests());
+        return snapshot;
+    }
+
+    private Map<String, Object> jvm() {
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+        jvm.put("processors", Runtime.getRuntime().availableProcessors());
+        jvm.put("systemLoadAverage", ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage());
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        Map<String, Object> heapStats = new LinkedHashMap<>();
+        heapStats.put("used", heap.getUsed());
+        heapStats.put("committed", heap.getCommitted());
+        heapStats.put("max", heap.getMax());
+        jvm.put("heap", heapStats);
+        jvm.put("nonHeapUsed", memory.getNonHeapMemoryUsage().getUsed());
+
+        List<Map<String, Object>> collectors = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> gc = new LinkedHashMap<>();
+            gc.put("name", collector.getName());
+            gc.put("collections", collector.getCollectionCount());
+            gc.put("timeMillis", collector.getCollectionTime());
+            collectors.add(gc);
+        }
+        jvm.put("gc", collectors);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<String, Object> threadStats = new LinkedHashMap<>();
+        threadStats.put("live", threads.getThreadCount());
+        threadStats.put("daemon", threads.getDaemonThreadCount());
+        threadStats.put("peak", threads.getPeakThreadCount());
+        jvm.put("threads", threadStats);
+        return jvm;
+    }
+
+    private Map<String, Object> database() {
+        Map<String, Object> database = new LinkedHashMap<>();
+        JdbcConnectionPool pool = ConnectionUtil.getPool();
+        Map<String, Object> poolStats = new LinkedHashMap<>();
+        poolStats.put("active", pool.getActiveConnections());
+        poolStats.put("max", pool.getMaxConnections());
+        database.put("profile", ConnectionUtil.profile());
+        database.put("pool", poolStats);
+
+        RoutingDataSource routing = ConnectionUtil.getRouting();
+        if (routing != null) {
+            Map<String, Object> routingStats = new LinkedHashMap<>();
+            routingStats.put("primaryReads", routing.getPrimaryReads());
+            routingStats.put("replicaReads", routing.getReplicaReads());
+            List<Map<String, Object>> replicas = new ArrayList<>();
+            for (RoutingDataSource.Replica replica : routing.getReplicas()) {
+                Map<String, Object> replicaStats = new LinkedHashMap<>();
+                replicaStats.put("name", replica.getName());
+                replicaStats.put("healthy", replica.isHealthy());
+                replicaStats.put("lag", replica.getLag());
+                replicaStats.put("failures", replica.getFailures());
+                replicas.add(replicaStats);
+            }
+            routingStats.put("replicas", replicas);
+            database.put("routing", routingStats);
+        }
+        database.put("messageShards", ConnectionUtil.getMessageShards().count());
+        return database;
+    }
+
+    private Map<String, Object> caches() {
+        Map<String, Object> caches = new LinkedHashMap<>();
+        Map<String, Object> lists = new LinkedHashMap<>();
+        lists.put("entries", listCache.size());
+        lists.put("hits", listCache.getHits());
+        lists.put("misses", listCache.getMisses());
+        caches.put("lists", lists);
+
+        SingleFlight singleFlight = SingleFlight.shared();
+        Map<String, Object> reads = new LinkedHashMap<>();
+        reads.put("calls", singleFlight.getCalls());
+        reads.put("deduplicated", singleFlight.getDeduplicated());
+        reads.put("inFlight", singleFlight.getInFlight());
+        caches.put("singleFlight", reads);
+        return caches;
+    }
+
+    private Map<String, Object> services() {
+        Map<String, Object> services = new LinkedHashMap<>();
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.shared();
+        Map<String, Object> limiterStats = new LinkedHashMap<>();
+        limiterStats.put("limit", limiter.getLimit());
+        limiterStats.put("inFlight", limiter.getInFlight());
+        limiterStats.put("completed", limiter.getCompleted());
+        limiterStats.put("shed", limiter.getShed());
+        services.put("concurrencyLimiter", limiterStats);
+
+        HashingExecutor hashing = HashingExecutor.shared();
+        Map<String, Object> hashingStats = new LinkedHashMap<>();
+        hashingStats.put("threads", hashing.getThreads());
+        hashingStats.put("active", hashing.getActive());
+        hashingStats.put("queued", hashing.getQueued());
+        hashingStats.put("completed", hashing.getCompleted());
+        hashingStats.put("rejected", hashing.getRejected());
+        hashingStats.put("averageQueueMicros", hashing.getAverageQueueNanos() / 1000);
+        hashingStats.put("maxQueueMicros", hashing.getMaxQueueNanos() / 1000);
+        services.put("hashing", hashingStats);
+
+        RetryPolicy retry = RetryPolicy.shared();
+        Map<String, Object> retryStats = new LinkedHashMap<>();
+        retryStats.put("retries", retry.getRetries());
+        retryStats.put("exhausted", retry.getExhausted());
+        services.put("retry", retryStats);
+
+        Transactions transactions = Transactions.shared();
+        Map<String, Object> transactionStats = new LinkedHashMap<>();
+        transactionStats.put("committed", transactions.getCommitted());
+        transactionStats.put("rolledBack", transactions.getRolledBack());
+        transactionStats.put("joined", transactions.getJoined());
+        services.put("transactions", transactionStats);
+
+        MessagePurger purger = MessagePurger.shared();
+        Map<String, Object> purgerStats = new LinkedHashMap<>();
+        purgerStats.put("backlog", purger.getBacklog());
+        purgerStats.put("purged", purger.getPurged());
+        purgerStats.put("passes", purger.getPasses());
+        purgerStats.put("skipped", purger.getSkipped());
+        services.put("purger", purgerStats);
+
+        Map<String, Object> rateLimits = new LinkedHashMap<>();
+        rateLimits.put("buckets", rateLimiter.size());
+        rateLimits.put("allowed", rateLimiter.getAllowed());
+        rateLimits.put("limited", rateLimiter.getLimited());
+        services.put("rateLimiter", rateLimits);
+
+        Tracer tracer = Tracer.shared();
+        Map<String, Object> tracing = new LinkedHashMap<>();
+        tracing.put("sampledTraces", tracer.getSampled());
+        tracing.put("droppedSpans", tracer.getDropped());
+        services.put("tracing", tracing);
+
+        JsonLogAppender appender = JsonLogAppender.find();
+        if (appender != null) {
+            Map<String, Object> logging = new LinkedHashMap<>();
+            logging.put("capacity", appender.getCapacity());
+            logging.put("queued", appender.getQueued());
+            logging.put("written", appender.getWritten());
+            logging.put("dropped", appender.getDropped());
+            services.put("logging", logging);
+        }
+
+        AccessLog accessLog = AccessLog.shared();
+        if (accessLog != null) {
+            Map<String, Object> access = new LinkedHashMap<>();
+            access.put("healthy", accessLog.isHealthy());
+            access.put("lastError", accessLog.getLastError());
+            access.put("failures", accessLog.getFailures());
+            access.put("lost", accessLog.getLost());
+            access.put("written", accessLog.getWritten());
+            access.put("dropped", accessLog.getDropped());
+            access.put("rotations", accessLog.getRotations());
+            services.put("accessLog", access);
+        }
+
+        UdpInvalidationBus invalidations = UdpInvalidationBus.shared();
+        if (invalidations != null) {
+            Map<String, Object> bus = new LinkedHashMap<>();
+            bus.put("published", invalidations.getPublished());
+            bus.put("coalesced", invalidations.getCoalesced());
+            bus.put("sent", invalidations.getSent());
+            bus.put("received", invalidations.getReceived());
+            bus.put("failed", invalidations.getFailed());
+            bus.put("gaps", invalidations.getGaps());
+            bus.put("rejected", invalidations.getRejected());
+            services.put("invalidations", bus);
+        }
+
+        ChangeLog changeLog = ChangeLog.shared();
+        if (changeLog != null) {
+            Map<String, Object> changes = new LinkedHashMap<>();
+            changes.put("healthy", changeLog.isHealthy());
+            changes.put("lastError", changeLog.getLastError());
+            changes.put("failures", changeLog.getFailures());
+            changes.put("dropped", changeLog.getDropped());
+            changes.put("firstOffset", changeLog.getFirstOffset());
+            changes.put("nextOffset", changeLog.getNextOffset());
+            changes.put("queued", changeLog.getQueued());
+            changes.put("batches", changeLog.getBatches());
+            changes.put("segments", changeLog.getSegments());
+            changes.put("bytes", changeLog.getBytes());
+            changes.put("deletedSegments", changeLog.getDeletedSegments());
+            services.put("changeLog", changes);
+        }
+        return services;
+    }
+
+    private Map<String, Object> requests() {
+        Map<String, Object> requests = new LinkedHashMap<>();
+        for (Map.Entry<String, RouteStats.Route> route : routeStats.getRoutes().entrySet()) {
+            Map<String, Object> routeStats = new LinkedHashMap<>();
+            routeStats.put("inFlight", route.getValue().getInFlight());
+            routeStats.put("requests", route.getValue().getRequests());
+            routeStats.put("failures", route.getValue().getFailures());
+            requests.put(route.getKey(), routeStats);
+        }
+        return requests;
+    }
+}
@@ -1,22 +1,135 @@
 package Controller;
 
+import DAO.ConstraintViolationException;
+import DAO.DataAccessException;
+import DAO.TransientDataAccessException;
 import Model.Account;
 import Model.Message;
 import Service.AccountService;
+import Service.MessagePurger;
 import Service.MessageService;
+import Service.NotOwnerException;
+import Service.OverloadedException;
+import Service.PreconditionFailedException;
+import Service.TokenService;
+
+import Util.AccessLog;
+import Util.AppConfig;
+import Util.ChangeLog;
+import Util.BinaryFormat;
+import Util.ConnectionUtil;
+import Util.FlightEvents;
+import Util.FlightRecording;
+import Util.InvalidationBus;
+import Util.RateLimiter;
+import Util.RoutingDataSource;
+import Util.ResponseCache;
+import Util.ResponseCompression;
+import Util.RouteStats;
+import Util.StreamingJsonMapper;
+import Util.Tracer;
+import Util.UdpInvalidationBus;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.UnauthorizedResponse;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 public class SocialMediaController {
+    private static final Logger log = LoggerFactory.getLogger(SocialMediaController.class);
+    private static final String REQUEST_EVENT = "flight-request-event";
+    private static final String TRACE_SPAN = "trace-span";
+    private static final String REQUEST_ID = "X-Request-Id";
+    private static final String ACCESS_START = "access-start";
+    // every negotiated body depends on both request headers
+    private static final String VARY = "Accept, Accept-Encoding";
+
     AccountService accountService;
     MessageService messageService;
+    JsonMapper jsonMapper;
+    ResponseCompression compression;
+    ResponseCache listCache;
+    TokenService tokenService;
+    boolean authRequired;
+    RateLimiter rateLimiter;
+    RateLimiter.Limit loginLimit;
+    RateLimiter.Limit registerLimit;
+    RateLimiter.Limit postMessageLimit;
+    RateLimiter.Limit writeMessageLimit;
+    RateLimiter.Limit defaultLimit;
+    AppConfig config;
+    String warmupToken;
+    volatile boolean ready = true;
+    volatile BooleanSupplier databaseAvailable = () -> ConnectionUtil.isDatabaseAvailable(1);
+    String adminToken;
+    RouteStats routeStats;
+    Diagnostics diagnostics;
+    FlightRecording recording;
+    Tracer tracer;
+    AccessLog accessLog;
+    ChangeLog changeLog;
 
     public SocialMediaController() {
+        config = AppConfig.shared();
         accountService = new AccountService();
         messageService = new MessageService();
+        jsonMapper = createJsonMapper();
+        compression = createCompression();
+        listCache = new ResponseCache(config.get(AppConfig.CACHE_MAX_ENTRIES));
+        tokenService = TokenService.fromProperties();
+        authRequired = config.get(AppConfig.AUTH_REQUIRED);
+        rateLimiter = new RateLimiter(config.get(AppConfig.RATELIMIT_MAX_BUCKETS));
+        loginLimit = createLimit("login", 5, 20);
+        registerLimit = createLimit("register", 2, 10);
+        postMessageLimit = createLimit("post-message", 20, 50);
+        writeMessageLimit = createLimit("write-message", 20, 50);
+        defaultLimit = createLimit("default", 200, 400);
+        byte[] token = new byte[16];
+        new SecureRandom().nextBytes(token);
+        warmupToken = Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+        adminToken = config.get(AppConfig.ADMIN_TOKEN);
+        routeStats = new RouteStats();
+        diagnostics = new Diagnostics(listCache, rateLimiter, routeStats);
+        recording = new FlightRecording();
+        tracer = Tracer.shared();
+        accessLog = AccessLog.shared();
+        changeLog = ChangeLog.shared();
+        InvalidationBus invalidations = UdpInvalidationBus.shared();
+        if (invalidations != null) {
+            // every key the bus carries is a message, and any message may be on any list page
+            invalidations.subscribe(keys -> listCache.invalidateAll());
+        }
+        // deletes leave tombstones, the purger removes them in the background
+        MessagePurger.shared();
     }
 
     /**
@@ -31,66 +144,801 @@ public class SocialMediaController {
      *         controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::postAccountRegistration);
-        app.post("/login", this::postAccountLogin);
-        app.get("/messages", this::getMessages);
-        app.post("/messages", this::postCreateMessage);
-        app.get("/messages/{message_id}", this::getMessage);
-        app.delete("/messages/{message_id}", this::deleteMessage);
-        app.patch("/messages/{message_id}", this::updateMessage);
-        app.get("/accounts/{account_id}/messages", this::getAccountMessages);
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(jsonMapper);
+            config.jetty.server(this::createServer);
+            // responses are compressed by send(), so cached pages can be stored compressed
+            config.compression.none();
+        });
+        app.exception(OverloadedException.class, (e, context) -> context.status(503).header("Retry-After", "1"));
+        app.exception(NotOwnerException.class, (e, context) -> context.status(403));
+        app.exception(PreconditionFailedException.class, (e, context) -> context.status(412));
+        app.exception(DataAccessException.class, this::handleDataAccessException);
+        if (accessLog != null) {
+            app.before(this::startAccessLog);
+        }
+        app.before(this::bindLogContext);
+        app.before(this::beginRequestEvent);
+        app.before(this::beginTrace);
+        app.before(this::checkReady);
+        app.before(this::rateLimitByIp);
+        app.before("/messages*", this::authenticate);
+        app.before("/messages*", this::rateLimitByAccount);
+        app.before("/diagnostics*", this::requireAdmin);
+        if (changeLog != null) {
+            app.before("/changes", this::requireAdmin);
+        }
+        app.before(this::bindReadSession);
+        app.after(context -> RoutingDataSource.clearSession());
+        app.after(this::commitRequestEvent);
+        app.after(this::endTrace);
+        if (accessLog != null) {
+            app.after(this::logAccess);
+        }
+        app.after(context -> MDC.clear());
+        app.get("/health", this::getHealth);
+        app.get("/ready", this::getReady);
+        app.get("/diagnostics", this::getDiagnostics);
+        app.post("/diagnostics/recording/start", this::startRecording);
+        app.post("/diagnostics/recording/stop", this::stopRecording);
+        app.get("/diagnostics/recording", this::dumpRecording);
+        app.get("/diagnostics/traces", this::getTraces);
+        if (changeLog != null) {
+            app.get("/changes", this::getChanges);
+        }
+        app.post("/register", routeStats.track("POST /register", this::postAccountRegistration));
+        app.post("/login", routeStats.track("POST /login", this::postAccountLogin));
+        app.get("/messages", routeStats.track("GET /messages", this::getMessages));
+        app.post("/messages", routeStats.track("POST /messages", this::postCreateMessage));
+        app.get("/messages/{message_id}", routeStats.track("GET /messages/{message_id}", this::getMessage));
+        app.delete("/messages/{message_id}", routeStats.track("DELETE /messages/{message_id}", this::deleteMessage));
+        app.patch("/messages/{message_id}", routeStats.track("PATCH /messages/{message_id}", this::updateMessage));
+        app.get("/accounts/{account_id}/messages",
+                routeStats.track("GET /accounts/{account_id}/messages", this::getAccountMessages));
         return app;
     }
 
+    /**
+     * Mark the server ready or not. While it is not ready, /ready answers 503
+     * and so does every other route but /health and /diagnostics, except for
+     * the requests of warmUp(). A
+     * controller is ready from the start, Main sets it to not ready before
+     * starting the server and back once the database and the warm-up are
+     * done.
+     *
+     * @param ready whether to serve requests.
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Replace how /ready checks that the database answers, which is a
+     * validated pool connection with a timeout of one second unless set.
+     *
+     * @param databaseAvailable returns true while the database answers.
+     */
+    public void setDatabaseCheck(BooleanSupplier databaseAvailable) {
+        this.databaseAvailable = databaseAvailable;
+    }
+
+    /**
+     * Exercise every route and codec of the started server, see Warmup.
+     *
+     * @param port   the port the server listens on.
+     * @param rounds how many times to go over the routes.
+     * @return the number of requests sent.
+     */
+    public int warmUp(int port, int rounds) throws IOException, InterruptedException {
+        // account 0 never exists, so the token gets the message routes past authentication and nothing more
+        return new Warmup(port, warmupToken, tokenService.issue(0)).run(rounds);
+    }
+
+    /**
+     * Create the Jetty server with its request thread pool sized by the
+     * socialmedia.server.threads.min, .max and .idle-timeout-ms settings.
+     *
+     * @return the Jetty server, without connectors until the app starts.
+     */
+    private Server createServer() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(config.get(AppConfig.SERVER_MAX_THREADS),
+                config.get(AppConfig.SERVER_MIN_THREADS), config.get(AppConfig.SERVER_IDLE_TIMEOUT_MS));
+        threadPool.setName("JettyServerThreadPool");
+        return new Server(threadPool);
+    }
+
+    /**
+     * Create a rate limit, overridable with the setting
+     * socialmedia.ratelimit.{name}=rate/burst, such as 5/20.
+     *
+     * @param name          the name of the limit.
+     * @param ratePerSecond the default sustained rate.
+     * @param burst         the default burst.
+     * @return the rate limit.
+     */
+    private RateLimiter.Limit createLimit(String name, double ratePerSecond, int burst) {
+        RateLimiter.Limit override = config.get("socialmedia.ratelimit." + name, null, value -> {
+            String[] parts = value.split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("expected rate/burst");
+            }
+            return new RateLimiter.Limit(name, Double.parseDouble(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        });
+        return override != null ? override : new RateLimiter.Limit(name, ratePerSecond, burst);
+    }
+
+    /**
+     * Find the rate limit of a request from its method and path.
+     *
+     * @param context
+     * @return the rate limit that applies.
+     */
+    private RateLimiter.Limit limitFor(Context context) {
+        HandlerType method = context.method();
+        String path = context.path();
+        if (method == HandlerType.POST && path.equals("/login")) {
+            return loginLimit;
+        } else if (method == HandlerType.POST && path.equals("/register")) {
+            return registerLimit;
+        } else if (method == HandlerType.POST && path.equals("/messages")) {
+            return postMessageLimit;
+        } else if ((method == HandlerType.PATCH || method == HandlerType.DELETE) && path.startsWith("/messages/")) {
+            return writeMessageLimit;
+        }
+        return defaultLimit;
+    }
+
+    /**
+     * Exception handler answering a failed statement by its kind: 400 for a
+     * constraint violation such as a taken username, 503 with Retry-After for
+     * a transient error the service layer could not retry away, and 500 for
+     * anything else. The body stays empty, the cause is logged.
+     *
+     * @param e       the failure.
+     * @param context
+     */
+    private void handleDataAccessException(DataAccessException e, Context context) {
+        if (e instanceof ConstraintViolationException) {
+            context.status(400);
+        } else if (e instanceof TransientDataAccessException) {
+            log.warn(e.getMessage());
+            context.status(503).header("Retry-After", "1");
+        } else {
+            log.error(e.getMessage());
+            context.status(500);
+        }
+    }
+
+    /**
+     * Before-handler noting when a request started, for the access log. It
+     * runs first, so requests rejected by a before-handler are timed too.
+     *
+     * @param context
+     */
+    private void startAccessLog(Context context) {
+        context.attribute(ACCESS_START, System.nanoTime());
+    }
+
+    /**
+     * After-handler handing the request to the access log, which copies it
+     * into its ring buffer and writes it later. The bytes are those of the
+     * response body before compression by Jetty, which this controller does
+     * not use.
+     *
+     * @param context
+     */
+    private void logAccess(Context context) throws IOException {
+        Long start = context.attribute(ACCESS_START);
+        long nanos = start == null ? 0 : System.nanoTime() - start;
+        InputStream result = context.resultInputStream();
+        // requests no route matched get a placeholder instead of a path
+        String route = context.endpointHandlerPath();
+        accessLog.record(System.currentTimeMillis() - nanos / 1000000, context.method().name(),
+                route.startsWith("/") ? route : null, context.statusCode(),
+                result == null ? 0 : result.available(), nanos / 1000, MDC.get("requestId"));
+    }
+
+    /**
+     * Before-handler putting the request id and route in the MDC, so every
+     * line logged while handling the request carries them. The request id is
+     * taken from the X-Request-Id header if the caller sent a plausible one
+     * and is returned in the same header. The route is the path until the
+     * request reaches its handler, RouteStats then names the matched route.
+     *
+     * @param context
+     */
+    private void bindLogContext(Context context) {
+        String requestId = context.header(REQUEST_ID);
+        if (requestId == null || !requestId.matches("[A-Za-z0-9._-]{1,64}")) {
+            requestId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+        MDC.clear();
+        MDC.put("requestId", requestId);
+        MDC.put("route", context.method().name() + " " + context.path());
+        context.header(REQUEST_ID, requestId);
+    }
+
+    /**
+     * Before-handler starting the flight recorder event of a request, only
+     * while a recording is running.
+     *
+     * @param context
+     */
+    private void beginRequestEvent(Context context) {
+        FlightEvents.Request event = new FlightEvents.Request();
+        if (event.isEnabled()) {
+            event.begin();
+            context.attribute(REQUEST_EVENT, event);
+        }
+    }
+
+    /**
+     * After-handler committing the flight recorder event of a request with
+     * its final status, also for requests rejected by a before-handler.
+     *
+     * @param context
+     */
+    private void commitRequestEvent(Context context) {
+        FlightEvents.Request event = context.attribute(REQUEST_EVENT);
+        if (event != null && event.shouldCommit()) {
+            event.method = context.method().name();
+            event.route = context.endpointHandlerPath();
+            event.status = context.statusCode();
+            event.commit();
+        }
+    }
+
+    /**
+     * Before-handler starting the root span of a request, in the trace named
+     * by its traceparent header if it has one. Sampled requests get their
+     * trace id back in the traceresponse header.
+     *
+     * @param context
+     */
+    private void beginTrace(Context context) {
+        Tracer.Span span = tracer.startTrace(context.method().name() + " " + context.path(),
+                context.header(Tracer.TRACEPARENT));
+        if (span.isSampled()) {
+            context.attribute(TRACE_SPAN, span);
+            context.header("traceresponse", span.traceparent());
+            MDC.put("traceId", span.getTraceId());
+        }
+    }
+
+    /**
+     * After-handler ending the root span of a request, named after its
+     * matched route so spans of one route can be compared.
+     *
+     * @param context
+     */
+    private void endTrace(Context context) {
+        Tracer.Span span = context.attribute(TRACE_SPAN);
+        if (span != null) {
+            span.rename(context.method().name() + " " + context.endpointHandlerPath())
+                    .set("http.status_code", context.statusCode())
+                    .end();
+        }
+    }
+
+    /**
+     * Before-handler turning requests away with 503 until the server is ready.
+     *
+     * @param context
+     */
+    private void checkReady(Context context) {
+        if (!ready && !isProbe(context.path()) && !isWarmup(context)) {
+            context.header("Retry-After", "1");
+            throw new HttpResponseException(503, "Starting");
+        }
+    }
+
+    private boolean isProbe(String path) {
+        return path.equals("/health") || path.equals("/ready") || path.startsWith("/diagnostics");
+    }
+
+    /**
+     * Before-handler for the admin endpoints. With socialmedia.admin.token
+     * set, requests must send it in the X-Admin-Token header. Without it,
+     * only requests from the local machine are let through.
+     *
+     * @param context
+     */
+    private void requireAdmin(Context context) {
+        if (adminToken != null) {
+            String token = context.header("X-Admin-Token");
+            if (token == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    adminToken.getBytes(StandardCharsets.UTF_8))) {
+                throw new ForbiddenResponse();
+            }
+        } else if (!isLoopback(context.ip())) {
+            throw new ForbiddenResponse();
+        }
+    }
+
+    private boolean isLoopback(String ip) {
+        try {
+            // the remote address is a literal, no lookup happens
+            return InetAddress.getByName(ip).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param context
+     * @return true if the request was sent by warmUp().
+     */
+    private boolean isWarmup(Context context) {
+        String token = context.header(Warmup.TOKEN_HEADER);
+        return token != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                warmupToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Before-handler counting every request against the bucket of its remote IP.
+     *
+     * @param context
+     */
+    private void rateLimitByIp(Context context) {
+        if (!isWarmup(context)) {
+            checkRateLimit(context, "ip:" + context.ip());
+        }
+    }
+
+    /**
+     * Before-handler counting authenticated message requests against the
+     * bucket of their account, so one account can not spread its load over
+     * many IPs.
+     *
+     * @param context
+     */
+    private void rateLimitByAccount(Context context) {
+        Integer accountId = context.attribute("account_id");
+        if (accountId != null && !isWarmup(context)) {
+            checkRateLimit(context, "account:" + accountId);
+        }
+    }
+
+    /**
+     * Before-handler attributing the database reads and writes of a request
+     * to its account, or to its IP when it has no token, so the client reads
+     * its own writes when reads go to replicas.
+     *
+     * @param context
+     */
+    private void bindReadSession(Context context) {
+        Integer accountId = context.attribute("account_id");
+        RoutingDataSource.setSession(accountId != null ? "account:" + accountId : "ip:" + context.ip());
+    }
+
+    private void checkRateLimit(Context context, String key) {
+        long waitNanos = rateLimiter.tryAcquire(limitFor(context), key);
+        if (waitNanos > 0) {
+            context.header("Retry-After", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1));
+            throw new HttpResponseException(429, "Too many requests");
+        }
+    }
+
+    /**
+     * Before-handler checking the bearer token of message requests. The token
+     * is verified in memory, no database call is made. A valid token stores
+     * its account id in the "account_id" attribute. Requests without a token
+     * are let through unless socialmedia.auth.required is set, in which case
+     * only reads are.
+     *
+     * @param context
+     */
+    private void authenticate(Context context) {
+        String authorization = context.header("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            if (authRequired && context.method() != HandlerType.GET) {
+                throw new UnauthorizedResponse();
+            }
+            return;
+        }
+        Integer accountId = tokenService.verify(authorization.substring("Bearer ".length()).trim());
+        if (accountId == null) {
+            throw new UnauthorizedResponse();
+        }
+        context.attribute("account_id", accountId);
+    }
+
+    /**
+     * Select the JSON mapper used by context.json() and context.bodyAsClass().
+     * The hand-rolled streaming codec is the default, the setting
+     * socialmedia.json=databind switches back to plain Jackson databind.
+     *
+     * @return the JSON mapper for the Javalin app.
+     */
+    private JsonMapper createJsonMapper() {
+        if ("databind".equals(config.get(AppConfig.JSON))) {
+            return new JavalinJackson();
+        }
+        return new StreamingJsonMapper();
+    }
+
+    /**
+     * Build the response compression settings from the configuration:
+     * socialmedia.compression.min-size is the threshold in bytes,
+     * socialmedia.compression.level the default level and
+     * socialmedia.compression.level.{route} the level of a single route.
+     *
+     * @return the response compression settings.
+     */
+    private ResponseCompression createCompression() {
+        ResponseCompression compression = new ResponseCompression(
+                config.get(AppConfig.COMPRESSION_MIN_SIZE), config.get(AppConfig.COMPRESSION_LEVEL));
+        for (String route : new String[] { "/messages", "/messages/{message_id}",
+                "/accounts/{account_id}/messages" }) {
+            Integer level = config.get("socialmedia.compression.level." + route, null,
+                    value -> ResponseCompression.checkLevel(Integer.parseInt(value)));
+            if (level != null) {
+                compression.routeLevel(route, level);
+            }
+        }
+        return compression;
+    }
+
+    /**
+     * Read the request body in the format named by its Content-Type header.
+     * CBOR and Smile bodies go through the matching binary codec, anything
+     * else is read as JSON.
+     *
+     * @param context
+     * @param type    Message.class or Account.class.
+     * @return the decoded request body.
+     */
+    private <T> T readBody(Context context, Class<T> type) {
+        BinaryFormat format = BinaryFormat.fromContentType(context.contentType());
+        try (Tracer.Span span = tracer.startSpan("readBody")) {
+            span.set("format", format == null ? "json" : format.name());
+            if (format == null) {
+                return context.bodyAsClass(type);
+            }
+            return format.getCodec().read(context.bodyAsBytes(), type);
+        } catch (IOException e) {
+            throw new BadRequestResponse();
+        }
+    }
+
+    /**
+     * Write the response body in the format negotiated by the Accept header.
+     * JSON is the default when no binary format is asked for.
+     *
+     * @param context
+     * @param body    a Message, an Account or a List of Messages.
+     */
+    private void writeBody(Context context, Object body) throws IOException {
+        BinaryFormat format = BinaryFormat.fromAccept(context.header("Accept"));
+        send(context, new ResponseCache.Entry(contentType(format), encode(body, format)));
+    }
+
+    /**
+     * Write a list page from the list cache, loading and encoding it only on
+     * a miss. The cache keeps one entry per page and format.
+     *
+     * @param context
+     * @param key      the page, such as /messages.
+     * @param messages loads the page from the service layer.
+     */
+    private void writeCachedList(Context context, String key, Supplier<List<Message>> messages)
+            throws IOException {
+        BinaryFormat format = BinaryFormat.fromAccept(context.header("Accept"));
+        String cacheKey = key + "|" + contentType(format);
+        // a miss is timed until the page is loaded and stored
+        FlightEvents.Cache event = new FlightEvents.Cache();
+        event.begin();
+        ResponseCache.Entry entry = listCache.get(cacheKey);
+        boolean hit = entry != null;
+        if (entry == null) {
+            long generation = listCache.generation();
+            // the page is served to every session, it must not come from a replica behind any write
+            entry = new ResponseCache.Entry(contentType(format),
+                    encode(RoutingDataSource.readLatest(messages), format));
+            listCache.put(cacheKey, generation, entry);
+        }
+        if (event.shouldCommit()) {
+            event.key = cacheKey;
+            event.hit = hit;
+            event.commit();
+        }
+        send(context, entry);
+    }
+
+    private String contentType(BinaryFormat format) {
+        return format == null ? "application/json" : format.getMediaType();
+    }
+
+    private byte[] encode(Object body, BinaryFormat format) throws IOException {
+        try (Tracer.Span span = tracer.startSpan("encode")) {
+            span.set("format", format == null ? "json" : format.name());
+            if (format != null) {
+                return format.getCodec().write(body);
+            } else if (jsonMapper instanceof StreamingJsonMapper) {
+                return ((StreamingJsonMapper) jsonMapper).toJsonBytes(body);
+            }
+            return jsonMapper.toJsonString(body, body.getClass()).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Send an encoded body, compressed when the client accepts it and the
+     * body is over the compression threshold. The format and the coding
+     * depend on Accept and Accept-Encoding, so shared caches are told to key
+     * on both, whatever this response was.
+     *
+     * @param context
+     * @param entry   the encoded body.
+     */
+    private void send(Context context, ResponseCache.Entry entry) {
+        context.header("Vary", VARY);
+        context.contentType(entry.getContentType());
+        byte[] body = entry.getBody();
+        if (compression.shouldCompress(body.length)) {
+            ResponseCompression.Encoding encoding = ResponseCompression.negotiate(context.header("Accept-Encoding"));
+            if (encoding != null) {
+                body = entry.getCompressedBody(encoding, compression.levelFor(context.endpointHandlerPath()));
+                context.header("Content-Encoding", encoding.getToken());
+            }
+        }
+        context.result(body);
+    }
+
+    /**
+     * Handler for the liveness probe: 200 as long as the server can handle
+     * requests at all.
+     *
+     * @param context
+     */
+    private void getHealth(Context context) {
+        context.status(200).result("ok");
+    }
+
+    /**
+     * Handler for the readiness probe: 200 once the server is warmed up and
+     * the database answers, 503 otherwise.
+     *
+     * @param context
+     */
+    private void getReady(Context context) {
+        if (!ready) {
+            context.status(503).result("starting");
+        } else if (!databaseAvailable.getAsBoolean()) {
+            context.status(503).result("database unavailable");
+        } else {
+            context.status(200).result("ready");
+        }
+    }
+
+    /**
+     * Handler for the runtime diagnostics, see Diagnostics.
+     *
+     * @param context
+     */
+    private void getDiagnostics(Context context) {
+        context.header("Cache-Control", "no-store");
+        context.json(diagnostics.snapshot());
+    }
+
+    /**
+     * Handler starting a flight recording. The query parameter settings picks
+     * the JDK configuration, "default" or "profile", and max-age-seconds how
+     * much history is kept, 600 unless given.
+     *
+     * @param context
+     */
+    private void startRecording(Context context) throws IOException {
+        String settings = context.queryParam("settings");
+        String maxAge = context.queryParam("max-age-seconds");
+        try {
+            boolean started = recording.start(settings != null ? settings : "default",
+                    Duration.ofSeconds(maxAge != null ? Long.parseLong(maxAge) : 600));
+            context.status(started ? 200 : 409).result(recording.getState());
+        } catch (IllegalArgumentException e) {
+            context.status(400).result(e.getMessage());
+        }
+    }
+
+    /**
+     * Handler stopping the flight recording. Its data can still be dumped.
+     *
+     * @param context
+     */
+    private void stopRecording(Context context) {
+        boolean stopped = recording.stop();
+        context.status(stopped ? 200 : 409).result(recording.getState());
+    }
+
+    /**
+     * Handler downloading the data of the flight recording as a .jfr file,
+     * to be opened with JDK Mission Control or the jfr tool.
+     *
+     * @param context
+     */
+    private void dumpRecording(Context context) throws IOException {
+        Path file = recording.dump();
+        if (file == null) {
+            context.status(404).result(recording.getState());
+            return;
+        }
+        context.contentType("application/octet-stream");
+        context.header("Content-Disposition", "attachment; filename=\"socialmedia.jfr\"");
+        context.result(Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Handler listing the finished spans in the tracer's ring buffer, newest
+     * first. The query parameter trace_id keeps the spans of one trace,
+     * limit caps their number, 100 unless given.
+     *
+     * @param context
+     */
+    private void getTraces(Context context) {
+        long limit = longQueryParam(context, "limit", 100);
+        if (limit < 1) {
+            throw new BadRequestResponse();
+        }
+        context.header("Cache-Control", "no-store");
+        context.json(tracer.getSpans(context.queryParam("trace_id"), (int) Math.min(limit, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Handler serving the change log from the offset in the query parameter
+     * from, 0 unless given, as JSON lines. max caps the number of events,
+     * 1000 unless given, and wait-ms is how long to wait when there are no
+     * events yet, so consumers long-poll instead of polling in a loop. The
+     * X-Next-Offset header is the offset to ask for next. Every long-poll
+     * holds a request thread, which is fine for the few consumers the log
+     * has.
+     *
+     * @param context
+     */
+    private void getChanges(Context context) {
+        long from = longQueryParam(context, "from", 0);
+        long max = longQueryParam(context, "max", 1000);
+        long waitMillis = longQueryParam(context, "wait-ms", 0);
+        if (from < 0 || max < 1 || waitMillis < 0) {
+            throw new BadRequestResponse();
+        }
+        ChangeLog.Batch batch = changeLog.read(from, (int) Math.min(max, 10000),
+                Math.min(waitMillis, ChangeLog.MAX_WAIT_MILLIS));
+        context.header("Cache-Control", "no-store");
+        context.header("X-Next-Offset", Long.toString(batch.getNext()));
+        context.contentType("application/x-ndjson").result(batch.getLines());
+    }
+
+    private static long longQueryParam(Context context, String name, long defaultValue) {
+        String value = context.queryParam(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse();
+        }
+    }
+
     /**
      * Handler to register a new account.
      * 
      * @param context
-     * 
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
      */
-    private void postAccountRegistration(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+    private void postAccountRegistration(Context context) throws IOException {
+        Account account = readBody(context, Account.class);
         // check username and password requirements
         boolean isValidUsernamePassword = validateUsernamePassword(account.getUsername(), account.getPassword());
         if (!isValidUsernamePassword) {
             context.status(400);
             return;
         }
-        // determine the status code from account insert
+        // a taken username fails the insert, handleDataAccessException answers 400
         Account registeredUser = accountService.addAccount(account);
-        if (registeredUser == null) {
-            context.status(400);
-        } else {
-            context.status(200);
-            context.json(mapper.writeValueAsString(registeredUser));
-        }
+        context.status(200);
+        writeBody(context, registeredUser);
     }
 
     /**
      * Handler to login an account.
      * 
      * @param context
-     * 
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
      */
-    private void postAccountLogin(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+    private void postAccountLogin(Context context) throws IOException {
+        Account account = readBody(context, Account.class);
 
         Account loggedUser = accountService.getAccount(account);
         if (loggedUser == null) {
             context.status(401);
         } else {
             context.status(200);
-            context.json(mapper.writeValueAsString(loggedUser));
+            context.header("X-Auth-Token", tokenService.issue(loggedUser.getAccount_id()));
+            writeBody(context, loggedUser);
         }
     }
 
+    /**
+     * Read a numeric id from the path, failing fast with 400 on anything
+     * else so the request never reaches the database.
+     *
+     * @param context
+     * @param name    the path parameter.
+     * @return the id.
+     */
+    private long pathId(Context context, String name) {
+        try {
+            return Long.parseLong(context.pathParam(name));
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse();
+        }
+    }
+
+    /**
+     * @param message a message.
+     * @return the entity tag of the message, its version in quotes. It names
+     *         the version of the message rather than the bytes of one
+     *         encoding, so it is the same for every format and compression
+     *         and therefore weak: W/"version".
+     */
+    private static String etag(Message message) {
+        return "W/\"" + message.getVersion() + "\"";
+    }
+
+    /**
+     * Read the version an If-Match header makes a change conditional on.
+     *
+     * @param header the If-Match header, may be null.
+     * @return the version, or null without the header or for *, which only
+     *         asks for the message to exist.
+     * @throws PreconditionFailedException if the header is not one entity tag
+     *                                     of a message, no version can match.
+     */
+    private static Long ifMatchVersion(String header) {
+        if (header == null || header.trim().equals("*")) {
+            return null;
+        }
+        String tag = header.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        try {
+            if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            }
+        } catch (NumberFormatException e) {
+            // not a version of ours
+        }
+        throw new PreconditionFailedException("If-Match " + header + " matches no version");
+    }
+
+    /**
+     * @param header an If-None-Match header, may be null.
+     * @param etag   the entity tag of the current version.
+     * @return true if the header lists the tag or is *, with the weak
+     *         comparison the header calls for.
+     */
+    private static boolean noneMatchFails(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        if (etag.startsWith("W/")) {
+            etag = etag.substring(2);
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Validate username and password requirements.
      * username must not be blank.
@@ -98,9 +946,6 @@ public class SocialMediaController {
      * username must not be taken -- is validated in service layer.
      * 
      * @param context
-     * 
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
      */
     private boolean validateUsernamePassword(String username, String password) {
         final int passwordMinLength = 4;
@@ -116,13 +961,9 @@ public class SocialMediaController {
      * Handler to create a new message.
      * 
      * @param context
-     * 
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
      */
-    private void postCreateMessage(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+    private void postCreateMessage(Context context) throws IOException {
+        Message message = readBody(context, Message.class);
 
         // check message_text requirements
         boolean isValidMessageText = validateMessage(message.getMessage_text());
@@ -131,19 +972,22 @@ public class SocialMediaController {
             return;
         }
 
-        Account account = accountService.getAccountId(message.getPosted_by());
-        if (account == null) {
-            context.status(400);
+        // a token already proves the account exists, only anonymous posts are checked in the db
+        Integer accountId = context.attribute("account_id");
+        if (accountId != null && accountId != message.getPosted_by()) {
+            context.status(403);
             return;
         }
 
-        // determine the status code from message insert
-        Message newMessage = messageService.addMessage(message);
-        if (messageService == null) {
+        // determine the status code from message insert, null if the poster does not exist
+        Message newMessage = messageService.addMessage(message, accountId == null);
+        if (newMessage == null) {
             context.status(400);
         } else {
+            listCache.invalidateAll();
             context.status(200);
-            context.json(mapper.writeValueAsString(newMessage));
+            context.header("ETag", etag(newMessage));
+            writeBody(context, newMessage);
         }
     }
 
@@ -177,8 +1021,8 @@ public class SocialMediaController {
      *                be available to this method automatically thanks to the
      *                app.put method.
      */
-    private void getMessages(Context context) {
-        context.json(messageService.getAllMessages());
+    private void getMessages(Context context) throws IOException {
+        writeCachedList(context, "/messages", messageService::getAllMessages);
     }
 
     /**
@@ -189,12 +1033,19 @@ public class SocialMediaController {
      *                be available to this method automatically thanks to the
      *                app.put method.
      */
-    private void getMessage(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
+    private void getMessage(Context context) throws IOException {
+        long message_id = pathId(context, "message_id");
         Message messageFound = messageService.getMessage(message_id);
         if (messageFound != null) {
-            context.status(200).json(mapper.writeValueAsString(messageFound));
+            String etag = etag(messageFound);
+            context.header("ETag", etag);
+            if (noneMatchFails(context.header("If-None-Match"), etag)) {
+                context.header("Vary", VARY);
+                context.status(304);
+                return;
+            }
+            context.status(200);
+            writeBody(context, messageFound);
         } else {
             context.status(200);
 
@@ -209,12 +1060,18 @@ public class SocialMediaController {
      *                be available to this method automatically thanks to the
      *                app.put method.
      */
-    private void deleteMessage(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
-        Message messageFound = messageService.deleteMessage(message_id);
+    private void deleteMessage(Context context) throws IOException {
+        long message_id = pathId(context, "message_id");
+        String ifMatch = context.header("If-Match");
+        Message messageFound = messageService.deleteMessage(message_id, context.attribute("account_id"),
+                ifMatchVersion(ifMatch));
         if (messageFound != null) {
-            context.status(200).json(mapper.writeValueAsString(messageFound));
+            listCache.invalidateAll();
+            context.status(200);
+            writeBody(context, messageFound);
+        } else if (ifMatch != null) {
+            // If-Match: * on a message that does not exist
+            context.status(412);
         } else {
             context.status(200).result("");
 
@@ -229,10 +1086,9 @@ public class SocialMediaController {
      *                be available to this method automatically thanks to the
      *                app.put method.
      */
-    private void updateMessage(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
-        Message message = mapper.readValue(context.body(), Message.class);
+    private void updateMessage(Context context) throws IOException {
+        long message_id = pathId(context, "message_id");
+        Message message = readBody(context, Message.class);
 
         // check message_text requirements
         boolean isValidMessageText = validateMessage(message.getMessage_text());
@@ -241,12 +1097,17 @@ public class SocialMediaController {
             return;
         }
         // determine the status code from message update
-        Message messageUpdated = messageService.updateMessage(message_id, message.getMessage_text());
+        String ifMatch = context.header("If-Match");
+        Message messageUpdated = messageService.updateMessage(message_id, message.getMessage_text(),
+                context.attribute("account_id"), ifMatchVersion(ifMatch));
         if (messageUpdated == null) {
-            context.status(400);
+            // If-Match: * on a message that does not exist
+            context.status(ifMatch != null ? 412 : 400);
         } else {
+            listCache.invalidateAll();
             context.status(200);
-            context.json(mapper.writeValueAsString(messageUpdated));
+            context.header("ETag", etag(messageUpdated));
+            writeBody(context, messageUpdated);
         }
 
     }
@@ -259,9 +1120,14 @@ public class SocialMediaController {
      *                be available to this method automatically thanks to the
      *                app.put method.
      */
-    private void getAccountMessages(Context context) throws JsonProcessingException {
-        int account_id = Integer.parseInt(context.pathParam("account_id"));
-        context.status(200).json(accountService.getAccountMessages(account_id));
-       
+    private void getAccountMessages(Context context) throws IOException {
+        long id = pathId(context, "account_id");
+        if (id != (int) id) {
+            throw new BadRequestResponse();
+        }
+        int account_id = (int) id;
+        context.status(200);
+        writeCachedList(context, "/accounts/" + account_id + "/messages",
+                () -> accountService.getAccountMessages(account_id));
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package Controller;
+
+import Model.Account;
+import Model.Message;
+import Util.BinaryFormat;
+import Util.StreamingCodec;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * The Warmup class sends requests to every route of a freshly started server
+ * before it reports ready, so class loading, JIT compilation of the handlers
+ * and codecs, and opening pooled connections happen before the first client
+ * arrives instead of on its requests.
+ *
+ * Every route is called in JSON, CBOR and Smile, with and without
+ * compression, and list responses are decoded again so the reading side of
+ * the codecs is exercised too. The requests never change any data:
+ * registrations and new messages are invalid, logins name an account that
+ * does not exist, and updates and deletes name message 0, which no id scheme
+ * hands out.
+ *
+ * The requests carry the warm-up token of the controller, which exempts them
+ * from rate limiting and lets them through before the server is ready.
+ */
+public class Warmup {
+    public static final String TOKEN_HEADER = "X-Warmup-Token";
+
+    private static final String[] ACCEPT = { "application/json", "application/cbor", "application/x-jackson-smile" };
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String warmupToken;
+    private final String authToken;
+    private final StreamingCodec json = new StreamingCodec();
+
+    /**
+     * @param port        the port the server listens on.
+     * @param warmupToken the warm-up token of the controller.
+     * @param authToken   a bearer token for the message routes, of an account
+     *                    that does not exist.
+     */
+    public Warmup(int port, String warmupToken, String authToken) {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        this.baseUrl = "http://127.0.0.1:" + port;
+        this.warmupToken = warmupToken;
+        this.authToken = authToken;
+    }
+
+    /**
+     * Call every route in every format, the given number of times.
+     *
+     * @param rounds how many times to go over the routes.
+     * @return the number of requests sent.
+     */
+    public int run(int rounds) throws IOException, InterruptedException {
+        int requests = 0;
+        Account unknown = new Account("warmup-" + warmupToken, "warmup-password");
+        Account invalid = new Account("", "");
+        Message blank = new Message(0, "", 0);
+        Message text = new Message(0, "warmup", 0);
+        for (int round = 0; round < rounds; round++) {
+            for (String accept : ACCEPT) {
+                BinaryFormat format = BinaryFormat.fromContentType(accept);
+                String encoding = round % 2 == 0 ? "gzip" : null;
+                send("POST", "/register", invalid, format, accept, encoding);
+                send("POST", "/login", unknown, format, accept, encoding);
+                send("POST", "/messages", blank, format, accept, encoding);
+                send("PATCH", "/messages/0", text, format, accept, encoding);
+                send("DELETE", "/messages/0", null, format, accept, encoding);
+                send("GET", "/messages/1", null, format, accept, encoding);
+                readMessages(send("GET", "/messages", null, format, accept, encoding), format);
+                readMessages(send("GET", "/accounts/1/messages", null, format, accept, encoding), format);
+                requests += 8;
+            }
+        }
+        return requests;
+    }
+
+    private HttpResponse<byte[]> send(String method, String path, Object body, BinaryFormat format, String accept,
+            String encoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(10))
+                .header(TOKEN_HEADER, warmupToken)
+                .header("Authorization", "Bearer " + authToken)
+                .header("Accept", accept);
+        if (encoding != null) {
+            request.header("Accept-Encoding", encoding);
+        }
+        if (body == null) {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            byte[] content = format == null ? json.write(body) : format.getCodec().write(body);
+            request.header("Content-Type", format == null ? "application/json" : format.getMediaType());
+            request.method(method, HttpRequest.BodyPublishers.ofByteArray(content));
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private void readMessages(HttpResponse<byte[]> response, BinaryFormat format) throws IOException {
+        if (response.statusCode() != 200 || response.headers().firstValue("Content-Encoding").isPresent()) {
+            return;
+        }
+        if (format == null) {
+            json.readMessages(response.body());
+        } else {
+            format.getCodec().readMessages(response.body());
+        }
+    }
+}
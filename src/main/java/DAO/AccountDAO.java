@@ -3,21 +3,44 @@ package DAO;
 import Model.Account;
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.FlightEvents;
+import Util.MessageShards;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The AccountDAO class runs the statements on the account table. A statement
+ * that fails throws a DataAccessException, a lookup that finds nothing
+ * returns null.
+ */
 public class AccountDAO {
+    private final MessageShards messageShards;
+
+    public AccountDAO() {
+        this(ConnectionUtil.getMessageShards());
+    }
+
+    /**
+     * Constructor for an accountDAO over given message shards, such as
+     * in-memory databases in tests.
+     *
+     * @param messageShards the databases holding the message table.
+     */
+    public AccountDAO(MessageShards messageShards) {
+        this.messageShards = messageShards;
+    }
+
     /**
      * Retrieve all accounts from the account table.
      *
      * @return all accounts.
      */
     public List<Account> getAllAccounts() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Account> accounts = new ArrayList<>();
-        try {
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.getAllAccounts");
+        try (Connection connection = ConnectionUtil.reader().getConnection()) {
             String sql = "SELECT * FROM account";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             ResultSet rs = preparedStatement.executeQuery();
@@ -27,9 +50,10 @@ public class AccountDAO {
                         rs.getString("password"));
                 accounts.add(account);
             }
-
+            event.finish(accounts.size());
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            event.fail(exception);
+            throw DataAccessException.translate("AccountDAO.getAllAccounts", exception);
         }
         return accounts;
     }
@@ -40,8 +64,8 @@ public class AccountDAO {
      * @param username an account username.
      */
     public Account getAccountByUsername(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.getAccountByUsername");
+        try (Connection connection = ConnectionUtil.reader().getConnection()) {
             String sql = "SELECT * FROM account WHERE username = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
 
@@ -50,10 +74,13 @@ public class AccountDAO {
             while (rs.next()) {
                 Account account = new Account(rs.getInt("account_id"), rs.getString("username"),
                         rs.getString("password"));
+                event.finish(1);
                 return account;
             }
+            event.finish(0);
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            event.fail(exception);
+            throw DataAccessException.translate("AccountDAO.getAccountByUsername", exception);
         }
         return null;
     }
@@ -64,7 +91,22 @@ public class AccountDAO {
      * @param id an account id.
      */
     public Account getAccountById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
+        try (Connection connection = ConnectionUtil.reader().getConnection()) {
+            return getAccountById(connection, id);
+        } catch (SQLException exception) {
+            throw DataAccessException.translate("AccountDAO.getAccountById", exception);
+        }
+    }
+
+    /**
+     * Retrieve a specific account on a given connection, such as in the
+     * transaction inserting a message of the account.
+     *
+     * @param connection a connection to the main database.
+     * @param id         an account id.
+     */
+    public Account getAccountById(Connection connection, int id) {
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.getAccountById");
         try {
             String sql = "SELECT * FROM account WHERE account_id = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -74,10 +116,13 @@ public class AccountDAO {
             while (rs.next()) {
                 Account account = new Account(rs.getInt("account_id"), rs.getString("username"),
                         rs.getString("password"));
+                event.finish(1);
                 return account;
             }
+            event.finish(0);
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            event.fail(exception);
+            throw DataAccessException.translate("AccountDAO.getAccountById", exception);
         }
         return null;
     }
@@ -90,49 +135,84 @@ public class AccountDAO {
      *                contain an account ID.
      */
     public Account insertAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.insertAccount");
+        try (Connection connection = ConnectionUtil.primary().getConnection()) {
             String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
             PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
             preparedStatement.setString(1, account.username);
             preparedStatement.setString(2, account.password);
-            preparedStatement.executeUpdate();
+            int rows = preparedStatement.executeUpdate();
 
             ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
+            event.finish(rows);
             if (pkeyResultSet.next()) {
                 int generated_account_id = (int) pkeyResultSet.getLong(1);
+                ConnectionUtil.replicate("account", "account_id", generated_account_id);
                 return new Account(generated_account_id, account.getUsername(), account.getPassword());
             }
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            event.fail(e);
+            throw DataAccessException.translate("AccountDAO.insertAccount", e);
         }
         return null;
     }
 
     /**
-     * Retrieve all messages from an account using account id with a join.
+     * Replace the stored password of an account, unless it changed since it
+     * was read.
+     *
+     * @param id       the account id.
+     * @param previous the stored password that was read.
+     * @param password the new stored password.
+     * @return false if the account or its stored password changed.
+     */
+    public boolean updatePassword(int id, String previous, String password) {
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.updatePassword");
+        try (Connection connection = ConnectionUtil.primary().getConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                    "UPDATE account SET password = ? WHERE account_id = ? AND password = ?");
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, id);
+            preparedStatement.setString(3, previous);
+            int rows = preparedStatement.executeUpdate();
+            event.finish(rows);
+            if (rows > 0) {
+                ConnectionUtil.replicate("account", "account_id", id);
+            }
+            return rows > 0;
+        } catch (SQLException e) {
+            event.fail(e);
+            throw DataAccessException.translate("AccountDAO.updatePassword", e);
+        }
+    }
+
+    /**
+     * Retrieve all messages from an account using account id. The lookup goes
+     * to the one shard holding the messages of the account, and is served by
+     * the index on message.posted_by.
      *
      * @return all messages from an account.
      */
     public List<Message> getAccountMessages(int id) {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM account INNER JOIN message ON account_id = ?";
+        FlightEvents.Statement event = FlightEvents.statement("AccountDAO.getAccountMessages");
+        try (Connection connection = messageShards.getReadConnection(messageShards.forAccount(id))) {
+            String sql = "SELECT * FROM message WHERE posted_by = ? AND NOT deleted";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, id);
 
             ResultSet rs = preparedStatement.executeQuery();
 
             while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                Message message = new Message(rs.getLong("message_id"), rs.getInt("posted_by"),
                         rs.getString("message_text"), rs.getLong("time_posted_epoch"));
                 messages.add(message);
             }
-
+            event.finish(messages.size());
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            event.fail(exception);
+            throw DataAccessException.translate("AccountDAO.getAccountMessages", exception);
         }
         return messages;
     }
@@ -0,0 +1,16 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the DAOs when a statement breaks an integrity constraint, such as
+ * a message posted by an account that does not exist. The controller answers
+ * it with 400, retrying would fail the same way.
+ */
+public class ConstraintViolationException extends DataAccessException {
+    private static final long serialVersionUID = 1L;
+
+    public ConstraintViolationException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,48 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the DAOs when a statement fails, instead of returning null as if
+ * the row did not exist. translate() picks the subclass from the SQLState,
+ * so the service layer can retry what may succeed the next time and the
+ * controller can tell a client error from a failing database:
+ *
+ * ConstraintViolationException: the data broke a constraint, 400.
+ * DuplicateKeyException: a unique key is taken, such as a username, 400.
+ * TransientDataAccessException: the statement did not run or was rolled
+ * back and may succeed when retried, 503 once retries are exhausted.
+ * DataAccessException itself: anything else, 500.
+ */
+public class DataAccessException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DataAccessException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    /**
+     * @param statement the DAO method that ran the statement, such as
+     *                  AccountDAO.insertAccount.
+     * @param e         what the driver threw.
+     * @return the exception to throw in its place.
+     */
+    public static DataAccessException translate(String statement, SQLException e) {
+        String message = statement + " failed: " + e.getMessage();
+        String state = e.getSQLState() == null ? "" : e.getSQLState();
+        switch (state) {
+            case "23505":
+                return new DuplicateKeyException(message, e);
+            case "40001": // deadlock, the transaction was rolled back
+            case "HYT00": // lock timeout
+            case "08001": // no connection, including a connection pool timeout
+            case "08004": // connection refused
+                return new TransientDataAccessException(message, e);
+            default:
+                if (state.startsWith("23")) {
+                    return new ConstraintViolationException(message, e);
+                }
+                return new DataAccessException(message, e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the DAOs when an insert hits a unique key, such as a username
+ * that is already registered. The unique constraint is the check, so no
+ * lookup has to run before the insert.
+ */
+public class DuplicateKeyException extends ConstraintViolationException {
+    private static final long serialVersionUID = 1L;
+
+    public DuplicateKeyException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
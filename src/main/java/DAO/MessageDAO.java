@@ -1,89 +1,303 @@
 package DAO;
 
 import Model.Message;
+import Util.ChangeLog;
+import Util.ConnectionSource;
 import Util.ConnectionUtil;
+import Util.FlightEvents;
+import Util.MessageShards;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.PriorityQueue;
 
+/**
+ * The MessageDAO class runs the statements on the message table of every
+ * shard. A statement that fails throws a DataAccessException, a lookup that
+ * finds nothing returns null.
+ *
+ * Deleting a message only marks its row deleted, a tombstone every read
+ * skips, so a delete is one small update rather than index maintenance on
+ * the table inserts are busy with. purgeDeleted() removes the tombstones
+ * later, see MessagePurger.
+ *
+ * The methods taking a connection leave telling the read replicas and the
+ * change log to the caller, with changed() once the transaction committed,
+ * so a replica never copies a row and a consumer never sees an event before
+ * the change is visible.
+ */
 public class MessageDAO {
+    private static final Logger log = LoggerFactory.getLogger(MessageDAO.class);
+
+    private static final String SELECT_BY_ID = "SELECT * FROM message WHERE message_id = ? AND NOT deleted";
+
+    private final MessageShards shards;
+    private final ChangeLog changeLog;
+
+    public MessageDAO() {
+        this(ConnectionUtil.getMessageShards());
+    }
 
     /**
-     * Retrieve all messages from the message table.
+     * Constructor for a messageDAO over given shards, such as in-memory
+     * databases in tests.
      *
+     * @param shards the databases holding the message table.
+     */
+    public MessageDAO(MessageShards shards) {
+        this(shards, ChangeLog.shared());
+    }
+
+    /**
+     * Constructor for a messageDAO over given shards, logging its changes to
+     * a given change log.
+     *
+     * @param shards    the databases holding the message table.
+     * @param changeLog the log of the changes, or null for none.
+     */
+    public MessageDAO(MessageShards shards, ChangeLog changeLog) {
+        this.shards = shards;
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Retrieve all messages from the message table, oldest first: in
+     * time_posted_epoch order, then message_id for messages of the same
+     * second. With several shards, the messages of every shard are merged in
+     * that order.
      *
      * @return all messages.
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
+        if (shards.count() > 1) {
+            return mergeShards();
+        }
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM message";
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.getAllMessages");
+        try (Connection connection = shards.getReadConnection(0)) {
+            String sql = "SELECT * FROM message WHERE NOT deleted ORDER BY time_posted_epoch, message_id";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             ResultSet rs = preparedStatement.executeQuery();
             while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                Message message = new Message(rs.getLong("message_id"), rs.getInt("posted_by"),
                         rs.getString("message_text"), rs.getLong("time_posted_epoch"));
                 messages.add(message);
             }
+            event.finish(messages.size());
+        } catch (SQLException e) {
+            event.fail(e);
+            throw DataAccessException.translate("MessageDAO.getAllMessages", e);
+        }
+        return messages;
+    }
+
+    /**
+     * Merge the messages of every shard, each read in time_posted_epoch order
+     * through the index on it, with a k-way merge on the heads of the shards.
+     *
+     * @return all messages, oldest first.
+     */
+    private List<Message> mergeShards() {
+        List<Message> messages = new ArrayList<>();
+        List<Connection> connections = new ArrayList<>();
+        PriorityQueue<ShardCursor> heads = new PriorityQueue<>(Comparator
+                .comparingLong((ShardCursor cursor) -> cursor.head.getTime_posted_epoch())
+                .thenComparingLong(cursor -> cursor.head.getMessage_id()));
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.getAllMessages");
+        try {
+            for (int shard = 0; shard < shards.count(); shard++) {
+                Connection connection = shards.getReadConnection(shard);
+                connections.add(connection);
+                String sql = "SELECT * FROM message WHERE NOT deleted ORDER BY time_posted_epoch, message_id";
+                ShardCursor cursor = new ShardCursor(connection.prepareStatement(sql).executeQuery());
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                ShardCursor cursor = heads.poll();
+                messages.add(cursor.head);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            event.finish(messages.size());
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            event.fail(e);
+            throw DataAccessException.translate("MessageDAO.getAllMessages", e);
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("MessageDAO.getAllMessages could not close a connection: {}", e.getMessage());
+                }
+            }
         }
         return messages;
     }
 
+    /**
+     * The next unmerged message of a shard.
+     */
+    private static class ShardCursor {
+        private final ResultSet rs;
+        private Message head;
+
+        private ShardCursor(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        private boolean advance() throws SQLException {
+            if (!rs.next()) {
+                return false;
+            }
+            head = new Message(rs.getLong("message_id"), rs.getInt("posted_by"),
+                    rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            return true;
+        }
+    }
+
     /**
      * Retrieve a specific message using its message id.
      *
      * @param id a message id.
      */
-    public Message getMessageById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
+    public Message getMessageById(long id) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.getMessageById");
+        try (Connection connection = shards.getReadConnection(shards.forMessage(id))) {
+            Message message = selectMessage(connection, SELECT_BY_ID, id);
+            event.finish(message == null ? 0 : 1);
+            return message;
+        } catch (SQLException exception) {
+            event.fail(exception);
+            throw DataAccessException.translate("MessageDAO.getMessageById", exception);
+        }
+    }
+
+    /**
+     * Retrieve a specific message on a given connection, so writes can read
+     * the row from the primary they are writing to.
+     *
+     * @param connection a connection to the shard of the message.
+     * @param id         a message id.
+     */
+    public Message getMessageById(Connection connection, long id) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.getMessageById");
         try {
-            String sql = "SELECT * FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            Message message = selectMessage(connection, SELECT_BY_ID, id);
+            event.finish(message == null ? 0 : 1);
+            return message;
+        } catch (SQLException exception) {
+            event.fail(exception);
+            throw DataAccessException.translate("MessageDAO.getMessageById", exception);
+        }
+    }
 
-            preparedStatement.setInt(1, id);
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
-                        rs.getString("message_text"), rs.getLong("time_posted_epoch"));
-                return message;
-            }
+    /**
+     * Retrieve a specific message and lock its row until the transaction of
+     * the connection ends, so concurrent updates and deletes of the message
+     * take turns instead of acting on what another one is about to change.
+     *
+     * @param connection a connection to the shard of the message, in a
+     *                   transaction.
+     * @param id         a message id.
+     */
+    public Message lockMessageById(Connection connection, long id) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.lockMessageById");
+        try {
+            Message message = selectMessage(connection, SELECT_BY_ID + " FOR UPDATE", id);
+            event.finish(message == null ? 0 : 1);
+            return message;
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            event.fail(exception);
+            throw DataAccessException.translate("MessageDAO.lockMessageById", exception);
+        }
+    }
+
+    private static Message selectMessage(Connection connection, String sql, long id) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+        preparedStatement.setLong(1, id);
+        ResultSet rs = preparedStatement.executeQuery();
+        while (rs.next()) {
+            Message message = new Message(rs.getLong("message_id"), rs.getInt("posted_by"),
+                    rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            message.setVersion(rs.getLong("version"));
+            return message;
         }
         return null;
     }
 
     /**
      * Add a message record into the database which matches the values contained in
-     * the message object.
+     * the message object. When the shards assign ids, the id is generated before
+     * the insert instead of being read back from the database.
      * 
      * @param message an object modelling an Message. The message object does not
      *                contain an message ID.
      */
     public Message insertMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
+        try (Connection connection = shards.getWriteConnection(shards.forAccount(message.getPosted_by()))) {
+            Message inserted = insertMessage(connection, message);
+            if (inserted != null) {
+                changed(ChangeLog.Type.INSERT, inserted);
+            }
+            return inserted;
+        } catch (SQLException e) {
+            throw DataAccessException.translate("MessageDAO.insertMessage", e);
+        }
+    }
+
+    /**
+     * Add a message record on a given connection, such as in the transaction
+     * that checked the poster exists.
+     *
+     * @param connection a connection to the shard of the poster, see
+     *                   writerForAccount().
+     * @param message    the message, without a message ID.
+     */
+    public Message insertMessage(Connection connection, Message message) {
+        int shard = shards.forAccount(message.getPosted_by());
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.insertMessage");
         try {
+            if (shards.assignsIds()) {
+                long message_id = shards.nextId(shard);
+                String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+                preparedStatement.setLong(1, message_id);
+                preparedStatement.setInt(2, message.getPosted_by());
+                preparedStatement.setString(3, message.getMessage_text());
+                preparedStatement.setLong(4, message.getTime_posted_epoch());
+                event.finish(preparedStatement.executeUpdate());
+                return new Message(message_id, message.getPosted_by(), message.getMessage_text(),
+                        message.getTime_posted_epoch());
+            }
             String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
             PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
             preparedStatement.setInt(1, message.getPosted_by());
             preparedStatement.setString(2, message.getMessage_text());
             preparedStatement.setLong(3, message.getTime_posted_epoch());
-            preparedStatement.executeUpdate();
+            int rows = preparedStatement.executeUpdate();
 
             ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
+            event.finish(rows);
             if (pkeyResultSet.next()) {
-                int generated_message_id = (int) pkeyResultSet.getLong(1);
+                long generated_message_id = pkeyResultSet.getLong(1);
                 return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(),
                         message.getTime_posted_epoch());
             }
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            event.fail(e);
+            throw DataAccessException.translate("MessageDAO.insertMessage", e);
         }
         return null;
     }
@@ -93,47 +307,206 @@ public class MessageDAO {
      *
      * @param id a message id.
      */
-    public Message deleteMessageById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            Message getMessage = getMessageById(id);
-            if (getMessage != null) {
-                String sql = "DELETE FROM message WHERE message_id = ?";
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-                preparedStatement.setInt(1, id);
-                preparedStatement.executeUpdate();
+    public Message deleteMessageById(long id) {
+        try (Connection connection = shards.getWriteConnection(shards.forMessage(id))) {
+            Message getMessage = getMessageById(connection, id);
+            if (getMessage != null && deleteMessageById(connection, id)) {
+                getMessage.setVersion(getMessage.getVersion() + 1);
+                changed(ChangeLog.Type.DELETE, getMessage);
                 return getMessage;
             }
         } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            throw DataAccessException.translate("MessageDAO.deleteMessageById", exception);
         }
         return null;
     }
 
+    /**
+     * Delete a specific message on a given connection, by marking its row
+     * deleted and incrementing its version.
+     *
+     * @param connection a connection to the shard of the message.
+     * @param id         a message id.
+     * @return false if there was no such message.
+     */
+    public boolean deleteMessageById(Connection connection, long id) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.deleteMessageById");
+        try {
+            String sql = "UPDATE message SET deleted = TRUE, version = version + 1 "
+                    + "WHERE message_id = ? AND NOT deleted";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+            preparedStatement.setLong(1, id);
+            int rows = preparedStatement.executeUpdate();
+            event.finish(rows);
+            return rows > 0;
+        } catch (SQLException exception) {
+            event.fail(exception);
+            throw DataAccessException.translate("MessageDAO.deleteMessageById", exception);
+        }
+    }
+
     /**
      * Update a specific message using its message id and details.
      *
      * @param message a message.
      */
-    public Message updateMessage(int id, String message) {
-        Connection connection = ConnectionUtil.getConnection();
+    public Message updateMessage(long id, String message) {
+        try (Connection connection = shards.getWriteConnection(shards.forMessage(id))) {
+            if (updateMessage(connection, id, message)) {
+                Message updated = getMessageById(connection, id);
+                changed(ChangeLog.Type.UPDATE, updated);
+                return updated;
+            }
+        } catch (SQLException exception) {
+            throw DataAccessException.translate("MessageDAO.updateMessage", exception);
+        }
+        return null;
+    }
 
+    /**
+     * Update the text of a specific message on a given connection, and
+     * increment its version.
+     *
+     * @param connection a connection to the shard of the message.
+     * @param id         a message id.
+     * @param message    the new text.
+     * @return false if there was no such message.
+     */
+    public boolean updateMessage(Connection connection, long id, String message) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.updateMessage");
         try {
-            Message getMessage = getMessageById(id);
+            String sql = "UPDATE message SET message_text = ?, version = version + 1 "
+                    + "WHERE message_id = ? AND NOT deleted";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, message);
+            preparedStatement.setLong(2, id);
+            int rows = preparedStatement.executeUpdate();
+            event.finish(rows);
+            return rows > 0;
+        } catch (SQLException exception) {
+            event.fail(exception);
+            throw DataAccessException.translate("MessageDAO.updateMessage", exception);
+        }
+    }
 
-            if (getMessage != null) {
-                String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                preparedStatement.setString(1, message);
-                preparedStatement.setInt(2, id);
-                preparedStatement.executeUpdate();
-                getMessage = getMessageById(id);
-                return getMessage;
+    /**
+     * Remove up to a given number of deleted messages for good.
+     *
+     * @param connection a connection to a shard, see writerForShard().
+     * @param limit      the most rows to remove.
+     * @return the ids of the messages removed, to be passed to written()
+     *         once committed.
+     */
+    public List<Long> purgeDeleted(Connection connection, int limit) {
+        List<Long> purged = new ArrayList<>();
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.purgeDeleted");
+        try {
+            PreparedStatement select = connection.prepareStatement(
+                    "SELECT message_id FROM message WHERE deleted FETCH FIRST ? ROWS ONLY");
+            select.setInt(1, limit);
+            ResultSet rs = select.executeQuery();
+            PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM message WHERE message_id = ? AND deleted");
+            while (rs.next()) {
+                long id = rs.getLong("message_id");
+                delete.setLong(1, id);
+                delete.addBatch();
+                purged.add(id);
             }
-        } catch (SQLException exception) {
-            System.out.println(exception.getMessage());
+            if (!purged.isEmpty()) {
+                delete.executeBatch();
+            }
+            event.finish(purged.size());
+        } catch (SQLException e) {
+            event.fail(e);
+            throw DataAccessException.translate("MessageDAO.purgeDeleted", e);
         }
-        return null;
+        return purged;
+    }
+
+    /**
+     * Count the deleted messages of a shard waiting to be purged, through the
+     * index on the deleted column.
+     *
+     * @param shard a shard index.
+     * @return the number of tombstones.
+     */
+    public long countDeleted(int shard) {
+        FlightEvents.Statement event = FlightEvents.statement("MessageDAO.countDeleted");
+        try (Connection connection = shards.getWriteConnection(shard)) {
+            ResultSet rs = connection.prepareStatement("SELECT COUNT(*) FROM message WHERE deleted").executeQuery();
+            rs.next();
+            long count = rs.getLong(1);
+            event.finish(1);
+            return count;
+        } catch (SQLException e) {
+            event.fail(e);
+            throw DataAccessException.translate("MessageDAO.countDeleted", e);
+        }
+    }
+
+    /**
+     * Tell the read replicas a message changed, after a unit of work that
+     * changed it committed.
+     *
+     * @param id a message id.
+     */
+    public void written(long id) {
+        shards.written(id);
+    }
+
+    /**
+     * Tell the read replicas a message changed and append the change to the
+     * change log, after a unit of work that changed it committed.
+     *
+     * @param type    the change.
+     * @param message the message as the change left it, with its new version.
+     */
+    public void changed(ChangeLog.Type type, Message message) {
+        shards.written(message.getMessage_id());
+        if (changeLog != null) {
+            changeLog.append(type, message);
+        }
+    }
+
+    /**
+     * @return the number of databases holding messages.
+     */
+    public int shardCount() {
+        return shards.count();
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return the database of the shard, for a unit of work on it.
+     */
+    public ConnectionSource writerForShard(int shard) {
+        return shards.writer(shard);
+    }
+
+    /**
+     * @param id a message id.
+     * @return the database holding the message, for a unit of work on it.
+     */
+    public ConnectionSource writerForMessage(long id) {
+        return shards.writer(shards.forMessage(id));
+    }
+
+    /**
+     * @param posted_by an account id.
+     * @return the database holding the messages of the account, for a unit
+     *         of work inserting one.
+     */
+    public ConnectionSource writerForAccount(int posted_by) {
+        return shards.writer(shards.forAccount(posted_by));
+    }
+
+    /**
+     * @return true if the message table is in the main database, next to the
+     *         account table.
+     */
+    public boolean inMainDatabase() {
+        return shards.inMainDatabase();
     }
 }
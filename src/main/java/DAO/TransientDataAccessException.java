@@ -0,0 +1,18 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the DAOs when a statement did not take effect for a reason that
+ * may be gone a moment later: a lock or connection pool timeout, a deadlock,
+ * a refused connection. Such statements are safe to retry, also for writes.
+ * A connection lost while a statement ran is not transient, the write may
+ * have been committed.
+ */
+public class TransientDataAccessException extends DataAccessException {
+    private static final long serialVersionUID = 1L;
+
+    public TransientDataAccessException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
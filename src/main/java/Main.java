@@ -1,14 +1,47 @@
+import java.lang.management.ManagementFactory;
+
 import Controller.SocialMediaController;
+import Util.AppConfig;
+import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * This class is provided with a main method to allow you to manually run and test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
+ *
+ * Settings can be passed as arguments, such as --server.port=9090 or --db.profile=production, see AppConfig.
+ *
+ * The port opens as early as possible, /ready answers 503 until the database is initialized and every route has been
+ * warmed up, socialmedia.startup.warmup-rounds=0 skips the warm-up. With socialmedia.startup.exit-after-warmup the
+ * application stops once it is ready, which is how the -Pcds build records its class-data sharing archive.
  */
 public class Main {
-    public static void main(String[] args) {
+    private static final Logger log = LoggerFactory.getLogger(Main.class);
+
+    public static void main(String[] args) throws Exception {
+        AppConfig config = AppConfig.init(args);
+        // dump() reads every setting, so a bad value stops the application here
+        String dump = config.dump();
+        log.info("{}", dump);
         SocialMediaController controller = new SocialMediaController();
+        controller.setReady(false);
         Javalin app = controller.startAPI();
-        app.start(8080);
+        app.start(config.get(AppConfig.SERVER_PORT));
+        ConnectionUtil.initDatabase();
+        int rounds = config.get(AppConfig.STARTUP_WARMUP_ROUNDS);
+        if (rounds > 0) {
+            long start = System.nanoTime();
+            int requests = controller.warmUp(app.port(), rounds);
+            log.info("Warm-up sent {} requests in {} ms", requests, (System.nanoTime() - start) / 1000000);
+        }
+        controller.setReady(true);
+        log.info("Ready {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+        if (config.get(AppConfig.STARTUP_EXIT_AFTER_WARMUP)) {
+            app.stop();
+            System.exit(0);
+        }
     }
 }
@@ -1,4 +1,7 @@
 package Model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * This is a class that models a Message.
  *
@@ -7,9 +10,13 @@ package Model;
  */
 public class Message {
     /**
-     * An id for this message which will be automatically generated by the database.
+     * An id for this message which will be automatically generated by the database, or by a
+     * SnowflakeIdGenerator. It is a long so time-based ids fit, and is served as a JSON number either way.
+     * Database ids stay small, but every snowflake id generated since late January 2022 exceeds 2^53, so
+     * clients that parse JSON numbers as doubles, such as JavaScript's JSON.parse, round them and must read
+     * message_id as a 64-bit integer when socialmedia.ids is snowflake.
      */
-    public int message_id;
+    public long message_id;
     /**
      * The id for the user who has posted this message. We will assume that this is provided by the front-end of this
      * application.
@@ -24,6 +31,12 @@ public class Message {
      * to store this number. We will assume that this number is provided by the front-end of this application.
      */
     public long time_posted_epoch;
+    /**
+     * How many times the message was updated, 0 when posted. It is served as the ETag of the message rather than
+     * in the body, so clients can send it back in If-Match.
+     */
+    @JsonIgnore
+    public long version;
     /**
      * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
      * Jackson Objectmapper to work.
@@ -50,7 +63,7 @@ public class Message {
      * @param message_text
      * @param time_posted_epoch
      */
-    public Message(int message_id, int posted_by, String message_text, long time_posted_epoch) {
+    public Message(long message_id, int posted_by, String message_text, long time_posted_epoch) {
         this.message_id = message_id;
         this.posted_by = posted_by;
         this.message_text = message_text;
@@ -60,14 +73,14 @@ public class Message {
      * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return message_id
      */
-    public int getMessage_id() {
+    public long getMessage_id() {
         return message_id;
     }
     /**
      * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @param message_id
      */
-    public void setMessage_id(int message_id) {
+    public void setMessage_id(long message_id) {
         this.message_id = message_id;
     }
     /**
@@ -112,6 +125,20 @@ public class Message {
     public void setTime_posted_epoch(long time_posted_epoch) {
         this.time_posted_epoch = time_posted_epoch;
     }
+    /**
+     * @return version
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+    /**
+     * @param version
+     */
+    @JsonIgnore
+    public void setVersion(long version) {
+        this.version = version;
+    }
     /**
      * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
      * Assert.assertEquals and List.contains to function.
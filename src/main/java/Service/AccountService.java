@@ -3,17 +3,33 @@ package Service;
 import Model.Account;
 import Model.Message;
 import DAO.AccountDAO;
+import DAO.DuplicateKeyException;
+import Service.ConcurrencyLimiter.Priority;
+import Util.AppConfig;
+import Util.Tracer;
 
 import java.util.List;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class AccountService {
+    private static final Logger log = LoggerFactory.getLogger(AccountService.class);
+
     AccountDAO accountDAO;
+    PasswordHasher passwordHasher;
+    HashingExecutor hashingExecutor;
+    ConcurrencyLimiter limiter;
+    SingleFlight singleFlight;
+    RetryPolicy retry;
+    Tracer tracer;
 
     /**
      * No-args constructor for an accountService instantiates a plain accountDAO.
      */
     public AccountService() {
-        accountDAO = new AccountDAO();
+        this(new AccountDAO());
     }
 
     /**
@@ -25,25 +41,46 @@ public class AccountService {
      * @param accountDAO
      */
     public AccountService(AccountDAO accountDAO) {
+        this(accountDAO, new PasswordHasher(AppConfig.shared().get(AppConfig.HASH_ITERATIONS)));
+    }
+
+    /**
+     * Constructor for an accountService when both the accountDAO and the
+     * password hasher are provided, such as when benchmarking cost factors.
+     *
+     * @param accountDAO
+     * @param passwordHasher
+     */
+    public AccountService(AccountDAO accountDAO, PasswordHasher passwordHasher) {
         this.accountDAO = accountDAO;
+        this.passwordHasher = passwordHasher;
+        this.hashingExecutor = HashingExecutor.shared();
+        this.limiter = ConcurrencyLimiter.shared();
+        this.singleFlight = SingleFlight.shared();
+        this.retry = RetryPolicy.shared();
+        this.tracer = Tracer.shared();
     }
 
     /**
-     * Use the AccountDAO to add a new account to the database.
+     * Use the AccountDAO to add a new account to the database. Only a hash of
+     * the password is stored.
      *
      * @param account an object representing a new Account.
-     * @return the newly added account if the add operation was successful,
-     *         including
-     *         the account_id.
+     * @return the newly added account, including the account_id.
+     * @throws DuplicateKeyException if the username is taken.
+     * @throws OverloadedException   if the hashing pool is saturated.
      */
     public Account addAccount(Account account) {
-        // check to see if username not in use
-        Account dbAccount = accountDAO.getAccountByUsername(account.getUsername());
-        if (dbAccount != null) {
-            return null;
+        Tracer.Span span = tracer.startSpan("AccountService.addAccount");
+        try {
+            // a taken username fails the insert on the unique constraint
+            String hash = hashingExecutor.call(() -> passwordHasher.hash(account.getPassword()));
+            Account inserted = call(Priority.WRITE,
+                    () -> accountDAO.insertAccount(new Account(account.getUsername(), hash)));
+            return new Account(inserted.getAccount_id(), account.getUsername(), account.getPassword());
+        } finally {
+            span.end();
         }
-        // else add new account
-        return accountDAO.insertAccount(account);
     }
 
     /**
@@ -56,12 +93,17 @@ public class AccountService {
      *         the account_id.
      */
     public Account getAccountId(int id) {
-        Account dbAccount = accountDAO.getAccountById(id);
-        // if account retrieval(id) fails
-        if (dbAccount == null) {
-            return null;
+        Tracer.Span span = tracer.startSpan("AccountService.getAccountId");
+        try {
+            Account dbAccount = call(Priority.READ, () -> accountDAO.getAccountById(id));
+            // if account retrieval(id) fails
+            if (dbAccount == null) {
+                return null;
+            }
+            return dbAccount;
+        } finally {
+            span.end();
         }
-        return dbAccount;
     }
 
     /**
@@ -71,17 +113,47 @@ public class AccountService {
      * @param account an object representing a new Account.
      * @return the newly added account if the get operation was successful,
      *         including
-     *         the account_id.
+     *         the account_id. The password is the one provided, never the
+     *         stored hash.
+     * @throws OverloadedException if the hashing pool is saturated.
      */
     public Account getAccount(Account account) {
-        Account dbAccount = accountDAO.getAccountByUsername(account.getUsername());
-        // if account retrieval(username) fails or password does not match
-        if (dbAccount == null) {
-            return null;
-        } else if (!dbAccount.getPassword().equals(account.getPassword())) {
-            return null;
+        Tracer.Span span = tracer.startSpan("AccountService.getAccount");
+        try {
+            Account dbAccount = call(Priority.READ,
+                    () -> accountDAO.getAccountByUsername(account.getUsername()));
+            // an unknown username costs a verify too, so it answers as slowly as a wrong password
+            if (dbAccount == null) {
+                hashingExecutor.call(() -> passwordHasher.verifyMissing(account.getPassword()));
+                return null;
+            }
+            boolean matches = hashingExecutor.call(
+                    () -> passwordHasher.verify(account.getPassword(), dbAccount.getPassword()));
+            if (!matches) {
+                return null;
+            }
+            if (passwordHasher.needsRehash(dbAccount.getPassword())) {
+                rehash(dbAccount, account.getPassword());
+            }
+            return new Account(dbAccount.getAccount_id(), dbAccount.getUsername(), account.getPassword());
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Hash a legacy plain text password, or one hashed at a lower cost, once
+     * its account logged in with it. The login succeeds even if this fails,
+     * the next one tries again.
+     */
+    private void rehash(Account dbAccount, String password) {
+        try {
+            String hash = hashingExecutor.call(() -> passwordHasher.hash(password));
+            call(Priority.WRITE, () -> accountDAO.updatePassword(dbAccount.getAccount_id(), dbAccount.getPassword(),
+                    hash));
+        } catch (RuntimeException e) {
+            log.warn("password of account {} not rehashed: {}", dbAccount.getAccount_id(), e.toString());
         }
-        return dbAccount;
     }
 
     /**
@@ -90,7 +162,20 @@ public class AccountService {
      * @return messages with id in the database.
      */
     public List<Message> getAccountMessages(int account_id) {
-        return accountDAO.getAccountMessages(account_id);
+        Tracer.Span span = tracer.startSpan("AccountService.getAccountMessages");
+        try {
+            return singleFlight.execute("account-messages:" + account_id,
+                    () -> call(Priority.BULK, () -> accountDAO.getAccountMessages(account_id)));
+        } finally {
+            span.end();
+        }
     }
 
+    /**
+     * Run a DAO call within the concurrency limit, retrying it if it fails
+     * with a transient error.
+     */
+    private <T> T call(Priority priority, Supplier<T> call) {
+        return retry.call(() -> limiter.call(priority, call));
+    }
 }
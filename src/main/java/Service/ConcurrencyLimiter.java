@@ -0,0 +1,215 @@
+package Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import DAO.ConstraintViolationException;
+import Util.AppConfig;
+
+/**
+ * The ConcurrencyLimiter class bounds how many DAO calls may run at once and
+ * adapts that bound to the latency the database is showing, AIMD style:
+ * while calls complete close to the lowest latency seen recently the limit
+ * grows by one per window, and once they get much slower (or fail) it is cut
+ * by a fraction. Calls over the limit are refused right away with an
+ * OverloadedException, so the process sheds load instead of queueing every
+ * request behind a slow database.
+ *
+ * Each call has a priority. Single-row reads may use the whole limit, writes
+ * most of it and bulk list reads only half, so bulk traffic is shed first.
+ *
+ * Every DAO call passes through release(), so what it records about a window
+ * (the lowest latency, whether it saw congestion, whether the limit was
+ * busy) is kept in atomics, and only the call that ends a window takes the
+ * lock to adjust the limit.
+ */
+public class ConcurrencyLimiter {
+    /**
+     * The kind of work a call does, and the share of the limit it may use.
+     */
+    public enum Priority {
+        READ(1.0),
+        WRITE(0.9),
+        BULK(0.5);
+
+        private final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+    }
+
+    private static volatile ConcurrencyLimiter shared;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long windowNanos;
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong minLatencyNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicBoolean congested = new AtomicBoolean();
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    // written under the lock, read without it on the hot path
+    private volatile double limit;
+    private volatile long windowStart;
+
+    // guarded by this
+    private long minLatencyReset;
+
+    /**
+     * @param initialLimit the starting limit.
+     * @param minLimit     the limit never goes below this.
+     * @param maxLimit     the limit never goes above this.
+     * @param tolerance    how many times the lowest latency a call may take
+     *                     before it counts as congestion.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, tolerance, TimeUnit.MILLISECONDS.toNanos(100), System::nanoTime);
+    }
+
+    /**
+     * @param initialLimit the starting limit.
+     * @param minLimit     the limit never goes below this.
+     * @param maxLimit     the limit never goes above this.
+     * @param tolerance    how many times the lowest latency a call may take
+     *                     before it counts as congestion.
+     * @param windowNanos  how often the limit is adjusted.
+     * @param clock        the time in nanoseconds, System::nanoTime outside of
+     *                     tests.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowNanos,
+            LongSupplier clock) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = windowNanos;
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+        this.minLatencyReset = windowStart;
+    }
+
+    /**
+     * @return the process-wide limiter around the database, configured with
+     *         the socialmedia.limiter.initial, .min, .max and .tolerance
+     *         settings.
+     */
+    public static ConcurrencyLimiter shared() {
+        if (shared == null) {
+            synchronized (ConcurrencyLimiter.class) {
+                if (shared == null) {
+                    AppConfig config = AppConfig.shared();
+                    shared = new ConcurrencyLimiter(config.get(AppConfig.LIMITER_INITIAL),
+                            config.get(AppConfig.LIMITER_MIN), config.get(AppConfig.LIMITER_MAX),
+                            config.get(AppConfig.LIMITER_TOLERANCE));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Run a call if the limit allows it.
+     *
+     * @param priority the kind of work.
+     * @param call     the DAO call.
+     * @return the result of the call.
+     * @throws OverloadedException if the call was shed.
+     */
+    public <T> T call(Priority priority, Supplier<T> call) {
+        acquire(priority);
+        long start = clock.getAsLong();
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } catch (ConstraintViolationException | NotOwnerException | PreconditionFailedException e) {
+            // the database answered in time, the data was wrong
+            success = true;
+            throw e;
+        } finally {
+            release(clock.getAsLong() - start, success);
+        }
+    }
+
+    private void acquire(Priority priority) {
+        int allowed = Math.max(1, (int) (getLimit() * priority.share));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                shed.increment();
+                throw new OverloadedException("too many concurrent " + priority + " calls");
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void release(long latencyNanos, boolean success) {
+        int concurrent = inFlight.getAndDecrement();
+        completed.increment();
+        long min = minLatencyNanos.get();
+        while (latencyNanos < min && !minLatencyNanos.compareAndSet(min, latencyNanos)) {
+            min = minLatencyNanos.get();
+        }
+        min = Math.min(min, latencyNanos);
+        // read before writing, so calls do not keep bouncing a flag that is already set
+        if ((!success || latencyNanos > min * tolerance + TimeUnit.MILLISECONDS.toNanos(1)) && !congested.get()) {
+            congested.set(true);
+        }
+        // only grow a limit that is actually being used
+        if (concurrent >= limit / 2 && !busy.get()) {
+            busy.set(true);
+        }
+        long now = clock.getAsLong();
+        if (now - windowStart >= windowNanos) {
+            endWindow(now);
+        }
+    }
+
+    private synchronized void endWindow(long now) {
+        if (now - windowStart < windowNanos) {
+            // another call ended this window first
+            return;
+        }
+        // forget the lowest latency now and then, the database may have gotten slower for good
+        if (now - minLatencyReset > TimeUnit.SECONDS.toNanos(30)) {
+            minLatencyNanos.set(Long.MAX_VALUE);
+            minLatencyReset = now;
+        }
+        boolean wasBusy = busy.getAndSet(false);
+        if (congested.getAndSet(false)) {
+            limit = Math.max(minLimit, limit * 0.9);
+        } else if (wasBusy) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        windowStart = now;
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+}
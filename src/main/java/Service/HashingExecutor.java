@@ -0,0 +1,152 @@
+package Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import Util.AppConfig;
+import Util.Tracer;
+
+/**
+ * The HashingExecutor class runs password hashing on a dedicated pool with
+ * one thread per core, so a burst of /login and /register requests can not
+ * take every CPU away from the other routes. The pool has a bounded queue:
+ * once it is full, new work is refused with an OverloadedException instead
+ * of queueing without limit.
+ *
+ * The executor is shared by the whole process. It records how long tasks
+ * wait in the queue before a thread picks them up.
+ */
+public class HashingExecutor {
+    private static volatile HashingExecutor shared;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * @param threads       the number of hashing threads.
+     * @param queueCapacity the number of tasks allowed to wait for a thread.
+     * @param timeoutMillis how long a caller waits for its result before giving up.
+     */
+    public HashingExecutor(int threads, int queueCapacity, long timeoutMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return the process-wide executor, sized to the available cores unless
+     *         the socialmedia.hash.threads setting says otherwise.
+     */
+    public static HashingExecutor shared() {
+        if (shared == null) {
+            synchronized (HashingExecutor.class) {
+                if (shared == null) {
+                    AppConfig config = AppConfig.shared();
+                    shared = new HashingExecutor(config.get(AppConfig.HASH_THREADS),
+                            config.get(AppConfig.HASH_QUEUE), config.get(AppConfig.HASH_TIMEOUT_MS));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Run a task on the hashing pool and wait for its result.
+     *
+     * @param task the hashing work.
+     * @return the result of the task.
+     * @throws OverloadedException if the queue is full or the result took too long.
+     */
+    public <T> T call(Callable<T> task) {
+        try (Tracer.Span span = Tracer.shared().startSpan("HashingExecutor.call")) {
+            long enqueued = System.nanoTime();
+            long[] queued = new long[1];
+            Future<T> future;
+            try {
+                future = executor.submit(() -> {
+                    long waited = System.nanoTime() - enqueued;
+                    queueNanos.add(waited);
+                    maxQueueNanos.accumulateAndGet(waited, Math::max);
+                    queued[0] = waited;
+                    return task.call();
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                span.set("error", "rejected");
+                throw new OverloadedException("password hashing queue is full");
+            }
+            try {
+                T result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                completed.increment();
+                // the worker wrote queued before the future completed
+                span.set("queue.micros", queued[0] / 1000);
+                return result;
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                rejected.increment();
+                span.set("error", "timeout");
+                throw new OverloadedException("password hashing timed out");
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new OverloadedException("interrupted while waiting for password hashing");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the mean time a task spent queued, in nanoseconds.
+     */
+    public long getAverageQueueNanos() {
+        long tasks = executor.getCompletedTaskCount();
+        return tasks == 0 ? 0 : queueNanos.sum() / tasks;
+    }
+
+    public long getMaxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+}
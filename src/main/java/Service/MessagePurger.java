@@ -0,0 +1,172 @@
+package Service;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.DataAccessException;
+import DAO.MessageDAO;
+import Util.AppConfig;
+
+/**
+ * The MessagePurger class removes deleted messages for good. A delete only
+ * marks the row of a message as a tombstone, and a daemon thread purges the
+ * tombstones in the background, a small batch per shard and unit of work at
+ * a time.
+ *
+ * Purging is rate-limited and yields to requests: a pass runs every
+ * interval and removes at most batch rows per shard, and it is skipped while
+ * the service layer has more calls in flight than max-load times the limit
+ * of the concurrency limiter. A burst of deletes therefore becomes a backlog
+ * of tombstones, worked off once the burst is over. The backlog is counted
+ * on every pass, through the index on the deleted column.
+ *
+ * The settings are socialmedia.db.purge.interval-ms, 0 to disable purging,
+ * .batch and .max-load.
+ */
+public class MessagePurger implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(MessagePurger.class);
+
+    private static volatile MessagePurger shared;
+
+    private final MessageDAO messageDAO;
+    private final Transactions transactions;
+    private final ConcurrencyLimiter limiter;
+    private final int batch;
+    private final double maxLoad;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong backlog = new AtomicLong();
+    private final LongAdder purged = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param messageDAO     the messages.
+     * @param transactions   the units of work a batch runs in.
+     * @param limiter        the limiter whose load pauses purging.
+     * @param batch          the most rows removed per shard and pass.
+     * @param maxLoad        the share of the limit of the limiter in flight
+     *                       above which a pass is skipped.
+     * @param intervalMillis the time between passes, 0 to only purge when
+     *                       purge() is called.
+     */
+    public MessagePurger(MessageDAO messageDAO, Transactions transactions, ConcurrencyLimiter limiter, int batch,
+            double maxLoad, long intervalMillis) {
+        if (batch < 1) {
+            throw new IllegalArgumentException("purge batch must be at least 1: " + batch);
+        }
+        this.messageDAO = messageDAO;
+        this.transactions = transactions;
+        this.limiter = limiter;
+        this.batch = batch;
+        this.maxLoad = maxLoad;
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "message-purger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * @return the process-wide purger, configured by the socialmedia.db.purge
+     *         settings and started on first use.
+     */
+    public static MessagePurger shared() {
+        if (shared == null) {
+            synchronized (MessagePurger.class) {
+                if (shared == null) {
+                    AppConfig config = AppConfig.shared();
+                    shared = new MessagePurger(new MessageDAO(), Transactions.shared(), ConcurrencyLimiter.shared(),
+                            config.get(AppConfig.DB_PURGE_BATCH), config.get(AppConfig.DB_PURGE_MAX_LOAD),
+                            config.get(AppConfig.DB_PURGE_INTERVAL_MS));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Run one pass: unless the service layer is busy, remove up to batch
+     * tombstones from every shard, then count the ones left.
+     *
+     * @return the number of messages removed, -1 if the pass was skipped.
+     */
+    public int purge() {
+        if (limiter.getInFlight() > limiter.getLimit() * maxLoad) {
+            skipped.increment();
+            return -1;
+        }
+        int removed = 0;
+        long left = 0;
+        for (int shard = 0; shard < messageDAO.shardCount(); shard++) {
+            int index = shard;
+            List<Long> ids = limiter.call(ConcurrencyLimiter.Priority.BULK, () -> transactions.inTransaction(
+                    messageDAO.writerForShard(index), connection -> messageDAO.purgeDeleted(connection, batch)));
+            for (long id : ids) {
+                messageDAO.written(id);
+            }
+            removed += ids.size();
+            left += messageDAO.countDeleted(shard);
+        }
+        purged.add(removed);
+        passes.increment();
+        backlog.set(left);
+        return removed;
+    }
+
+    private void run() {
+        try {
+            purge();
+        } catch (OverloadedException e) {
+            skipped.increment();
+        } catch (DataAccessException e) {
+            log.warn("purging deleted messages failed: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            // an exception escaping run() would cancel the schedule for good
+            log.error("purging deleted messages failed", e);
+        }
+    }
+
+    /**
+     * @return the tombstones left after the last pass.
+     */
+    public long getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return the messages removed.
+     */
+    public long getPurged() {
+        return purged.sum();
+    }
+
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    /**
+     * @return the passes skipped because requests kept the database busy.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
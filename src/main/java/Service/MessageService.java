@@ -1,18 +1,32 @@
 package Service;
 
 import Model.Message;
+import DAO.AccountDAO;
 import DAO.MessageDAO;
+import Service.ConcurrencyLimiter.Priority;
+import Util.ChangeLog;
+import Util.InvalidationBus;
+import Util.Tracer;
+import Util.UdpInvalidationBus;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public class MessageService {
     MessageDAO messageDAO;
+    AccountDAO accountDAO;
+    ConcurrencyLimiter limiter;
+    Transactions transactions;
+    SingleFlight singleFlight;
+    RetryPolicy retry;
+    Tracer tracer;
+    InvalidationBus invalidations;
 
     /**
      * No-args constructor for an messageService instantiates a plain messageDAO.
      */
     public MessageService() {
-        messageDAO = new MessageDAO();
+        this(new MessageDAO());
     }
 
     /**
@@ -24,7 +38,50 @@ public class MessageService {
      * @param messageDAO
      */
     public MessageService(MessageDAO messageDAO) {
+        this(messageDAO, new AccountDAO(), Transactions.shared());
+    }
+
+    /**
+     * Constructor for a messageService over given DAOs and transactions, such
+     * as in-memory databases in tests.
+     *
+     * @param messageDAO   the messages.
+     * @param accountDAO   the accounts posting them.
+     * @param transactions the units of work of the service.
+     */
+    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO, Transactions transactions) {
+        this(messageDAO, accountDAO, transactions, UdpInvalidationBus.shared());
+    }
+
+    /**
+     * Constructor for a messageService telling the other instances of the
+     * service about its writes, and forgetting the reads of the keys they
+     * write.
+     *
+     * @param messageDAO    the messages.
+     * @param accountDAO    the accounts posting them.
+     * @param transactions  the units of work of the service.
+     * @param invalidations the bus to the other instances, or null for none.
+     */
+    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO, Transactions transactions,
+            InvalidationBus invalidations) {
         this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.transactions = transactions;
+        this.limiter = ConcurrencyLimiter.shared();
+        this.singleFlight = SingleFlight.shared();
+        this.retry = RetryPolicy.shared();
+        this.tracer = Tracer.shared();
+        this.invalidations = invalidations;
+        if (invalidations != null) {
+            invalidations.subscribe(keys -> {
+                if (keys.contains(InvalidationBus.ALL)) {
+                    singleFlight.forgetAll();
+                } else {
+                    keys.forEach(singleFlight::forget);
+                }
+            });
+        }
     }
 
     /**
@@ -36,7 +93,45 @@ public class MessageService {
      *         the message_id.
      */
     public Message addMessage(Message message) {
-        return messageDAO.insertMessage(message);
+        return addMessage(message, false);
+    }
+
+    /**
+     * Use the MessageDAO to add a new message to the database, checking the
+     * poster exists first unless the caller already knows, such as from a
+     * token. When messages are in the main database, the check and the insert
+     * are one unit of work on one connection.
+     *
+     * @param message     an object representing a new Message.
+     * @param checkPoster whether to look up the account posting the message.
+     * @return the newly added message, or null if the poster does not exist.
+     */
+    public Message addMessage(Message message, boolean checkPoster) {
+        Tracer.Span span = tracer.startSpan("MessageService.addMessage");
+        try {
+            int posted_by = message.getPosted_by();
+            Message inserted = call(Priority.WRITE, () -> {
+                if (!checkPoster) {
+                    return messageDAO.insertMessage(message);
+                }
+                if (!messageDAO.inMainDatabase()) {
+                    return accountDAO.getAccountById(posted_by) == null ? null : messageDAO.insertMessage(message);
+                }
+                Message checked = transactions.inTransaction(messageDAO.writerForAccount(posted_by),
+                        connection -> accountDAO.getAccountById(connection, posted_by) == null ? null
+                                : messageDAO.insertMessage(connection, message));
+                if (checked != null) {
+                    messageDAO.changed(ChangeLog.Type.INSERT, checked);
+                }
+                return checked;
+            });
+            if (inserted != null) {
+                forgetReads(posted_by, null);
+            }
+            return inserted;
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -45,7 +140,13 @@ public class MessageService {
      * @return all messages in the database.
      */
     public List<Message> getAllMessages() {
-        return messageDAO.getAllMessages();
+        Tracer.Span span = tracer.startSpan("MessageService.getAllMessages");
+        try {
+            return singleFlight.execute("messages",
+                    () -> call(Priority.BULK, messageDAO::getAllMessages));
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -53,8 +154,14 @@ public class MessageService {
      *
      * @return a message with id in the database.
      */
-    public Message getMessage(int message_id) {
-        return messageDAO.getMessageById(message_id);
+    public Message getMessage(long message_id) {
+        Tracer.Span span = tracer.startSpan("MessageService.getMessage");
+        try {
+            return singleFlight.execute("message:" + message_id,
+                    () -> call(Priority.READ, () -> messageDAO.getMessageById(message_id)));
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -62,8 +169,63 @@ public class MessageService {
      *
      * @return a message with id in the database.
      */
-    public Message deleteMessage(int message_id) {
-        return messageDAO.deleteMessageById(message_id);
+    public Message deleteMessage(long message_id) {
+        return deleteMessage(message_id, null);
+    }
+
+    /**
+     * Use the MessageDAO to delete a Message from an id, on behalf of an
+     * authenticated account.
+     *
+     * @param ownerId the account deleting the message, or null to skip the check.
+     * @return a message with id in the database.
+     * @throws NotOwnerException if the message was posted by another account.
+     */
+    public Message deleteMessage(long message_id, Integer ownerId) {
+        return deleteMessage(message_id, ownerId, null);
+    }
+
+    /**
+     * Use the MessageDAO to delete a Message from an id, on behalf of an
+     * authenticated account and if it is still at a version the client has
+     * seen. The message is locked, checked and marked deleted in one unit of
+     * work, so of concurrent deletes exactly one returns it. The row is
+     * removed later by the MessagePurger.
+     *
+     * @param ownerId the account deleting the message, or null to skip the check.
+     * @param version the version the message must be at, or null to skip the check.
+     * @return a message with id in the database.
+     * @throws NotOwnerException           if the message was posted by another
+     *                                     account.
+     * @throws PreconditionFailedException if the message is at another
+     *                                     version or does not exist.
+     */
+    public Message deleteMessage(long message_id, Integer ownerId, Long version) {
+        Tracer.Span span = tracer.startSpan("MessageService.deleteMessage");
+        try {
+            Message deleted = call(Priority.WRITE, () -> transactions.inTransaction(
+                    messageDAO.writerForMessage(message_id), connection -> {
+                        Message message = messageDAO.lockMessageById(connection, message_id);
+                        if (message == null) {
+                            checkVersion(message_id, null, version);
+                            return null;
+                        }
+                        checkOwner(message, ownerId);
+                        checkVersion(message_id, message, version);
+                        if (!messageDAO.deleteMessageById(connection, message_id)) {
+                            return null;
+                        }
+                        message.setVersion(message.getVersion() + 1);
+                        return message;
+                    }));
+            if (deleted != null) {
+                messageDAO.changed(ChangeLog.Type.DELETE, deleted);
+                forgetReads(deleted.getPosted_by(), message_id);
+            }
+            return deleted;
+        } finally {
+            span.end();
+        }
     }
 
 
@@ -72,7 +234,114 @@ public class MessageService {
      *
      * @return a message with id in the database.
      */
-    public Message updateMessage(int message_id, String text) {
-        return messageDAO.updateMessage(message_id, text);
+    public Message updateMessage(long message_id, String text) {
+        return updateMessage(message_id, text, null, null);
+    }
+
+    /**
+     * Use the MessageDAO to update a Message, on behalf of an authenticated
+     * account.
+     *
+     * @param ownerId the account updating the message, or null to skip the check.
+     * @return a message with id in the database.
+     * @throws NotOwnerException if the message was posted by another account.
+     */
+    public Message updateMessage(long message_id, String text, Integer ownerId) {
+        return updateMessage(message_id, text, ownerId, null);
+    }
+
+    /**
+     * Use the MessageDAO to update a Message, on behalf of an authenticated
+     * account and if it is still at a version the client has seen, so two
+     * clients editing the same message cannot overwrite each other unknowingly.
+     * The message is locked, checked and updated in one unit of work, so the
+     * message returned is the one this update left, not a later one or one
+     * deleted meanwhile.
+     *
+     * @param ownerId the account updating the message, or null to skip the check.
+     * @param version the version the message must be at, or null to skip the check.
+     * @return the updated message, with its new version.
+     * @throws NotOwnerException           if the message was posted by another
+     *                                     account.
+     * @throws PreconditionFailedException if the message is at another
+     *                                     version or does not exist.
+     */
+    public Message updateMessage(long message_id, String text, Integer ownerId, Long version) {
+        Tracer.Span span = tracer.startSpan("MessageService.updateMessage");
+        try {
+            Message updated = call(Priority.WRITE, () -> transactions.inTransaction(
+                    messageDAO.writerForMessage(message_id), connection -> {
+                        Message message = messageDAO.lockMessageById(connection, message_id);
+                        if (message == null) {
+                            checkVersion(message_id, null, version);
+                            return null;
+                        }
+                        checkOwner(message, ownerId);
+                        checkVersion(message_id, message, version);
+                        if (!messageDAO.updateMessage(connection, message_id, text)) {
+                            return null;
+                        }
+                        Message result = new Message(message_id, message.getPosted_by(), text,
+                                message.getTime_posted_epoch());
+                        result.setVersion(message.getVersion() + 1);
+                        return result;
+                    }));
+            if (updated != null) {
+                messageDAO.changed(ChangeLog.Type.UPDATE, updated);
+                forgetReads(updated.getPosted_by(), message_id);
+            }
+            return updated;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Make sure reads arriving after a write do not join a read that started
+     * before it, on this instance or, through the invalidation bus, another.
+     *
+     * @param posted_by  the account whose messages changed.
+     * @param message_id the message that changed, or null for an insert.
+     */
+    private void forgetReads(int posted_by, Long message_id) {
+        singleFlight.forget("messages");
+        singleFlight.forget("account-messages:" + posted_by);
+        if (message_id != null) {
+            singleFlight.forget("message:" + message_id);
+        }
+        if (invalidations != null) {
+            invalidations.publish("messages");
+            invalidations.publish("account-messages:" + posted_by);
+            if (message_id != null) {
+                invalidations.publish("message:" + message_id);
+            }
+        }
+    }
+
+    private static void checkVersion(long message_id, Message message, Long version) {
+        if (version == null) {
+            return;
+        }
+        if (message == null) {
+            throw new PreconditionFailedException("message " + message_id + " does not exist");
+        }
+        if (message.getVersion() != version) {
+            throw new PreconditionFailedException(
+                    "message " + message_id + " is at version " + message.getVersion() + ", not " + version);
+        }
+    }
+
+    private static void checkOwner(Message message, Integer ownerId) {
+        if (ownerId != null && message.getPosted_by() != ownerId) {
+            throw new NotOwnerException("message " + message.getMessage_id() + " belongs to another account");
+        }
+    }
+
+    /**
+     * Run a DAO call within the concurrency limit, retrying it if it fails
+     * with a transient error.
+     */
+    private <T> T call(Priority priority, Supplier<T> call) {
+        return retry.call(() -> limiter.call(priority, call));
     }
 }
@@ -0,0 +1,13 @@
+package Service;
+
+/**
+ * Thrown by the service layer when an authenticated account tries to change
+ * a message posted by another account. The controller answers it with 403.
+ */
+public class NotOwnerException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public NotOwnerException(String message) {
+        super(message);
+    }
+}
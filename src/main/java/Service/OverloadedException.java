@@ -0,0 +1,14 @@
+package Service;
+
+/**
+ * Thrown by the service layer when a request is refused because a bounded
+ * resource is saturated. The controller answers it with 503 so clients can
+ * back off and retry.
+ */
+public class OverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,127 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The PasswordHasher class derives and checks password hashes with
+ * PBKDF2-HMAC-SHA256. Hashes are stored as
+ * pbkdf2$iterations$salt$hash, salt and hash being Base64, so the cost
+ * factor can be raised later without breaking existing accounts.
+ *
+ * Passwords stored before hashing was introduced (such as the seeded test
+ * account) have no prefix and are still compared as plain text, until the
+ * account logs in and needsRehash() has them hashed.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    private volatile String dummyHash;
+
+    /**
+     * @param iterations the PBKDF2 cost factor of new hashes.
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Hash a password with a fresh random salt.
+     *
+     * @param password the plain text password.
+     * @return the encoded hash.
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Check a password against a stored hash, in time independent of where
+     * the two differ.
+     *
+     * @param password the plain text password.
+     * @param stored   the encoded hash, or a legacy plain text password.
+     * @return true if the password matches.
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected = decoder.decode(parts[3]);
+        byte[] actual = derive(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    /**
+     * Spend the time of a verify() against a hash of the current cost, for a
+     * username that does not exist, so the time of a failed login does not
+     * tell whether the username exists.
+     *
+     * @param password the plain text password.
+     * @return false.
+     */
+    public boolean verifyMissing(String password) {
+        String dummy = dummyHash;
+        if (dummy == null) {
+            // computed once, racing threads only compute it twice
+            dummy = hash("no such account");
+            dummyHash = dummy;
+        }
+        verify(password == null ? "" : password, dummy);
+        return false;
+    }
+
+    /**
+     * @param stored the encoded hash, or a legacy plain text password.
+     * @return true if the stored password is plain text or hashed with fewer
+     *         iterations than new hashes.
+     */
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+    }
+
+    private byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            // PBKDF2WithHmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
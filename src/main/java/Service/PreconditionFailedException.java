@@ -0,0 +1,14 @@
+package Service;
+
+/**
+ * Thrown by the service layer when a change is made on the condition that a
+ * message is still at a given version, from an If-Match header, and it is
+ * not. The controller answers it with 412.
+ */
+public class PreconditionFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,104 @@
+package Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import DAO.TransientDataAccessException;
+import Util.AppConfig;
+
+/**
+ * The RetryPolicy class retries DAO calls that failed with a
+ * TransientDataAccessException: a lock timeout, a deadlock or no connection,
+ * which may be gone a moment later and leave nothing behind to undo. Every
+ * other failure, including overload and constraint violations, fails fast.
+ *
+ * A call is tried at most max-attempts times. Before retry n it sleeps a
+ * random time up to backoff * 2^(n-1), capped at max-backoff, so callers
+ * that failed together do not all come back together.
+ */
+public class RetryPolicy {
+    private static volatile RetryPolicy shared;
+
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param maxAttempts      how many times a call is tried, 1 disables
+     *                         retries.
+     * @param backoffMillis    the upper bound of the first sleep.
+     * @param maxBackoffMillis the upper bound of any sleep.
+     */
+    public RetryPolicy(int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be at least 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    }
+
+    /**
+     * @return the process-wide policy, configured with the
+     *         socialmedia.db.retry settings.
+     */
+    public static RetryPolicy shared() {
+        if (shared == null) {
+            synchronized (RetryPolicy.class) {
+                if (shared == null) {
+                    AppConfig config = AppConfig.shared();
+                    shared = new RetryPolicy(config.get(AppConfig.DB_RETRY_MAX_ATTEMPTS),
+                            config.get(AppConfig.DB_RETRY_BACKOFF_MS),
+                            config.get(AppConfig.DB_RETRY_MAX_BACKOFF_MS));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Run a call, retrying it while it fails with a transient error.
+     *
+     * @param call the DAO call.
+     * @return the result of the call.
+     * @throws TransientDataAccessException if the last attempt failed too.
+     */
+    public <T> T call(Supplier<T> call) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                return call.get();
+            } catch (TransientDataAccessException e) {
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                long bound = Math.min(maxBackoffNanos, backoffNanos << Math.min(attempt - 1, 20));
+                try {
+                    TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the attempts that were retried.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the calls that still failed after the last attempt.
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+}
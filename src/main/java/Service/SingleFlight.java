@@ -0,0 +1,103 @@
+package Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import Util.RoutingDataSource;
+
+/**
+ * The SingleFlight class coalesces concurrent identical reads: the first
+ * caller for a key runs the query, and every caller arriving with the same
+ * key while it is running waits for that result instead of running its own.
+ * Nothing is cached once the query completes.
+ *
+ * Keys are namespaced strings such as "message:1", so one instance can be
+ * shared by every service. Writes call forget() so readers arriving after a
+ * write start a fresh query instead of joining one that began before it.
+ *
+ * The result is handed to callers of other sessions, so the query runs in
+ * RoutingDataSource.readLatest() and sees every write committed before it
+ * started, not only those of the session that runs it.
+ */
+public class SingleFlight {
+    private static final SingleFlight shared = new SingleFlight();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * @return the process-wide instance used by the service layer.
+     */
+    public static SingleFlight shared() {
+        return shared;
+    }
+
+    /**
+     * Run a read, or join the identical one already running.
+     *
+     * @param key    identifies the read, results of equal keys must be interchangeable.
+     * @param loader runs the read.
+     * @return the result of the read. It may be shared between callers and
+     *         must not be modified.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String key, Supplier<V> loader) {
+        calls.increment();
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            deduplicated.increment();
+            try {
+                return (V) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        // the key is released before completing, so a completed result is never handed to later callers
+        try {
+            V result = RoutingDataSource.readLatest(loader);
+            inFlight.remove(key, mine);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop new callers from joining the running read of a key.
+     *
+     * @param key identifies the read.
+     */
+    public void forget(String key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Stop new callers from joining any running read.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
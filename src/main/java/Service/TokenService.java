@@ -0,0 +1,123 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import Util.AppConfig;
+
+/**
+ * The TokenService class issues and checks stateless session tokens. A token
+ * is accountId.expiry.signature, the signature being an HMAC-SHA256 of the
+ * first two parts, all Base64url encoded. Checking a token needs no database
+ * access, only the secret key.
+ *
+ * Unless a key is provided, a random one is drawn when the service is
+ * created, so tokens do not survive a restart.
+ */
+public class TokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param secret     the HMAC key.
+     * @param ttlSeconds how long an issued token stays valid.
+     */
+    public TokenService(byte[] secret, long ttlSeconds) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        // Mac instances are not thread safe, one is kept per thread
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Build a token service from the socialmedia.token.secret (Base64) and
+     * socialmedia.token.ttl-seconds settings.
+     *
+     * @return a token service.
+     */
+    public static TokenService fromProperties() {
+        String secret = AppConfig.shared().get(AppConfig.TOKEN_SECRET);
+        byte[] key;
+        if (secret == null) {
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = Base64.getDecoder().decode(secret);
+        }
+        return new TokenService(key, AppConfig.shared().get(AppConfig.TOKEN_TTL_SECONDS));
+    }
+
+    /**
+     * Issue a token for an account.
+     *
+     * @param accountId the authenticated account.
+     * @return the signed token.
+     */
+    public String issue(int accountId) {
+        long expiry = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = accountId + "." + expiry;
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+    }
+
+    /**
+     * Check a token's signature and expiry.
+     *
+     * @param token a token issued by this service.
+     * @return the account id the token was issued to, or null if the token is
+     *         malformed, forged or expired.
+     */
+    public Integer verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int signatureStart = token.lastIndexOf('.');
+        int expiryStart = token.indexOf('.');
+        if (expiryStart <= 0 || signatureStart <= expiryStart) {
+            return null;
+        }
+        String payload = token.substring(0, signatureStart);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+        try {
+            long expiry = Long.parseLong(token.substring(expiryStart + 1, signatureStart));
+            if (expiry < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return Integer.valueOf(token.substring(0, expiryStart));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return mac.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // HmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package Service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.DataAccessException;
+import Util.AppConfig;
+import Util.ConnectionSource;
+
+/**
+ * The Transactions class runs units of work: service operations of several
+ * statements that must see and leave the database consistent, such as
+ * locking a message, checking its owner and updating it. A unit of work
+ * takes one pooled connection, turns auto-commit off and sets the isolation
+ * level, and commits when the work returns or rolls back when it throws.
+ *
+ * The connection is bound to the thread for the length of the unit, so a
+ * unit of work started inside another one on the same database joins it and
+ * runs on its connection instead of taking a second one. A unit of work is
+ * bound to one database: with message shards, messages and accounts, or two
+ * shards, cannot be changed in one transaction.
+ *
+ * The isolation level comes from socialmedia.db.transaction.isolation:
+ * read-uncommitted, read-committed, repeatable-read or serializable.
+ */
+public class Transactions {
+    private static final Logger log = LoggerFactory.getLogger(Transactions.class);
+
+    private static volatile Transactions shared;
+
+    /**
+     * The statements of a unit of work, run on its connection.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * The unit of work of a thread.
+     */
+    private static class Unit {
+        private final ConnectionSource source;
+        private final Connection connection;
+
+        private Unit(ConnectionSource source, Connection connection) {
+            this.source = source;
+            this.connection = connection;
+        }
+    }
+
+    private final int isolation;
+    private final ThreadLocal<Unit> current = new ThreadLocal<>();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    /**
+     * @param isolation the default isolation level, one of the
+     *                  Connection.TRANSACTION_ constants.
+     */
+    public Transactions(int isolation) {
+        this.isolation = isolation;
+    }
+
+    /**
+     * @return the process-wide transactions, with the isolation level of
+     *         socialmedia.db.transaction.isolation.
+     */
+    public static Transactions shared() {
+        if (shared == null) {
+            synchronized (Transactions.class) {
+                if (shared == null) {
+                    shared = new Transactions(isolation(AppConfig.shared().get(AppConfig.DB_TRANSACTION_ISOLATION)));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param name an isolation level, such as read-committed.
+     * @return the Connection.TRANSACTION_ constant of the level.
+     */
+    public static int isolation(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "read-uncommitted":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "read-committed":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "repeatable-read":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "serializable":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new IllegalArgumentException("unknown isolation level " + name);
+        }
+    }
+
+    /**
+     * Run a unit of work at the default isolation level.
+     *
+     * @see #inTransaction(ConnectionSource, int, Work)
+     */
+    public <T> T inTransaction(ConnectionSource source, Work<T> work) {
+        return inTransaction(source, isolation, work);
+    }
+
+    /**
+     * Run a unit of work in one transaction on one connection of a source,
+     * or as part of the unit of work of the thread if it runs on the same
+     * source, in which case the isolation level of that unit applies.
+     *
+     * @param source    the database to work on.
+     * @param isolation one of the Connection.TRANSACTION_ constants.
+     * @param work      the statements.
+     * @return what the work returned, once committed.
+     * @throws DataAccessException if a statement, the commit or getting a
+     *                             connection failed; the transaction is
+     *                             rolled back.
+     * @throws IllegalStateException if the thread is in a unit of work on
+     *                               another database.
+     */
+    public <T> T inTransaction(ConnectionSource source, int isolation, Work<T> work) {
+        Unit unit = current.get();
+        if (unit != null) {
+            if (unit.source != source) {
+                throw new IllegalStateException("a unit of work cannot span two databases");
+            }
+            joined.increment();
+            try {
+                return work.run(unit.connection);
+            } catch (SQLException e) {
+                throw DataAccessException.translate("Transactions.inTransaction", e);
+            }
+        }
+
+        Connection connection;
+        try {
+            connection = source.getConnection();
+        } catch (SQLException e) {
+            throw DataAccessException.translate("Transactions.begin", e);
+        }
+        int previousIsolation = Connection.TRANSACTION_NONE;
+        boolean began = false;
+        try {
+            previousIsolation = connection.getTransactionIsolation();
+            if (previousIsolation != isolation) {
+                connection.setTransactionIsolation(isolation);
+            }
+            connection.setAutoCommit(false);
+            began = true;
+            current.set(new Unit(source, connection));
+            T result = work.run(connection);
+            connection.commit();
+            committed.increment();
+            return result;
+        } catch (SQLException e) {
+            rollback(connection, began, e);
+            throw DataAccessException.translate("Transactions.inTransaction", e);
+        } catch (RuntimeException | Error e) {
+            rollback(connection, began, e);
+            throw e;
+        } finally {
+            current.remove();
+            close(connection, began, previousIsolation, isolation);
+        }
+    }
+
+    /**
+     * @return the units of work committed.
+     */
+    public long getCommitted() {
+        return committed.sum();
+    }
+
+    /**
+     * @return the units of work rolled back.
+     */
+    public long getRolledBack() {
+        return rolledBack.sum();
+    }
+
+    /**
+     * @return the units of work that ran within another one.
+     */
+    public long getJoined() {
+        return joined.sum();
+    }
+
+    private void rollback(Connection connection, boolean began, Throwable cause) {
+        if (!began) {
+            return;
+        }
+        rolledBack.increment();
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Give the connection back to the pool the way it was taken.
+     */
+    private static void close(Connection connection, boolean began, int previousIsolation, int isolation) {
+        try {
+            if (began) {
+                connection.setAutoCommit(true);
+            }
+            if (previousIsolation != Connection.TRANSACTION_NONE && previousIsolation != isolation) {
+                connection.setTransactionIsolation(previousIsolation);
+            }
+        } catch (SQLException e) {
+            log.warn("could not reset a connection after a transaction: {}", e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("could not close a connection after a transaction: {}", e.getMessage());
+            }
+        }
+    }
+}
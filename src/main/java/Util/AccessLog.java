@@ -0,0 +1,457 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The AccessLog class writes one JSON line per request, with its start time,
+ * method, route template, status, response bytes, duration and request id,
+ * for billing and debugging.
+ *
+ * Request threads only copy the fields of their request into a slot of a
+ * ring buffer allocated up front, claimed with one compare-and-set, so
+ * logging a request allocates nothing and never touches the file. When the
+ * ring buffer is full the request is dropped and counted. A daemon thread
+ * wakes up every flush interval, formats the waiting records into a direct
+ * buffer and writes them with a few FileChannel writes.
+ *
+ * The file is rotated when it reaches max-bytes or is older than the rotate
+ * interval: it is renamed after the time of rotation, such as
+ * access.log.20261019-084648, and only the newest max-files rotated files
+ * are kept. Lines are written but not forced to disk, a crash of the
+ * machine loses at most what the page cache has not written back.
+ *
+ * A failed write does not stop the writer: the lines it was writing are
+ * counted as lost, and it retries every few hundred milliseconds, opening
+ * the file again and cutting off a partly written line. Until a write
+ * succeeds again, isHealthy() is false and getLastError() says why.
+ */
+public class AccessLog implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+    private static final DateTimeFormatter ROTATED = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+            .withZone(ZoneOffset.UTC);
+    // room left in the buffer before a record is formatted, longer records
+    // are flushed part by part
+    private static final int MAX_LINE = 1024;
+    private static final long RETRY_MILLIS = 500;
+
+    private static volatile AccessLog shared;
+    private static volatile boolean configured;
+
+    /**
+     * A preallocated record, filled by a request thread and read by the
+     * writer once its sequence says so.
+     */
+    private static class Slot {
+        long epochMillis;
+        String method;
+        String route;
+        int status;
+        long bytes;
+        long micros;
+        String requestId;
+    }
+
+    private final Path file;
+    private final long maxBytes;
+    private final long rotateMillis;
+    private final int maxFiles;
+    private final long flushNanos;
+
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile boolean failing;
+    private volatile String lastError;
+
+    // used by the writer thread only
+    private FileChannel channel;
+    private long size;
+    // the size of the file up to the end of its last complete line
+    private long complete;
+    // the records formatted since then
+    private long pending;
+    private long openedMillis;
+
+    /**
+     * @param file           the access log.
+     * @param capacity       the records the ring buffer holds, rounded up to a
+     *                       power of two.
+     * @param flushMillis    how often the writer writes the waiting records.
+     * @param maxBytes       the size at which the file is rotated.
+     * @param rotateSeconds  the age at which the file is rotated.
+     * @param maxFiles       the rotated files to keep.
+     * @throws IOException if the file cannot be opened.
+     */
+    public AccessLog(Path file, int capacity, long flushMillis, long maxBytes, long rotateSeconds, int maxFiles)
+            throws IOException {
+        this.file = file.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.rotateMillis = rotateSeconds * 1000;
+        this.maxFiles = maxFiles;
+        this.flushNanos = flushMillis * 1000000;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        open();
+        this.writer = new Thread(this::write, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the process-wide access log, configured by the
+     *         socialmedia.accesslog settings, or null if
+     *         socialmedia.accesslog.file is not set.
+     */
+    public static AccessLog shared() {
+        if (!configured) {
+            synchronized (AccessLog.class) {
+                if (!configured) {
+                    AppConfig config = AppConfig.shared();
+                    String file = config.get(AppConfig.ACCESSLOG_FILE);
+                    if (file != null) {
+                        try {
+                            shared = new AccessLog(Paths.get(file), config.get(AppConfig.ACCESSLOG_BUFFER),
+                                    config.get(AppConfig.ACCESSLOG_FLUSH_MS),
+                                    config.get(AppConfig.ACCESSLOG_MAX_BYTES),
+                                    config.get(AppConfig.ACCESSLOG_ROTATE_SECONDS),
+                                    config.get(AppConfig.ACCESSLOG_MAX_FILES));
+                        } catch (IOException e) {
+                            throw new IllegalArgumentException("cannot open access log " + file, e);
+                        }
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Record a request, unless the ring buffer is full.
+     *
+     * @param epochMillis when the request started.
+     * @param method      the HTTP method.
+     * @param route       the route template, such as /messages/{message_id}.
+     * @param status      the status code.
+     * @param bytes       the size of the response body.
+     * @param micros      how long the request took.
+     * @param requestId   the id of the request, may be null.
+     * @return false if the request was dropped.
+     */
+    public boolean record(long epochMillis, String method, String route, int status, long bytes, long micros,
+            String requestId) {
+        long ticket = tail.get();
+        while (true) {
+            int index = (int) ticket & mask;
+            long sequence = sequences.get(index);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    Slot slot = slots[index];
+                    slot.epochMillis = epochMillis;
+                    slot.method = method;
+                    slot.route = route;
+                    slot.status = status;
+                    slot.bytes = bytes;
+                    slot.micros = micros;
+                    slot.requestId = requestId;
+                    sequences.set(index, ticket + 1);
+                    return true;
+                }
+                ticket = tail.get();
+            } else if (sequence < ticket) {
+                dropped.increment();
+                return false;
+            } else {
+                ticket = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the requests dropped because the ring buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    /**
+     * @return false while the writer cannot write, see getLastError().
+     */
+    public boolean isHealthy() {
+        return !failing;
+    }
+
+    /**
+     * @return the last error of the writer, or null if it never failed.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return the failed attempts to write.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the requests recorded but not written because a write failed.
+     */
+    public long getLost() {
+        return lost.sum();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the records waiting in the ring buffer and close the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        long head = 0;
+        while (true) {
+            boolean stop = closed;
+            try {
+                int index = (int) head & mask;
+                while (sequences.get(index) == head + 1) {
+                    if (buffer.remaining() < MAX_LINE) {
+                        flushLines();
+                    }
+                    format(slots[index]);
+                    sequences.set(index, head + slots.length);
+                    head++;
+                    pending++;
+                    index = (int) head & mask;
+                }
+                flushLines();
+                if (size >= maxBytes || System.currentTimeMillis() - openedMillis >= rotateMillis) {
+                    rotate();
+                }
+                if (failing) {
+                    failing = false;
+                    log.info("access log writer recovered");
+                }
+                if (stop) {
+                    channel.close();
+                    return;
+                }
+                LockSupport.parkNanos(flushNanos);
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                lost.add(pending);
+                pending = 0;
+                buffer.clear();
+                lastError = e.toString();
+                if (!failing) {
+                    failing = true;
+                    log.error("access log write failed, retrying every {} ms: {}", RETRY_MILLIS, e.toString());
+                }
+                if (closed) {
+                    log.error("access log closed while failing, requests not written since");
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+                reopen();
+            }
+        }
+    }
+
+    private void format(Slot slot) throws IOException {
+        putAscii("{\"time\":\"");
+        putAscii(Instant.ofEpochMilli(slot.epochMillis).toString());
+        putAscii("\",\"method\":");
+        putString(slot.method);
+        putAscii(",\"route\":");
+        putString(slot.route);
+        putAscii(",\"status\":");
+        putAscii(Integer.toString(slot.status));
+        putAscii(",\"bytes\":");
+        putAscii(Long.toString(slot.bytes));
+        putAscii(",\"micros\":");
+        putAscii(Long.toString(slot.micros));
+        putAscii(",\"requestId\":");
+        putString(slot.requestId);
+        putAscii("}\n");
+    }
+
+    private void putAscii(String s) throws IOException {
+        if (buffer.remaining() < s.length()) {
+            flush();
+        }
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    /**
+     * Write a JSON string, escaping quotes, backslashes and control
+     * characters.
+     */
+    private void putString(String s) throws IOException {
+        if (s == null) {
+            putAscii("null");
+            return;
+        }
+        StringBuilder json = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        byte[] bytes = json.append('"').toString().getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < bytes.length) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            write(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write the buffer when it ends with a complete line.
+     */
+    private void flushLines() throws IOException {
+        flush();
+        complete = size;
+        written.add(pending);
+        pending = 0;
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            size += channel.write(bytes);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+        complete = size;
+        openedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Open the file again and drop what a failed write left of a line after
+     * the last complete one.
+     */
+    private void reopen() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // replaced below
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (channel.size() > complete) {
+                channel.truncate(complete);
+            }
+            size = channel.size();
+            complete = size;
+        } catch (IOException e) {
+            // the next attempt fails on the closed channel and comes back here
+            lastError = e.toString();
+        }
+    }
+
+    /**
+     * Rename the file after the current time, open a new one and delete the
+     * oldest rotated files beyond max-files.
+     */
+    private void rotate() throws IOException {
+        if (size == 0) {
+            openedMillis = System.currentTimeMillis();
+            return;
+        }
+        channel.close();
+        String name = file.getFileName() + "." + ROTATED.format(Instant.now());
+        Path rotated = file.resolveSibling(name);
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = file.resolveSibling(name + "-" + i);
+        }
+        Files.move(file, rotated);
+        rotations.increment();
+        open();
+
+        List<Path> old = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.getParent(), file.getFileName() + ".*")) {
+            files.forEach(old::add);
+        }
+        Collections.sort(old);
+        for (int i = 0; i < old.size() - maxFiles; i++) {
+            Files.deleteIfExists(old.get(i));
+        }
+    }
+}
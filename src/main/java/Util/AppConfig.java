@@ -0,0 +1,371 @@
+package Util;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * The AppConfig class holds the settings of the application. Every setting
+ * has a name such as socialmedia.db.url and is looked up in four places,
+ * the first one that has it wins:
+ *
+ * 1. command line arguments, --socialmedia.db.url=... or --db.url=...
+ * 2. system properties, -Dsocialmedia.db.url=...
+ * 3. environment variables, SOCIALMEDIA_DB_URL=...
+ * 4. a properties file, ./socialmedia.properties unless socialmedia.config
+ *    names another one.
+ *
+ * The settings the application knows about are declared below as typed
+ * Setting constants with their defaults, so a bad value fails at startup and
+ * dump() can list the effective configuration. Settings whose name depends on
+ * a route or a limit, such as socialmedia.ratelimit.login, are read by name
+ * with a parser of their own, or with getString().
+ */
+public class AppConfig {
+    /**
+     * A named, typed setting with a default value.
+     */
+    public static class Setting<T> {
+        private final String name;
+        private final T defaultValue;
+        private final Function<String, T> parser;
+        private final boolean secret;
+
+        private Setting(String name, T defaultValue, Function<String, T> parser, boolean secret) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.parser = parser;
+            this.secret = secret;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public T getDefaultValue() {
+            return defaultValue;
+        }
+    }
+
+    private static final String PREFIX = "socialmedia.";
+    private static final List<Setting<?>> settings = new ArrayList<>();
+    private static final int cores = Runtime.getRuntime().availableProcessors();
+
+    public static final Setting<Integer> SERVER_PORT = intSetting("server.port", 8080);
+    public static final Setting<Integer> SERVER_MIN_THREADS = intSetting("server.threads.min", 8);
+    public static final Setting<Integer> SERVER_MAX_THREADS = intSetting("server.threads.max", 250);
+    public static final Setting<Integer> SERVER_IDLE_TIMEOUT_MS = intSetting("server.threads.idle-timeout-ms", 60000);
+    public static final Setting<Integer> STARTUP_WARMUP_ROUNDS = intSetting("startup.warmup-rounds", 20);
+    public static final Setting<Boolean> STARTUP_EXIT_AFTER_WARMUP = booleanSetting("startup.exit-after-warmup", false);
+
+    public static final Setting<String> DB_PROFILE = stringSetting("db.profile", "test", false);
+    public static final Setting<String> DB_URL = stringSetting("db.url", null, false);
+    public static final Setting<String> DB_USER = stringSetting("db.user", "sa", false);
+    public static final Setting<String> DB_PASSWORD = stringSetting("db.password", "sa", true);
+    public static final Setting<Integer> DB_POOL_MAX_CONNECTIONS = intSetting("db.pool.max-connections", 16);
+    public static final Setting<Integer> DB_POOL_TIMEOUT_SECONDS = intSetting("db.pool.timeout-seconds", 30);
+    public static final Setting<String> DB_REPLICAS = stringSetting("db.replicas", null, false);
+    public static final Setting<Integer> DB_REPLICA_HEALTH_INTERVAL_MS = intSetting("db.replica.health-interval-ms", 1000);
+    public static final Setting<Integer> DB_REPLICA_MAX_SESSIONS = intSetting("db.replica.max-sessions", 100000);
+    public static final Setting<Integer> DB_RETRY_MAX_ATTEMPTS = intSetting("db.retry.max-attempts", 3);
+    public static final Setting<Long> DB_RETRY_BACKOFF_MS = longSetting("db.retry.backoff-ms", 10L);
+    public static final Setting<Long> DB_RETRY_MAX_BACKOFF_MS = longSetting("db.retry.max-backoff-ms", 200L);
+    public static final Setting<String> DB_TRANSACTION_ISOLATION = stringSetting("db.transaction.isolation",
+            "read-committed", false);
+    public static final Setting<Long> DB_PURGE_INTERVAL_MS = longSetting("db.purge.interval-ms", 1000L);
+    public static final Setting<Integer> DB_PURGE_BATCH = intSetting("db.purge.batch", 100);
+    public static final Setting<Double> DB_PURGE_MAX_LOAD = doubleSetting("db.purge.max-load", 0.25);
+    public static final Setting<String> DB_MESSAGE_SHARDS = stringSetting("db.message-shards", null, false);
+    public static final Setting<String> IDS = stringSetting("ids", "auto", false);
+    public static final Setting<Integer> IDS_NODE = intSetting("ids.node", 0);
+
+    public static final Setting<String> JSON = stringSetting("json", "streaming", false);
+    public static final Setting<Integer> CACHE_MAX_ENTRIES = intSetting("cache.max-entries", 1024);
+    public static final Setting<Integer> INVALIDATION_PORT = intSetting("invalidation.port", 0);
+    public static final Setting<String> INVALIDATION_PEERS = stringSetting("invalidation.peers", null, false);
+    public static final Setting<Long> INVALIDATION_BATCH_MS = longSetting("invalidation.batch-ms", 5L);
+    public static final Setting<Long> INVALIDATION_HEARTBEAT_MS = longSetting("invalidation.heartbeat-ms", 1000L);
+    public static final Setting<Integer> COMPRESSION_MIN_SIZE = intSetting("compression.min-size", 1024);
+    public static final Setting<Integer> COMPRESSION_LEVEL = intSetting("compression.level", 6);
+
+    public static final Setting<Integer> HASH_ITERATIONS = intSetting("hash.iterations", 210000);
+    public static final Setting<Integer> HASH_THREADS = intSetting("hash.threads", cores);
+    public static final Setting<Integer> HASH_QUEUE = intSetting("hash.queue", cores * 16);
+    public static final Setting<Long> HASH_TIMEOUT_MS = longSetting("hash.timeout-ms", 5000L);
+
+    public static final Setting<String> TOKEN_SECRET = stringSetting("token.secret", null, true);
+    public static final Setting<Long> TOKEN_TTL_SECONDS = longSetting("token.ttl-seconds", 3600L);
+    public static final Setting<Boolean> AUTH_REQUIRED = booleanSetting("auth.required", false);
+    public static final Setting<String> ADMIN_TOKEN = stringSetting("admin.token", null, true);
+    public static final Setting<Integer> RATELIMIT_MAX_BUCKETS = intSetting("ratelimit.max-buckets", 100000);
+
+    public static final Setting<Double> TRACING_SAMPLE_RATE = doubleSetting("tracing.sample-rate", 0.01);
+    public static final Setting<Integer> TRACING_BUFFER = intSetting("tracing.buffer", 2048);
+    public static final Setting<String> TRACING_FILE = stringSetting("tracing.file", null, false);
+    public static final Setting<Integer> LOGGING_BUFFER = intSetting("logging.buffer", 8192);
+    public static final Setting<String> LOGGING_FILE = stringSetting("logging.file", null, false);
+    public static final Setting<String> ACCESSLOG_FILE = stringSetting("accesslog.file", null, false);
+    public static final Setting<Integer> ACCESSLOG_BUFFER = intSetting("accesslog.buffer", 16384);
+    public static final Setting<Long> ACCESSLOG_FLUSH_MS = longSetting("accesslog.flush-ms", 200L);
+    public static final Setting<Long> ACCESSLOG_MAX_BYTES = longSetting("accesslog.max-bytes", 64L << 20);
+    public static final Setting<Long> ACCESSLOG_ROTATE_SECONDS = longSetting("accesslog.rotate-seconds", 86400L);
+    public static final Setting<Integer> ACCESSLOG_MAX_FILES = intSetting("accesslog.max-files", 10);
+    public static final Setting<String> CHANGELOG_DIR = stringSetting("changelog.dir", null, false);
+    public static final Setting<Integer> CHANGELOG_BUFFER = intSetting("changelog.buffer", 16384);
+    public static final Setting<Long> CHANGELOG_APPEND_TIMEOUT_MS = longSetting("changelog.append-timeout-ms", 1000L);
+    public static final Setting<Long> CHANGELOG_SEGMENT_BYTES = longSetting("changelog.segment-bytes", 16L << 20);
+    public static final Setting<Long> CHANGELOG_SEGMENT_SECONDS = longSetting("changelog.segment-seconds", 3600L);
+    public static final Setting<Long> CHANGELOG_RETENTION_BYTES = longSetting("changelog.retention-bytes", 1L << 30);
+    public static final Setting<Long> CHANGELOG_RETENTION_SECONDS = longSetting("changelog.retention-seconds",
+            604800L);
+    public static final Setting<Boolean> CHANGELOG_FSYNC = booleanSetting("changelog.fsync", true);
+
+    public static final Setting<Integer> LIMITER_INITIAL = intSetting("limiter.initial", 20);
+    public static final Setting<Integer> LIMITER_MIN = intSetting("limiter.min", 4);
+    public static final Setting<Integer> LIMITER_MAX = intSetting("limiter.max", 200);
+    public static final Setting<Double> LIMITER_TOLERANCE = doubleSetting("limiter.tolerance", 2.0);
+
+    private static volatile AppConfig shared;
+
+    private final Map<String, String> arguments;
+    private final Properties file;
+    private final String fileName;
+
+    /**
+     * @param arguments the command line arguments.
+     * @throws IllegalArgumentException if an argument is not --name=value or
+     *                                  the properties file cannot be read.
+     */
+    public AppConfig(String[] arguments) {
+        this.arguments = parseArguments(arguments);
+        this.file = new Properties();
+        String configured = lookup(PREFIX + "config", false);
+        Path path = Paths.get(configured != null ? configured : "socialmedia.properties");
+        if (Files.exists(path)) {
+            try (Reader reader = new FileReader(path.toFile())) {
+                file.load(reader);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read " + path, e);
+            }
+            fileName = path.toString();
+        } else if (configured != null) {
+            throw new IllegalArgumentException("config file " + path + " does not exist");
+        } else {
+            fileName = null;
+        }
+    }
+
+    /**
+     * @return the process-wide configuration. Unless init() was called first,
+     *         it has no command line arguments.
+     */
+    public static AppConfig shared() {
+        if (shared == null) {
+            synchronized (AppConfig.class) {
+                if (shared == null) {
+                    shared = new AppConfig(new String[0]);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Load the process-wide configuration with the command line arguments.
+     * Must run before anything reads shared(), Main calls it first.
+     *
+     * @param arguments the command line arguments.
+     * @return the process-wide configuration.
+     */
+    public static synchronized AppConfig init(String[] arguments) {
+        shared = new AppConfig(arguments);
+        return shared;
+    }
+
+    /**
+     * @param setting a declared setting.
+     * @return the effective value of the setting.
+     * @throws IllegalArgumentException if the configured value does not parse.
+     */
+    public <T> T get(Setting<T> setting) {
+        return get(setting.name, setting.defaultValue, setting.parser);
+    }
+
+    /**
+     * Read and parse a setting that is not declared, such as one named after
+     * a route, failing like a declared setting does.
+     *
+     * @param name         the full name of the setting.
+     * @param defaultValue returned when the setting is not configured.
+     * @param parser       turns the trimmed value into the setting, throwing
+     *                     a RuntimeException if it is not valid.
+     * @return the parsed value or the default.
+     * @throws IllegalArgumentException if the configured value does not parse.
+     */
+    public <T> T get(String name, T defaultValue, Function<String, T> parser) {
+        String value = lookup(name, true);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(value.trim());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(name + " from " + sourceOf(name) + " is not valid: " + value, e);
+        }
+    }
+
+    /**
+     * Read a setting that is not declared, such as one named after a route.
+     *
+     * @param name         the full name of the setting.
+     * @param defaultValue returned when the setting is not configured.
+     * @return the configured value or the default.
+     */
+    public String getString(String name, String defaultValue) {
+        String value = lookup(name, true);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @param name the full name of a setting.
+     * @return where the value of the setting comes from: "argument",
+     *         "system property", "environment", "file" or "default".
+     */
+    public String sourceOf(String name) {
+        if (arguments.containsKey(name)) {
+            return "argument";
+        }
+        if (System.getProperty(name) != null) {
+            return "system property";
+        }
+        if (System.getenv(environmentName(name)) != null) {
+            return "environment";
+        }
+        if (file.getProperty(name) != null) {
+            return "file";
+        }
+        return "default";
+    }
+
+    /**
+     * List the effective configuration, one setting per line with its source.
+     * Secrets are masked. Undeclared settings are listed when they are set in
+     * the arguments, the system properties or the file.
+     *
+     * @return the effective configuration.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder("Effective configuration");
+        if (fileName != null) {
+            builder.append(" (file ").append(fileName).append(')');
+        }
+        builder.append(':');
+        TreeSet<String> undeclared = new TreeSet<>(arguments.keySet());
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                undeclared.add(name);
+            }
+        }
+        undeclared.addAll(file.stringPropertyNames());
+        for (Setting<?> setting : settings) {
+            undeclared.remove(setting.name);
+            Object value = get(setting);
+            String shown = value == null ? "(unset)" : setting.secret ? "****" : value.toString();
+            line(builder, setting.name, shown);
+        }
+        undeclared.remove(PREFIX + "config");
+        for (String name : undeclared) {
+            line(builder, name, getString(name, ""));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return every declared setting, in declaration order.
+     */
+    public static List<Setting<?>> settings() {
+        return Collections.unmodifiableList(settings);
+    }
+
+    private void line(StringBuilder builder, String name, String value) {
+        builder.append(System.lineSeparator()).append("  ").append(name).append(" = ").append(value)
+                .append("  [").append(sourceOf(name)).append(']');
+    }
+
+    private String lookup(String name, boolean includeFile) {
+        String value = arguments.get(name);
+        if (value == null) {
+            value = System.getProperty(name);
+        }
+        if (value == null) {
+            value = System.getenv(environmentName(name));
+        }
+        if (value == null && includeFile) {
+            value = file.getProperty(name);
+        }
+        return value;
+    }
+
+    private static String environmentName(String name) {
+        return name.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static Map<String, String> parseArguments(String[] arguments) {
+        Map<String, String> parsed = new HashMap<>();
+        for (String argument : arguments) {
+            int equals = argument.indexOf('=');
+            if (!argument.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("expected --name=value, got " + argument);
+            }
+            String name = argument.substring(2, equals);
+            if (!name.startsWith(PREFIX)) {
+                name = PREFIX + name;
+            }
+            parsed.put(name, argument.substring(equals + 1));
+        }
+        return parsed;
+    }
+
+    private static <T> Setting<T> setting(String name, T defaultValue, Function<String, T> parser, boolean secret) {
+        Setting<T> setting = new Setting<>(PREFIX + name, defaultValue, parser, secret);
+        settings.add(setting);
+        return setting;
+    }
+
+    private static Setting<String> stringSetting(String name, String defaultValue, boolean secret) {
+        return setting(name, defaultValue, Function.identity(), secret);
+    }
+
+    private static Setting<Integer> intSetting(String name, int defaultValue) {
+        return setting(name, defaultValue, Integer::valueOf, false);
+    }
+
+    private static Setting<Long> longSetting(String name, long defaultValue) {
+        return setting(name, defaultValue, Long::valueOf, false);
+    }
+
+    private static Setting<Double> doubleSetting(String name, double defaultValue) {
+        return setting(name, defaultValue, Double::valueOf, false);
+    }
+
+    private static Setting<Boolean> booleanSetting(String name, boolean defaultValue) {
+        return setting(name, defaultValue, value -> {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("expected true or false");
+            }
+            return Boolean.valueOf(value);
+        }, false);
+    }
+}
@@ -0,0 +1,168 @@
+package Util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The BatchingInvalidationBus class batches and coalesces the published keys
+ * for the implementations of InvalidationBus, which only send a batch and
+ * deliver the batches they receive.
+ *
+ * The first key published schedules a flush batchMillis later, and every key
+ * published until then joins that batch, once however often it was
+ * published. A batch holding ALL, or more than MAX_KEYS keys, is sent as ALL
+ * alone, which keeps batches small when writes are heavy.
+ */
+public abstract class BatchingInvalidationBus implements InvalidationBus {
+    private static final Logger log = LoggerFactory.getLogger(BatchingInvalidationBus.class);
+
+    static final int MAX_KEYS = 256;
+
+    private final long batchMillis;
+    private final ScheduledExecutorService flusher;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // guarded by this
+    private Set<String> pending = new LinkedHashSet<>();
+
+    /**
+     * @param name        the name of the thread sending the batches.
+     * @param batchMillis how long keys are collected before they are sent.
+     */
+    protected BatchingInvalidationBus(String name, long batchMillis) {
+        this.batchMillis = batchMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void publish(String key) {
+        published.increment();
+        boolean first;
+        synchronized (this) {
+            first = pending.isEmpty();
+            if (pending.contains(ALL) || !pending.add(key)) {
+                coalesced.increment();
+                return;
+            }
+            if (key.equals(ALL) || pending.size() > MAX_KEYS) {
+                pending.clear();
+                pending.add(ALL);
+            }
+        }
+        if (first) {
+            flusher.schedule(this::flush, batchMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Send the keys batched so far.
+     */
+    void flush() {
+        Set<String> keys;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            keys = Collections.unmodifiableSet(pending);
+            pending = new LinkedHashSet<>();
+        }
+        try {
+            send(keys);
+            sent.increment();
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            log.warn("invalidation of {} keys not sent: {}", keys.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Send a batch to the other instances.
+     *
+     * @param keys the keys, each once, or ALL alone.
+     */
+    protected abstract void send(Set<String> keys) throws IOException;
+
+    /**
+     * Hand a batch received from another instance to the listeners.
+     *
+     * @param keys the keys the other instance changed.
+     */
+    protected void deliver(Set<String> keys) {
+        received.increment();
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidated(keys);
+            } catch (RuntimeException e) {
+                log.warn("invalidation listener failed: {}", e.toString());
+            }
+        }
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * @return the keys published while already batched.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the batches sent.
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the batches received.
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return the batches that could not be sent.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+}
@@ -0,0 +1,137 @@
+package Util;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The BinaryFormat enum lists the binary wire formats a client may negotiate
+ * instead of JSON. Each format wraps a StreamingCodec built on the matching
+ * Jackson factory, so the same field-by-field encoding is used for all of them.
+ */
+public enum BinaryFormat {
+    CBOR("application/cbor", new StreamingCodec(new CBORFactory())),
+    SMILE("application/x-jackson-smile", new StreamingCodec(new SmileFactory()));
+
+    private final String mediaType;
+    private final StreamingCodec codec;
+
+    BinaryFormat(String mediaType, StreamingCodec codec) {
+        this.mediaType = mediaType;
+        this.codec = codec;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public StreamingCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Find the binary format of a Content-Type header.
+     *
+     * @param contentType a Content-Type header, may be null.
+     * @return the matching format, or null for JSON and anything unknown.
+     */
+    public static BinaryFormat fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        return fromMediaType(stripParameters(contentType));
+    }
+
+    /**
+     * Find the binary format an Accept header prefers over JSON. Each format,
+     * JSON included, is weighted by the q parameter of the most specific
+     * media range matching it, 1 when the range has none. Formats with q=0
+     * or matched by no range are not acceptable. The highest weight wins,
+     * then the range listed first, then JSON, so a wildcard alone keeps the
+     * response in JSON.
+     *
+     * @param accept an Accept header, may be null.
+     * @return the preferred binary format, or null when JSON should be used.
+     */
+    public static BinaryFormat fromAccept(String accept) {
+        if (accept == null) {
+            return null;
+        }
+        String[] ranges = accept.split(",");
+        String[] mediaTypes = new String[ranges.length];
+        double[] weights = new double[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            mediaTypes[i] = stripParameters(ranges[i]);
+            weights[i] = quality(ranges[i].split(";"));
+        }
+        BinaryFormat best = null;
+        int bestRange = match("application/json", mediaTypes);
+        for (BinaryFormat format : values()) {
+            int range = match(format.mediaType, mediaTypes);
+            if (range < 0 || weights[range] <= 0) {
+                continue;
+            }
+            if (bestRange < 0 || weights[range] > weights[bestRange]
+                    || weights[range] == weights[bestRange] && range < bestRange) {
+                best = format;
+                bestRange = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the index of the most specific range matching a media type,
+     *         the first one of equal ranges, or -1 if none matches.
+     */
+    private static int match(String mediaType, String[] ranges) {
+        String anySubtype = mediaType.substring(0, mediaType.indexOf('/') + 1) + "*";
+        int found = -1;
+        int specificity = 0;
+        for (int i = 0; i < ranges.length; i++) {
+            int candidate = ranges[i].equals(mediaType) ? 3
+                    : ranges[i].equals(anySubtype) ? 2
+                    : ranges[i].equals("*/*") ? 1 : 0;
+            if (candidate > specificity) {
+                found = i;
+                specificity = candidate;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the q parameter of a media range split at ';', 1 without one,
+     *         0 if it is not a number from 0 to 1.
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim().toLowerCase();
+            if (parameter.startsWith("q=")) {
+                try {
+                    double q = Double.parseDouble(parameter.substring(2));
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static BinaryFormat fromMediaType(String mediaType) {
+        for (BinaryFormat format : values()) {
+            if (format.mediaType.equals(mediaType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static String stripParameters(String mediaType) {
+        int separator = mediaType.indexOf(';');
+        if (separator >= 0) {
+            mediaType = mediaType.substring(0, separator);
+        }
+        return mediaType.trim().toLowerCase();
+    }
+}
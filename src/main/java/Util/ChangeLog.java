@@ -0,0 +1,793 @@
+package Util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Model.Message;
+
+/**
+ * The ChangeLog class records every insert, update and delete of a message
+ * as an event in a local log, so search indexing, analytics or the caches
+ * of other nodes can follow the changes from an offset instead of polling
+ * GET /messages.
+ *
+ * An event is one JSON line with its offset, the time, the type of change
+ * and the message as the change left it, its version included. Offsets
+ * start at 0 and grow by one per event. Events are appended once the change
+ * committed; the events of one message carry increasing versions, and a
+ * consumer keeps the one with the highest.
+ *
+ * An event gets its offset when it is appended. An event that could not be
+ * queued leaves its offset to a gap event, such as
+ * {"offset":41,"time":...,"type":"gap","from":40,"dropped":2} for lost
+ * offsets 40 and 41, so a consumer can tell changes were lost and resync
+ * from the database instead of silently missing them.
+ *
+ * The log is a directory of segment files, each named after the offset of
+ * its first event, such as 00000000000000001024.log. Appending only queues
+ * the event, a daemon thread writes whatever is queued as one batch and
+ * forces it to disk before readers can see it, so many concurrent changes
+ * share one write and one fsync. When the queue is full appending waits up
+ * to append-timeout-ms, and not at all while the writer is failing, then
+ * drops the event for a gap event and counts it, so a full or broken disk
+ * never stalls the writes of messages. The writer retries a batch it could not write, after
+ * truncating the segment back to its last complete event. A new segment is
+ * started when the current one reaches segment-bytes or segment-seconds,
+ * and the oldest segments are deleted once the log is over retention-bytes
+ * or they are older than retention-seconds.
+ *
+ * read() serves the events from an offset, waiting for new ones up to a
+ * timeout when there are none yet, for long-polling consumers. A sparse
+ * index of every segment, one entry per 4 KiB, finds the position of an
+ * offset without scanning the segment from the start.
+ *
+ * The settings are socialmedia.changelog.dir, which enables the log, and
+ * .buffer, .append-timeout-ms, .segment-bytes, .segment-seconds,
+ * .retention-bytes, .retention-seconds and .fsync.
+ */
+public class ChangeLog implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ChangeLog.class);
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final String SUFFIX = ".log";
+    private static final byte[] OFFSET_PREFIX = "{\"offset\":".getBytes();
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int MAX_BATCH = 1024;
+    private static final long RETRY_MILLIS = 500;
+
+    /**
+     * The longest a read waits for new events.
+     */
+    public static final long MAX_WAIT_MILLIS = 30000;
+
+    private static volatile ChangeLog shared;
+    private static volatile boolean configured;
+
+    public enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * A queued event, with a copy of the message as it was appended.
+     */
+    private static class Change {
+        final long offset;
+        final long epochMillis;
+        final Type type;
+        final long messageId;
+        final int postedBy;
+        final String messageText;
+        final long timePostedEpoch;
+        final long version;
+
+        Change(long offset, Type type, Message message) {
+            this.offset = offset;
+            this.epochMillis = System.currentTimeMillis();
+            this.type = type;
+            this.messageId = message.getMessage_id();
+            this.postedBy = message.getPosted_by();
+            this.messageText = message.getMessage_text();
+            this.timePostedEpoch = message.getTime_posted_epoch();
+            this.version = message.getVersion();
+        }
+    }
+
+    /**
+     * A segment file and the sparse index of its events.
+     */
+    private static class Segment {
+        final long baseOffset;
+        final Path file;
+        // offsets and positions of every INDEX_INTERVAL bytes, guarded by the log
+        final List<long[]> index = new ArrayList<>();
+        long endOffset;
+        long size;
+        long createdMillis;
+        long lastWriteMillis;
+
+        Segment(long baseOffset, Path file) {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.endOffset = baseOffset;
+        }
+
+        /**
+         * @return the position of an event at or before offset.
+         */
+        long floorPosition(long offset) {
+            long position = 0;
+            for (long[] entry : index) {
+                if (entry[0] > offset) {
+                    break;
+                }
+                position = entry[1];
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Events read from the log, as JSON lines.
+     */
+    public static class Batch {
+        private final byte[] lines;
+        private final int count;
+        private final long next;
+
+        Batch(byte[] lines, int count, long next) {
+            this.lines = lines;
+            this.count = count;
+            this.next = next;
+        }
+
+        /**
+         * @return the events, one JSON object per line.
+         */
+        public byte[] getLines() {
+            return lines;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the offset to read from next.
+         */
+        public long getNext() {
+            return next;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final boolean fsync;
+    private final long appendTimeoutMillis;
+    private final BlockingQueue<Change> queue;
+    private final Thread writer;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong dropped = new AtomicLong();
+    // appends take their offset and queue their event under this lock, so the queue is in offset order
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private long appendOffset;
+    private volatile boolean closed;
+    private volatile boolean failing;
+    private volatile String lastError;
+
+    // guarded by this, readers see only the events before nextOffset
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextOffset;
+
+    // used by the writer thread only
+    private FileChannel active;
+
+    /**
+     * @param dir              the directory of the segments, created if
+     *                         missing.
+     * @param capacity         the events the queue holds before appending
+     *                         waits.
+     * @param appendTimeout    how long appending waits for room in the
+     *                         queue, in milliseconds, before the event is
+     *                         dropped.
+     * @param segmentBytes     the size at which a new segment is started.
+     * @param segmentSeconds   the age at which a new segment is started.
+     * @param retentionBytes   the size of the log above which the oldest
+     *                         segments are deleted.
+     * @param retentionSeconds the age after which a segment is deleted.
+     * @param fsync            whether every batch is forced to disk.
+     * @throws IOException if the directory or its segments cannot be read.
+     */
+    public ChangeLog(Path dir, int capacity, long appendTimeout, long segmentBytes, long segmentSeconds,
+            long retentionBytes, long retentionSeconds, boolean fsync) throws IOException {
+        this.dir = dir.toAbsolutePath();
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentSeconds * 1000;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionSeconds * 1000;
+        this.fsync = fsync;
+        this.appendTimeoutMillis = appendTimeout;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Files.createDirectories(this.dir);
+        recover();
+        appendOffset = nextOffset;
+        this.writer = new Thread(this::write, "change-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the process-wide change log, configured by the
+     *         socialmedia.changelog settings, or null if
+     *         socialmedia.changelog.dir is not set.
+     */
+    public static ChangeLog shared() {
+        if (!configured) {
+            synchronized (ChangeLog.class) {
+                if (!configured) {
+                    AppConfig config = AppConfig.shared();
+                    String dir = config.get(AppConfig.CHANGELOG_DIR);
+                    if (dir != null) {
+                        try {
+                            shared = new ChangeLog(Paths.get(dir), config.get(AppConfig.CHANGELOG_BUFFER),
+                                    config.get(AppConfig.CHANGELOG_APPEND_TIMEOUT_MS),
+                                    config.get(AppConfig.CHANGELOG_SEGMENT_BYTES),
+                                    config.get(AppConfig.CHANGELOG_SEGMENT_SECONDS),
+                                    config.get(AppConfig.CHANGELOG_RETENTION_BYTES),
+                                    config.get(AppConfig.CHANGELOG_RETENTION_SECONDS),
+                                    config.get(AppConfig.CHANGELOG_FSYNC));
+                        } catch (IOException e) {
+                            throw new IllegalArgumentException("cannot open change log " + dir, e);
+                        }
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Queue an event, waiting while the queue is full, up to the append
+     * timeout and only while the writer is not failing. An event that is not
+     * queued becomes part of a gap event.
+     *
+     * @param type    the change.
+     * @param message the message as the change left it.
+     */
+    public void append(Type type, Message message) {
+        appendLock.lock();
+        try {
+            Change change = new Change(appendOffset++, type, message);
+            if (failing ? queue.offer(change) : queue.offer(change, appendTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            appendLock.unlock();
+        }
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            log.error("change {} of message {} not logged, {} changes dropped so far", type,
+                    message.getMessage_id(), count);
+        }
+    }
+
+    /**
+     * Read the events from an offset. An offset already deleted by retention
+     * reads from the oldest event kept, which the offset of the first line
+     * shows.
+     *
+     * @param from       the offset of the first event to read.
+     * @param max        the most events to read.
+     * @param waitMillis how long to wait for an event when there is none
+     *                   from the offset yet, at most MAX_WAIT_MILLIS.
+     * @return the events, possibly none.
+     */
+    public Batch read(long from, int max, long waitMillis) {
+        List<Segment> snapshot;
+        long end;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + Math.min(waitMillis, MAX_WAIT_MILLIS);
+            long remaining = deadline - System.currentTimeMillis();
+            while (from >= nextOffset && remaining > 0 && !closed) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            snapshot = new ArrayList<>(segments);
+            end = nextOffset;
+        }
+        from = Math.max(from, snapshot.get(0).baseOffset);
+        if (from >= end) {
+            return new Batch(new byte[0], 0, from);
+        }
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        int count = 0;
+        long next = from;
+        for (int i = 0; i < snapshot.size() && count < max && next < end; i++) {
+            Segment segment = snapshot.get(i);
+            if (i + 1 < snapshot.size() && snapshot.get(i + 1).baseOffset <= next) {
+                continue;
+            }
+            long position;
+            synchronized (this) {
+                position = segment.floorPosition(next);
+            }
+            try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                channel.position(position);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+                ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+                while (count < max && next < end) {
+                    if (!readLine(in, line)) {
+                        break;
+                    }
+                    long offset = offsetOf(line.toByteArray());
+                    if (offset >= next && offset < end) {
+                        line.writeTo(lines);
+                        count++;
+                        next = offset + 1;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // deleted by retention meanwhile, the next segment continues
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read change log segment " + segment.file, e);
+            }
+        }
+        return new Batch(lines.toByteArray(), count, next);
+    }
+
+    /**
+     * @return the offset the next event will get.
+     */
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the offset of the oldest event kept.
+     */
+    public synchronized long getFirstOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return the size of every segment together.
+     */
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the events waiting to be written.
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getDeletedSegments() {
+        return deletedSegments.sum();
+    }
+
+    /**
+     * @return false while the writer cannot write, see getLastError().
+     */
+    public boolean isHealthy() {
+        return !failing;
+    }
+
+    /**
+     * @return the failed attempts to write a batch.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the events dropped because the queue was full, each one
+     *         reported to consumers by a gap event.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the last error of the writer, or null.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Write the queued events and close the log.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Open the segments found in the directory, drop a partly written last
+     * event, and start a segment if there are none.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            found.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+            segment.lastWriteMillis = Files.getLastModifiedTime(file).toMillis();
+            segment.createdMillis = segment.lastWriteMillis;
+            long valid = 0;
+            long indexed = -INDEX_INTERVAL;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+                while (readLine(in, line)) {
+                    long offset = offsetOf(line.toByteArray());
+                    if (valid - indexed >= INDEX_INTERVAL) {
+                        segment.index.add(new long[] {offset, valid});
+                        indexed = valid;
+                    }
+                    valid += line.size();
+                    segment.endOffset = offset + 1;
+                }
+            }
+            if (valid < Files.size(file)) {
+                log.warn("change log segment {} ends with a partly written event, truncated", file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+            segment.size = valid;
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(newSegment(0));
+        }
+        Segment last = segments.get(segments.size() - 1);
+        nextOffset = last.endOffset;
+        active = FileChannel.open(last.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Segment newSegment(long baseOffset) throws IOException {
+        Path file = dir.resolve(String.format(Locale.ROOT, "%020d", baseOffset) + SUFFIX);
+        Segment segment = new Segment(baseOffset, file);
+        Files.newByteChannel(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE).close();
+        segment.createdMillis = System.currentTimeMillis();
+        segment.lastWriteMillis = segment.createdMillis;
+        return segment;
+    }
+
+    private void write() {
+        List<Change> batch = new ArrayList<>(MAX_BATCH);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+        while (true) {
+            try {
+                if (batch.isEmpty()) {
+                    Change first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        writeTrailingGap(buffer);
+                        if (closed) {
+                            active.close();
+                            return;
+                        }
+                        roll(System.currentTimeMillis());
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                writeBatch(batch, 0, buffer);
+                batch.clear();
+                if (failing) {
+                    failing = false;
+                    log.info("change log writer recovered");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                lastError = e.toString();
+                if (!failing) {
+                    failing = true;
+                    log.error("change log write failed, retrying every {} ms: {}", RETRY_MILLIS, e.toString());
+                }
+                if (closed) {
+                    log.error("change log closed while failing, {} changes not logged", batch.size() + queue.size());
+                    return;
+                }
+                if (!pause()) {
+                    return;
+                }
+                reopen();
+            }
+        }
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Open the last segment again and drop what a failed write left of a
+     * batch after its last complete event.
+     */
+    private void reopen() {
+        try {
+            active.close();
+        } catch (IOException e) {
+            // replaced below
+        }
+        Segment last;
+        long size;
+        synchronized (this) {
+            last = segments.get(segments.size() - 1);
+            size = last.size;
+        }
+        try {
+            active = FileChannel.open(last.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (active.size() > size) {
+                active.truncate(size);
+            }
+        } catch (IOException e) {
+            // the next attempt fails on the closed channel and comes back here
+            lastError = e.toString();
+        }
+    }
+
+    /**
+     * Write the gap event of the events dropped after the last one queued,
+     * which no later event would report while appends are idle.
+     */
+    private void writeTrailingGap(ByteArrayOutputStream buffer) throws IOException {
+        long end;
+        // an append holding the lock is queueing its event, or will drop it and come back here
+        if (!appendLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!queue.isEmpty()) {
+                return;
+            }
+            end = appendOffset;
+        } finally {
+            appendLock.unlock();
+        }
+        if (end > getNextOffset()) {
+            writeBatch(Collections.emptyList(), end, buffer);
+        }
+    }
+
+    /**
+     * Write a batch to the active segment with one write and at most one
+     * fsync, then let readers see it. The offsets no event of the batch has
+     * were dropped, and are written as gap events.
+     *
+     * @param end the offset after the last one to write, if higher than the
+     *            offset after the batch.
+     */
+    private void writeBatch(List<Change> batch, long end, ByteArrayOutputStream buffer) throws IOException {
+        long now = System.currentTimeMillis();
+        roll(now);
+        Segment segment;
+        long offset;
+        synchronized (this) {
+            segment = segments.get(segments.size() - 1);
+            offset = nextOffset;
+        }
+        List<long[]> indexed = new ArrayList<>();
+        long lastIndexed = segment.index.isEmpty() ? -INDEX_INTERVAL : segment.index.get(segment.index.size() - 1)[1];
+        buffer.reset();
+        try (JsonGenerator json = JSON.createGenerator(buffer, JsonEncoding.UTF8)) {
+            json.setRootValueSeparator(null);
+            for (int i = 0; i <= batch.size(); i++) {
+                long next = i < batch.size() ? batch.get(i).offset : Math.max(end, offset);
+                if (next > offset) {
+                    lastIndexed = index(json, buffer, segment, next - 1, lastIndexed, indexed);
+                    writeGap(json, offset, next, now);
+                    offset = next;
+                }
+                if (i < batch.size()) {
+                    lastIndexed = index(json, buffer, segment, offset, lastIndexed, indexed);
+                    writeChange(json, offset++, batch.get(i));
+                }
+            }
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            active.write(bytes);
+        }
+        if (fsync) {
+            active.force(false);
+        }
+        batches.increment();
+        synchronized (this) {
+            segment.index.addAll(indexed);
+            segment.size += buffer.size();
+            segment.endOffset = offset;
+            segment.lastWriteMillis = now;
+            nextOffset = offset;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Add an index entry for the event about to be written at the end of the
+     * buffer, if the last one is INDEX_INTERVAL bytes back.
+     *
+     * @return the position of the last index entry.
+     */
+    private static long index(JsonGenerator json, ByteArrayOutputStream buffer, Segment segment, long offset,
+            long lastIndexed, List<long[]> indexed) throws IOException {
+        json.flush();
+        long position = segment.size + buffer.size();
+        if (position - lastIndexed >= INDEX_INTERVAL) {
+            indexed.add(new long[] {offset, position});
+            return position;
+        }
+        return lastIndexed;
+    }
+
+    /**
+     * Write the gap event of the dropped offsets from first to end, excluded.
+     * It takes the last of them as its own offset, so readers and recovery
+     * continue after it like after any event.
+     */
+    private static void writeGap(JsonGenerator json, long first, long end, long epochMillis) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("offset", end - 1);
+        json.writeStringField("time", Instant.ofEpochMilli(epochMillis).toString());
+        json.writeStringField("type", "gap");
+        json.writeNumberField("from", first);
+        json.writeNumberField("dropped", end - first);
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private static void writeChange(JsonGenerator json, long offset, Change change) throws IOException {
+        // the offset comes first, readers find it without parsing the line
+        json.writeStartObject();
+        json.writeNumberField("offset", offset);
+        json.writeStringField("time", Instant.ofEpochMilli(change.epochMillis).toString());
+        json.writeStringField("type", change.type.name().toLowerCase(Locale.ROOT));
+        json.writeNumberField("message_id", change.messageId);
+        json.writeNumberField("posted_by", change.postedBy);
+        json.writeStringField("message_text", change.messageText);
+        json.writeNumberField("time_posted_epoch", change.timePostedEpoch);
+        json.writeNumberField("version", change.version);
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    /**
+     * Start a new segment if the active one is full or old, and delete the
+     * segments retention no longer keeps.
+     */
+    private void roll(long now) throws IOException {
+        Segment last;
+        synchronized (this) {
+            last = segments.get(segments.size() - 1);
+        }
+        if (last.size > 0 && (last.size >= segmentBytes || now - last.createdMillis >= segmentMillis)) {
+            if (fsync) {
+                active.force(false);
+            }
+            active.close();
+            Segment segment = newSegment(last.endOffset);
+            active = FileChannel.open(segment.file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            synchronized (this) {
+                segments.add(segment);
+            }
+        }
+        while (true) {
+            Segment oldest;
+            synchronized (this) {
+                long bytes = getBytes();
+                oldest = segments.get(0);
+                if (segments.size() == 1
+                        || bytes <= retentionBytes && now - oldest.lastWriteMillis < retentionMillis) {
+                    return;
+                }
+                segments.remove(0);
+            }
+            Files.deleteIfExists(oldest.file);
+            deletedSegments.increment();
+        }
+    }
+
+    /**
+     * Read a line, its newline included, into line.
+     *
+     * @return false at the end of the stream or of the complete lines.
+     */
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) >= 0) {
+            line.write(b);
+            if (b == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long offsetOf(byte[] line) {
+        long offset = 0;
+        for (int i = OFFSET_PREFIX.length; i < line.length && line[i] >= '0' && line[i] <= '9'; i++) {
+            offset = offset * 10 + (line[i] - '0');
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,19 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A ConnectionSource opens connections to one database, such as the primary
+ * of the main database or one message shard. Units of work are bound to a
+ * source, so there is one source object per database and two calls for the
+ * same database can tell they share it.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+    /**
+     * @return a pooled connection, to be closed by the caller.
+     * @throws SQLException if no connection could be had.
+     */
+    Connection getConnection() throws SQLException;
+}
@@ -1,11 +1,18 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.h2.jdbcx.JdbcDataSource;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
 import org.h2.tools.RunScript;
 
 /**
@@ -13,44 +20,176 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * The database runs with one of two profiles, selected with the setting
+ * socialmedia.db.profile. The "test" profile (the default) uses H2's
+ * defaults and is reset by resetTestDatabase() before every test. The
+ * "production" profile tunes the H2 settings for throughput.
+ *
+ * The connection string, credentials and pool size come from AppConfig.
+ * Connections are pooled, so callers must close the connections they get.
+ *
+ * When socialmedia.db.replicas lists the connection strings of read
+ * replicas, getReadConnection() routes reads to them through a
+ * RoutingDataSource and writers must call replicate() after each change.
+ * Without replicas both kinds of connection go to the one database.
+ *
+ * When socialmedia.db.message-shards lists the connection strings of shard
+ * databases, messages are stored there instead, see MessageShards. With
+ * socialmedia.ids=snowflake, message ids are generated by the application
+ * with the node id socialmedia.ids.node instead of by the database.
  */
 public class ConnectionUtil {
 
 	/**
-	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * url will represent our connection string. Unless socialmedia.db.url is
+	 * set, it is a file location to store the data with the settings of the
+	 * profile appended.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = url();
 	/**
-	 * Default username for connecting to h2
+	 * Username for connecting to h2
 	 */
-	private static String username = "sa";
+	private static String username = AppConfig.shared().get(AppConfig.DB_USER);
 	/**
-	 * Default password for connecting to h2
+	 * Password for connecting to h2
 	 */
-	private static String password = "sa";
+	private static String password = AppConfig.shared().get(AppConfig.DB_PASSWORD);
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource for pooling. Closed connections go back to the pool instead of
+	 * closing the physical connection.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static JdbcConnectionPool pool = JdbcConnectionPool.create(url, username, password);
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * static initialization block to size the pool. A caller waits up to the
+	 * timeout for a connection when all of them are in use.
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		pool.setMaxConnections(AppConfig.shared().get(AppConfig.DB_POOL_MAX_CONNECTIONS));
+		pool.setLoginTimeout(AppConfig.shared().get(AppConfig.DB_POOL_TIMEOUT_SECONDS));
+	}
+
+	/**
+	 * Routes reads to the replicas, null when none are configured.
+	 */
+	private static RoutingDataSource routing = createRouting();
+
+	/**
+	 * The primary of the main database, for writes and units of work.
+	 */
+	private static final ConnectionSource primary = () -> {
+		FlightEvents.ConnectionAcquire event = FlightEvents.connectionAcquire();
+		Connection connection = pool.getConnection();
+		event.finish("primary", -1, pool);
+		return connection;
+	};
+
+	/**
+	 * Reads of the main database, routed to the replicas when there are any.
+	 */
+	private static final ConnectionSource reader = () -> {
+		if (routing == null) {
+			return primary.getConnection();
+		}
+		FlightEvents.ConnectionAcquire event = FlightEvents.connectionAcquire();
+		Connection connection = routing.getReadConnection();
+		event.finish("read", -1, null);
+		return connection;
+	};
+
+	/**
+	 * The databases holding the message table.
+	 */
+	private static MessageShards messageShards = createMessageShards();
+
+	/**
+	 * @return the database profile, "test" unless socialmedia.db.profile says otherwise
+	 */
+	public static String profile() {
+		return AppConfig.shared().get(AppConfig.DB_PROFILE);
+	}
+
+	/**
+	 * @return the configured connection string, or the file database with the
+	 *         settings of the profile.
+	 */
+	private static String url() {
+		String configured = AppConfig.shared().get(AppConfig.DB_URL);
+		return configured != null ? configured : "jdbc:h2:./h2/db;" + profileSettings(profile());
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * H2 settings appended to the connection string of a profile. The
+	 * production profile uses a 128MB page cache, batches commits to disk
+	 * every 500ms and waits up to 10s for row locks. Concurrent access
+	 * (formerly MULTI_THREADED) is always on with the MVStore engine, so it
+	 * needs no setting.
+	 *
+	 * @param profile "test" or "production"
+	 * @return the settings to append to the connection string
+	 */
+	public static String profileSettings(String profile) {
+		if (profile.equals("production")) {
+			return "CACHE_SIZE=131072;WRITE_DELAY=500;LOCK_TIMEOUT=10000;DB_CLOSE_DELAY=-1";
+		}
+		return "";
+	}
+
+	/**
+	 * @return the routing data source over the configured replicas, or null
+	 */
+	private static RoutingDataSource createRouting() {
+		String replicas = AppConfig.shared().get(AppConfig.DB_REPLICAS);
+		if (replicas == null || replicas.isBlank()) {
+			return null;
+		}
+		List<DataSource> replicaPools = new ArrayList<>();
+		for (String replicaUrl : replicas.split(",")) {
+			JdbcConnectionPool replicaPool = JdbcConnectionPool.create(replicaUrl.trim(), username, password);
+			replicaPool.setMaxConnections(pool.getMaxConnections());
+			replicaPool.setLoginTimeout(pool.getLoginTimeout());
+			replicaPools.add(replicaPool);
+		}
+		return new RoutingDataSource(pool, replicaPools,
+				AppConfig.shared().get(AppConfig.DB_REPLICA_HEALTH_INTERVAL_MS),
+				AppConfig.shared().get(AppConfig.DB_REPLICA_MAX_SESSIONS));
+	}
+
+	/**
+	 * @return the message shards over the configured shard databases, or a
+	 *         single shard in the main database
+	 */
+	private static MessageShards createMessageShards() {
+		String shards = AppConfig.shared().get(AppConfig.DB_MESSAGE_SHARDS);
+		List<DataSource> shardPools = new ArrayList<>();
+		if (shards != null && !shards.isBlank()) {
+			for (String shardUrl : shards.split(",")) {
+				JdbcConnectionPool shardPool = JdbcConnectionPool.create(shardUrl.trim(), username, password);
+				shardPool.setMaxConnections(pool.getMaxConnections());
+				shardPool.setLoginTimeout(pool.getLoginTimeout());
+				shardPools.add(shardPool);
+			}
+		}
+		String idScheme = AppConfig.shared().get(AppConfig.IDS);
+		if (idScheme.equals("snowflake")) {
+			SnowflakeIdGenerator ids = new SnowflakeIdGenerator(AppConfig.shared().get(AppConfig.IDS_NODE),
+					Math.max(1, shardPools.size()));
+			return new MessageShards(shardPools, ids);
+		}
+		if (!idScheme.equals("auto")) {
+			throw new IllegalArgumentException("socialmedia.ids must be auto or snowflake: " + idScheme);
+		}
+		return new MessageShards(shardPools);
+	}
+
+	/**
+	 * @return an active connection to the database, to be closed by the caller.
+	 *         Writes must use this connection.
 	 */
 	public static Connection getConnection() {
 		try {
-			return pool.getConnection();
+			return primary.getConnection();
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -58,16 +197,131 @@ public class ConnectionUtil {
 		return null;
 	}
 
+	/**
+	 * @return an active connection for reads, to a replica that has seen the
+	 *         writes of the current session when replicas are configured, to be
+	 *         closed by the caller
+	 */
+	public static Connection getReadConnection() {
+		try {
+			return reader.getConnection();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Unlike getConnection(), the source throws when no connection can be
+	 * had, so the DAOs can tell a pool timeout from other failures.
+	 *
+	 * @return the source of connections to the primary of the main database
+	 */
+	public static ConnectionSource primary() {
+		return primary;
+	}
+
+	/**
+	 * @return the source of read connections to the main database, see
+	 *         getReadConnection()
+	 */
+	public static ConnectionSource reader() {
+		return reader;
+	}
+
+	/**
+	 * Tell the replicas that a row changed on the primary. Called after the
+	 * write committed.
+	 *
+	 * @param table     the table written to.
+	 * @param keyColumn the primary key column of the table.
+	 * @param key       the key of the changed row.
+	 */
+	public static void replicate(String table, String keyColumn, long key) {
+		if (routing != null) {
+			routing.replicate(table, keyColumn, key);
+		}
+	}
+
+	/**
+	 * @return the connection pool of the main database
+	 */
+	public static JdbcConnectionPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Check that the main database answers, for the readiness probe. A pool
+	 * with every connection in use is busy rather than down, so the check
+	 * does not wait for a connection then.
+	 *
+	 * @param timeoutSeconds how long the database may take to answer
+	 * @return true if the database answered, or the pool is busy
+	 */
+	public static boolean isDatabaseAvailable(int timeoutSeconds) {
+		if (pool.getActiveConnections() >= pool.getMaxConnections()) {
+			return true;
+		}
+		try (Connection connection = pool.getConnection()) {
+			return connection.isValid(timeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the databases holding the message table
+	 */
+	public static MessageShards getMessageShards() {
+		return messageShards;
+	}
+
+	/**
+	 * @return the routing data source, or null when no replicas are configured
+	 */
+	public static RoutingDataSource getRouting() {
+		return routing;
+	}
+
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
 	 * tables to keep it consistent across all tests. The method will read the sql
 	 * file in resources. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
+		try (Connection connection = getConnection();
+				FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(connection, sqlReader);
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+		}
 		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+			messageShards.initShards(true);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		if (routing != null) {
+			routing.resyncAll();
+		}
+	}
+
+	/**
+	 * Create the tables and indexes that are missing when the application
+	 * starts, without touching existing data. Unlike resetTestDatabase(), the
+	 * schema script is read from the classpath so it also works from a jar.
+	 */
+	public static void initDatabase() {
+		try (Connection connection = getConnection();
+				Reader sqlReader = new InputStreamReader(
+						ConnectionUtil.class.getResourceAsStream("/SocialMediaSchema.sql"), StandardCharsets.UTF_8)) {
+			RunScript.execute(connection, sqlReader);
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			messageShards.initShards(false);
+		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 	}
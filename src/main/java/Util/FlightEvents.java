@@ -0,0 +1,185 @@
+package Util;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The FlightEvents class holds the custom JDK Flight Recorder events of the
+ * application, shown under "Social Media" in JDK Mission Control. Each one
+ * is timed on the thread that handles the request, so a slow request can be
+ * lined up with its statements, connection waits and GC pauses.
+ *
+ * When no recording is running, isEnabled() and shouldCommit() are constant
+ * false once JIT compiled and the unused event object is never allocated,
+ * so the instrumentation costs nothing. Stack traces are left out to keep
+ * committing cheap while recording.
+ *
+ * The statement event also carries the Tracer span of the statement, so the
+ * DAOs time both with one call. It is timed on every statement, so when
+ * neither is on, outside a recording and a sampled request, statement()
+ * hands out one shared event that records nothing instead of a new one.
+ */
+public class FlightEvents {
+
+    @Name("socialmedia.Request")
+    @Label("HTTP Request")
+    @Category("Social Media")
+    @StackTrace(false)
+    public static class Request extends Event {
+        @Label("Method")
+        public String method;
+
+        @Label("Route")
+        @Description("The matched route, such as /messages/{message_id}")
+        public String route;
+
+        @Label("Status")
+        public int status;
+    }
+
+    @Name("socialmedia.Statement")
+    @Label("DAO Statement")
+    @Category("Social Media")
+    @StackTrace(false)
+    public static class Statement extends Event {
+        @Label("Statement")
+        @Description("The DAO method running the SQL, such as MessageDAO.getMessageById")
+        public String id;
+
+        @Label("Rows")
+        @Description("Rows read or written")
+        public int rows;
+
+        @Label("Error")
+        @Description("The message of the SQLException, if the statement failed")
+        public String error;
+
+        // transient fields are not recorded
+        transient Tracer.Span span;
+
+        /**
+         * Record the rows read or written and commit the event if it is
+         * being recorded.
+         *
+         * @param rows the number of rows.
+         */
+        public void finish(int rows) {
+            if (this == UNRECORDED) {
+                return;
+            }
+            span.set("db.rows", rows).end();
+            if (shouldCommit()) {
+                this.rows = rows;
+                commit();
+            }
+        }
+
+        /**
+         * Record a failure and commit the event if it is being recorded.
+         *
+         * @param error what went wrong.
+         */
+        public void fail(Exception error) {
+            if (this == UNRECORDED) {
+                return;
+            }
+            span.set("error", error.getMessage()).end();
+            if (shouldCommit()) {
+                this.rows = -1;
+                this.error = error.getMessage();
+                commit();
+            }
+        }
+    }
+
+    @Name("socialmedia.ConnectionAcquire")
+    @Label("Connection Acquire")
+    @Category("Social Media")
+    @StackTrace(false)
+    public static class ConnectionAcquire extends Event {
+        @Label("Pool")
+        @Description("primary, read or shard")
+        public String pool;
+
+        @Label("Shard")
+        @Description("The index of the message shard, -1 for the main database")
+        public int shard;
+
+        @Label("Active Connections")
+        @Description("Connections of the pool in use after this one was taken, -1 if unknown")
+        public int active;
+
+        /**
+         * Record which pool the connection came from and commit the event if
+         * it is being recorded.
+         *
+         * @param pool   the name of the pool.
+         * @param shard  the message shard, -1 for the main database.
+         * @param source the pool.
+         */
+        public void finish(String pool, int shard, DataSource source) {
+            if (shouldCommit()) {
+                this.pool = pool;
+                this.shard = shard;
+                this.active = source instanceof JdbcConnectionPool
+                        ? ((JdbcConnectionPool) source).getActiveConnections()
+                        : -1;
+                commit();
+            }
+        }
+    }
+
+    @Name("socialmedia.Cache")
+    @Label("Cache Lookup")
+    @Category("Social Media")
+    @StackTrace(false)
+    public static class Cache extends Event {
+        @Label("Key")
+        public String key;
+
+        @Label("Hit")
+        public boolean hit;
+    }
+
+    private static final EventType STATEMENT = EventType.getEventType(Statement.class);
+    private static final Statement UNRECORDED = new Statement();
+
+    /**
+     * Begin timing a connection acquisition.
+     *
+     * @return the event, to be completed with finish().
+     */
+    public static ConnectionAcquire connectionAcquire() {
+        ConnectionAcquire event = new ConnectionAcquire();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begin timing a DAO statement, in the flight recorder and as a span of
+     * the current trace.
+     *
+     * @param id the DAO method running it.
+     * @return the event, to be completed with finish() or fail().
+     */
+    public static Statement statement(String id) {
+        Tracer.Span span = Tracer.shared().startSpan(id);
+        if (!span.isSampled() && !STATEMENT.isEnabled()) {
+            return UNRECORDED;
+        }
+        Statement event = new Statement();
+        event.id = id;
+        event.span = span;
+        event.begin();
+        return event;
+    }
+}
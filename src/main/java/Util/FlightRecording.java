@@ -0,0 +1,97 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * The FlightRecording class starts, stops and dumps one JDK Flight Recorder
+ * recording on demand, for the admin endpoints. The recording is kept in
+ * memory and disk buffers by the JVM, trimmed to a maximum age, until it is
+ * dumped to a file.
+ *
+ * The settings name a configuration shipped with the JDK: "default" keeps
+ * the overhead around one percent, "profile" adds method sampling and
+ * allocation events. The events of FlightEvents are recorded with either.
+ */
+public class FlightRecording {
+    private Recording recording;
+
+    /**
+     * Start a new recording, replacing a stopped one.
+     *
+     * @param settings the JDK configuration, "default" or "profile".
+     * @param maxAge   how much history to keep.
+     * @return false if a recording is already running.
+     * @throws IllegalArgumentException if the configuration does not exist.
+     */
+    public synchronized boolean start(String settings, Duration maxAge) throws IOException {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            return false;
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings);
+        } catch (ParseException | IOException e) {
+            throw new IllegalArgumentException("no JFR configuration named " + settings, e);
+        }
+        close();
+        recording = new Recording(configuration);
+        recording.setName("socialmedia");
+        recording.setMaxAge(maxAge);
+        recording.setToDisk(true);
+        recording.start();
+        return true;
+    }
+
+    /**
+     * Stop the running recording. Its data can still be dumped until the
+     * next start.
+     *
+     * @return false if no recording was running.
+     */
+    public synchronized boolean stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            return false;
+        }
+        recording.stop();
+        return true;
+    }
+
+    /**
+     * Write the data recorded so far to a new temporary file. A running
+     * recording keeps running.
+     *
+     * @return the .jfr file, to be deleted by the caller, or null if nothing
+     *         was recorded.
+     */
+    public synchronized Path dump() throws IOException {
+        if (recording == null) {
+            return null;
+        }
+        Path file = Files.createTempFile("socialmedia-", ".jfr");
+        recording.dump(file);
+        return file;
+    }
+
+    /**
+     * @return the state of the recording: NEW when there is none, RUNNING or
+     *         STOPPED.
+     */
+    public synchronized String getState() {
+        return recording == null ? RecordingState.NEW.name() : recording.getState().name();
+    }
+
+    private void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+}
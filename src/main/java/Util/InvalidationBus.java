@@ -0,0 +1,49 @@
+package Util;
+
+import java.util.Set;
+
+/**
+ * The InvalidationBus interface carries the keys of changed data between the
+ * instances of the service, so an instance drops what it cached or is
+ * reading for a key another instance just wrote. Keys are the namespaced
+ * keys of the service layer, such as "message:1" or "messages".
+ *
+ * Publishing is cheap and does not wait: implementations batch the keys
+ * published within a few milliseconds and send each key once per batch.
+ * Listeners only see the keys published by other instances, and ALL when
+ * an instance may have missed some and must drop everything.
+ */
+public interface InvalidationBus extends AutoCloseable {
+    /**
+     * The key invalidating every key.
+     */
+    String ALL = "*";
+
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * @param keys the keys another instance changed, each once.
+         */
+        void invalidated(Set<String> keys);
+    }
+
+    /**
+     * Tell the other instances a key changed.
+     *
+     * @param key the key, or ALL.
+     */
+    void publish(String key);
+
+    /**
+     * Receive the keys the other instances publish.
+     *
+     * @param listener called on the thread of the bus, it must not block.
+     */
+    void subscribe(Listener listener);
+
+    /**
+     * Send what is still batched and stop.
+     */
+    @Override
+    void close();
+}
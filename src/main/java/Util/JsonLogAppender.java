@@ -0,0 +1,299 @@
+package Util;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * The JsonLogAppender class writes log events as JSON lines, one object per
+ * event with its time, level, logger, thread and message, every MDC entry
+ * such as the requestId and route of the request, and the stack trace of an
+ * exception if one was logged.
+ *
+ * Logging threads never block and never write: an event is put in a
+ * preallocated ring buffer with one compare-and-set, and a single daemon
+ * thread formats and writes the events in batches. When the ring buffer is
+ * full the event is dropped and counted, so an error storm costs requests
+ * their log lines rather than their latency. The writer reports dropped
+ * events with a line of its own once it catches up.
+ *
+ * The ring buffer is the bounded multi-producer queue of Dmitry Vyukov: every
+ * slot has a sequence number telling producers whether it is free for their
+ * ticket and the writer whether it has been filled.
+ *
+ * The buffer size and the file come from socialmedia.logging.buffer and
+ * socialmedia.logging.file unless logback.xml sets them, without a file the
+ * lines go to System.out. Tests log through logback-test.xml instead.
+ */
+public class JsonLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private int capacity;
+    private String file;
+    private OutputStream output;
+
+    private ILoggingEvent[] events;
+    private AtomicLongArray sequences;
+    private int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private volatile boolean sleeping;
+    private volatile boolean stopping;
+    private Thread writer;
+
+    /**
+     * @param capacity the number of events the ring buffer holds, rounded up
+     *                 to a power of two.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param file the file the lines are appended to.
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * Write the lines to a stream instead of a file or standard output, such
+     * as in tests.
+     *
+     * @param output the stream, closed when the appender stops.
+     */
+    public void setOutputStream(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * @return the JsonLogAppender attached to the root logger, or null if
+     *         logging is not configured with one.
+     */
+    public static JsonLogAppender find() {
+        ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+        if (factory instanceof LoggerContext) {
+            Logger root = ((LoggerContext) factory).getLogger(Logger.ROOT_LOGGER_NAME);
+            for (Iterator<Appender<ILoggingEvent>> it = root.iteratorForAppenders(); it.hasNext();) {
+                Appender<ILoggingEvent> appender = it.next();
+                if (appender instanceof JsonLogAppender) {
+                    return (JsonLogAppender) appender;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        AppConfig config = AppConfig.shared();
+        if (capacity <= 0) {
+            capacity = config.get(AppConfig.LOGGING_BUFFER);
+        }
+        if (file == null) {
+            file = config.get(AppConfig.LOGGING_FILE);
+        }
+        OutputStream out = output;
+        boolean standardOutput = false;
+        try {
+            if (out == null && file != null && !file.isEmpty()) {
+                out = new FileOutputStream(file, true);
+            } else if (out == null) {
+                // System.out rather than its file descriptor, which a test
+                // runner may have replaced with a stream of its own
+                out = System.out;
+                standardOutput = true;
+            }
+        } catch (IOException e) {
+            addError("cannot open " + file, e);
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        events = new ILoggingEvent[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        stopping = false;
+        OutputStream stream = out;
+        boolean close = !standardOutput;
+        writer = new Thread(() -> write(stream, close), "json-log-writer");
+        writer.setDaemon(true);
+        super.start();
+        writer.start();
+    }
+
+    /**
+     * Stop the writer once it has written every event already in the ring
+     * buffer.
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // format the message and copy the MDC while still on the logging thread
+        event.prepareForDeferredProcessing();
+        long ticket = tail.get();
+        while (true) {
+            int index = (int) ticket & mask;
+            long sequence = sequences.get(index);
+            if (sequence == ticket) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    events[index] = event;
+                    sequences.set(index, ticket + 1);
+                    if (sleeping) {
+                        LockSupport.unpark(writer);
+                    }
+                    return;
+                }
+                ticket = tail.get();
+            } else if (sequence < ticket) {
+                // the writer has not freed this slot yet, the buffer is full
+                dropped.increment();
+                return;
+            } else {
+                ticket = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the events dropped because the ring buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the events written.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return the events waiting in the ring buffer.
+     */
+    public int getQueued() {
+        return events == null ? 0 : (int) Math.max(0, tail.get() - written.sum());
+    }
+
+    public int getCapacity() {
+        return events == null ? 0 : events.length;
+    }
+
+    private void write(OutputStream stream, boolean close) {
+        long head = 0;
+        long reported = 0;
+        try (JsonGenerator json = JSON.createGenerator(new BufferedOutputStream(stream, 1 << 16),
+                JsonEncoding.UTF8)) {
+            json.setRootValueSeparator(null);
+            json.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, close);
+            while (true) {
+                int index = (int) head & mask;
+                if (sequences.get(index) == head + 1) {
+                    ILoggingEvent event = events[index];
+                    events[index] = null;
+                    sequences.set(index, head + events.length);
+                    head++;
+                    writeEvent(json, event);
+                    written.increment();
+                    continue;
+                }
+                long lost = dropped.sum();
+                if (lost != reported) {
+                    writeDropped(json, lost - reported);
+                    reported = lost;
+                }
+                json.flush();
+                if (stopping) {
+                    // events published while the flush blocked are still written
+                    if (sequences.get(index) == head + 1) {
+                        continue;
+                    }
+                    return;
+                }
+                // park until a producer sees the flag, unless one published
+                // after the check above
+                sleeping = true;
+                if (sequences.get(index) != head + 1 && !stopping) {
+                    LockSupport.parkNanos(100_000_000L);
+                }
+                sleeping = false;
+            }
+        } catch (IOException e) {
+            addError("log writer stopped", e);
+        }
+    }
+
+    private static void writeEvent(JsonGenerator json, ILoggingEvent event) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("time", Instant.ofEpochMilli(event.getTimeStamp()).toString());
+        json.writeStringField("level", event.getLevel().toString());
+        json.writeStringField("logger", event.getLoggerName());
+        json.writeStringField("thread", event.getThreadName());
+        json.writeStringField("message", event.getFormattedMessage());
+        for (Map.Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
+            json.writeStringField(entry.getKey(), entry.getValue());
+        }
+        IThrowableProxy error = event.getThrowableProxy();
+        if (error != null) {
+            json.writeStringField("error", ThrowableProxyUtil.asString(error));
+        }
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private static void writeDropped(JsonGenerator json, long count) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("time", Instant.now().toString());
+        json.writeStringField("level", "WARN");
+        json.writeStringField("logger", JsonLogAppender.class.getName());
+        json.writeStringField("thread", Thread.currentThread().getName());
+        json.writeStringField("message", "dropped " + count + " log events, the ring buffer was full");
+        json.writeNumberField("dropped", count);
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+}
@@ -0,0 +1,46 @@
+package Util;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The LocalInvalidationBus class connects instances running in one JVM, such
+ * as several controllers in a test. Every bus attached to a hub delivers its
+ * batches to every other bus of the hub.
+ */
+public class LocalInvalidationBus extends BatchingInvalidationBus {
+    /**
+     * The buses that see each other's batches.
+     */
+    public static class Hub {
+        private final List<LocalInvalidationBus> buses = new CopyOnWriteArrayList<>();
+    }
+
+    private final Hub hub;
+
+    /**
+     * @param hub         the hub to attach to.
+     * @param batchMillis how long keys are collected before they are sent.
+     */
+    public LocalInvalidationBus(Hub hub, long batchMillis) {
+        super("local-invalidation-bus", batchMillis);
+        this.hub = hub;
+        hub.buses.add(this);
+    }
+
+    @Override
+    protected void send(Set<String> keys) {
+        for (LocalInvalidationBus bus : hub.buses) {
+            if (bus != this) {
+                bus.deliver(keys);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        hub.buses.remove(this);
+    }
+}
@@ -0,0 +1,202 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * The MessageShards class partitions the message table over several H2
+ * databases by a hash of posted_by, so all messages of an account live in
+ * one shard and per-account queries touch exactly one database.
+ *
+ * Message ids stay globally unique without coordination: the identity column
+ * of shard s out of n starts at s + 1 and steps by n, so shard 0 hands out
+ * 1, 1 + n, 1 + 2n, ... and the shard of any message id is (id - 1) mod n.
+ * Lookups, updates and deletes by id therefore also go to a single shard.
+ *
+ * With a SnowflakeIdGenerator, ids are generated in the application instead,
+ * one generator lane per shard, and the shard of an id is its lane. The id
+ * scheme of a sharded deployment can not be switched once it holds messages.
+ *
+ * Without configured shards there is a single shard, the message table of
+ * the main database reached through ConnectionUtil, including its read
+ * replicas.
+ */
+public class MessageShards {
+    private final List<DataSource> shards;
+    private final SnowflakeIdGenerator ids;
+    private final ConnectionSource[] writers;
+
+    /**
+     * @param shards the shard databases, an empty list keeps messages in the
+     *               main database.
+     */
+    public MessageShards(List<DataSource> shards) {
+        this(shards, null);
+    }
+
+    /**
+     * @param shards the shard databases, an empty list keeps messages in the
+     *               main database.
+     * @param ids    generates message ids, with one lane per shard, or null to
+     *               let the databases generate them.
+     */
+    public MessageShards(List<DataSource> shards, SnowflakeIdGenerator ids) {
+        this.shards = new ArrayList<>(shards);
+        this.ids = ids;
+        this.writers = new ConnectionSource[count()];
+        for (int shard = 0; shard < writers.length; shard++) {
+            int index = shard;
+            writers[shard] = shards.isEmpty() ? ConnectionUtil.primary() : () -> acquire(index);
+        }
+        if (ids != null && ids.getLanes() != count()) {
+            throw new IllegalArgumentException("the id generator needs one lane per shard");
+        }
+    }
+
+    /**
+     * @return the number of shards, at least 1.
+     */
+    public int count() {
+        return Math.max(1, shards.size());
+    }
+
+    /**
+     * @param postedBy an account id.
+     * @return the shard holding the messages of the account.
+     */
+    public int forAccount(int postedBy) {
+        // spread consecutive account ids, a plain modulo would put them in round robin order
+        int hash = postedBy * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, count());
+    }
+
+    /**
+     * @param messageId a message id.
+     * @return the shard holding the message.
+     */
+    public int forMessage(long messageId) {
+        if (ids != null) {
+            return SnowflakeIdGenerator.laneOf(messageId, count());
+        }
+        return (int) Math.floorMod(messageId - 1, (long) count());
+    }
+
+    /**
+     * @return true if message ids are generated by nextId(), false if the
+     *         databases generate them on insert.
+     */
+    public boolean assignsIds() {
+        return ids != null;
+    }
+
+    /**
+     * @param shard the shard the message goes to.
+     * @return a new message id belonging to the shard.
+     */
+    public long nextId(int shard) {
+        return ids.nextId(shard);
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return a connection for reading from the shard, to be closed by the
+     *         caller.
+     */
+    public Connection getReadConnection(int shard) throws SQLException {
+        if (shards.isEmpty()) {
+            return ConnectionUtil.reader().getConnection();
+        }
+        return acquire(shard);
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return a connection for writing to the shard, to be closed by the
+     *         caller.
+     */
+    public Connection getWriteConnection(int shard) throws SQLException {
+        return writers[shard].getConnection();
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return the source of write connections to the shard, the primary of
+     *         the main database when there are no shard databases, so units
+     *         of work on messages and accounts can share a connection then.
+     */
+    public ConnectionSource writer(int shard) {
+        return writers[shard];
+    }
+
+    /**
+     * @return true if messages live in the main database, where the foreign
+     *         key on posted_by guarantees the account exists.
+     */
+    public boolean inMainDatabase() {
+        return shards.isEmpty();
+    }
+
+    private Connection acquire(int shard) throws SQLException {
+        FlightEvents.ConnectionAcquire event = FlightEvents.connectionAcquire();
+        DataSource source = shards.get(shard);
+        Connection connection = source.getConnection();
+        event.finish("shard", shard, source);
+        return connection;
+    }
+
+    /**
+     * Tell the read replicas of the main database that a message changed.
+     * Shard databases have no replicas.
+     *
+     * @param messageId the changed message.
+     */
+    public void written(long messageId) {
+        if (shards.isEmpty()) {
+            ConnectionUtil.replicate("message", "message_id", messageId);
+        }
+    }
+
+    /**
+     * Create the message table in every shard database if it is missing.
+     *
+     * @param drop whether to drop existing tables first, for tests.
+     */
+    public void initShards(boolean drop) throws SQLException {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            try (Connection connection = shards.get(shard).getConnection()) {
+                Statement statement = connection.createStatement();
+                if (drop) {
+                    statement.executeUpdate("drop table if exists message");
+                }
+                // no foreign key to account, accounts live in the main database
+                statement.executeUpdate("create table if not exists message ("
+                        + "message_id bigint generated by default as identity (start with " + (shard + 1)
+                        + " increment by " + shards.size() + ") primary key, "
+                        + "posted_by int, message_text varchar(255), time_posted_epoch bigint, "
+                        + "version bigint default 0 not null, deleted boolean default false not null)");
+                statement.executeUpdate("alter table message add column if not exists version bigint default 0 not null");
+                statement.executeUpdate(
+                        "alter table message add column if not exists deleted boolean default false not null");
+                statement.executeUpdate("create index if not exists message_posted_by_idx on message(posted_by)");
+                statement.executeUpdate(
+                        "create index if not exists message_time_posted_epoch_idx on message(time_posted_epoch)");
+                statement.executeUpdate("create index if not exists message_deleted_idx on message(deleted)");
+            }
+        }
+    }
+
+    /**
+     * @return the shard databases, empty when messages live in the main
+     *         database.
+     */
+    public List<DataSource> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+}
@@ -0,0 +1,152 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The RateLimiter class keeps one token bucket per key, such as a remote IP
+ * or an account id. Buckets are implemented with the generic cell rate
+ * algorithm: each one is a single AtomicLong holding the time at which it
+ * will be full again, updated with compare-and-set, so acquiring never takes
+ * a lock.
+ *
+ * A bucket whose refill time has passed is identical to a new one, so it can
+ * be evicted without losing anything. Idle buckets are swept whenever the
+ * map grows past maxBuckets; if every bucket is still busy, new keys share
+ * a single overflow bucket per limit instead of growing the map further.
+ */
+public class RateLimiter {
+    /**
+     * The rate and burst allowed for one kind of request.
+     */
+    public static class Limit {
+        private final String name;
+        private final long intervalNanos;
+        private final long burstNanos;
+        // full since the beginning of time, whatever the clock of the limiter
+        private final AtomicLong overflow = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * @param name          identifies the limit in bucket keys.
+         * @param ratePerSecond the sustained number of requests per second.
+         * @param burst         the number of requests allowed at once.
+         */
+        public Limit(String name, double ratePerSecond, int burst) {
+            if (!(ratePerSecond > 0) || burst < 1) {
+                throw new IllegalArgumentException("rate must be positive and burst at least 1: " + ratePerSecond
+                        + "/" + burst);
+            }
+            this.name = name;
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            this.burstNanos = intervalNanos * burst;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxBuckets;
+    private final LongSupplier clock;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * @param maxBuckets the number of buckets kept before idle ones are evicted.
+     */
+    public RateLimiter(int maxBuckets) {
+        this(maxBuckets, System::nanoTime);
+    }
+
+    /**
+     * @param maxBuckets the number of buckets kept before idle ones are evicted.
+     * @param clock      the time in nanoseconds, System::nanoTime outside of
+     *                   tests.
+     */
+    public RateLimiter(int maxBuckets, LongSupplier clock) {
+        this.maxBuckets = maxBuckets;
+        this.clock = clock;
+    }
+
+    /**
+     * Take one token from the bucket of a key.
+     *
+     * @param limit the limit that applies.
+     * @param key   the client the request is counted against.
+     * @return 0 if the request is allowed, otherwise the number of nanoseconds
+     *         until it would be.
+     */
+    public long tryAcquire(Limit limit, String key) {
+        long now = clock.getAsLong();
+        AtomicLong bucket = bucket(limit, key, now);
+        while (true) {
+            long full = bucket.get();
+            long start = Math.max(full, now);
+            long next = start + limit.intervalNanos;
+            long wait = next - now - limit.burstNanos;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong bucket(Limit limit, String key, long now) {
+        String bucketKey = limit.name + '|' + key;
+        AtomicLong bucket = buckets.get(bucketKey);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxBuckets) {
+            // one thread sweeps, the others fall back to the overflow bucket meanwhile
+            if (sweeping.compareAndSet(false, true)) {
+                try {
+                    evictIdle(now);
+                } finally {
+                    sweeping.set(false);
+                }
+            }
+            if (buckets.size() >= maxBuckets) {
+                return limit.overflow;
+            }
+        }
+        return buckets.computeIfAbsent(bucketKey, k -> new AtomicLong(now));
+    }
+
+    /**
+     * Remove the buckets that are full again, they hold no state.
+     *
+     * @param now the current time of the clock.
+     */
+    public void evictIdle(long now) {
+        Iterator<AtomicLong> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() - now <= 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getLimited() {
+        return limited.sum();
+    }
+}
@@ -0,0 +1,146 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ResponseCache class keeps the encoded bodies of hot list pages, such as
+ * GET /messages, so they are not re-read and re-encoded on every request.
+ * Each entry also keeps its compressed body once it has been asked for, so a
+ * cached page is compressed once instead of once per request.
+ *
+ * Entries are evicted least-recently-used once maxEntries is reached. Writes
+ * to messages call invalidateAll(), which bumps a generation counter so a
+ * page read before the write can not be stored after it.
+ */
+public class ResponseCache {
+    /**
+     * An encoded response body along with its lazily built compressed form.
+     */
+    public static class Entry {
+        private final String contentType;
+        private final byte[] body;
+        private volatile byte[] gzipBody;
+        private volatile byte[] deflateBody;
+
+        public Entry(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Get the body compressed with the requested coding. The result is
+         * kept, so only the first request for a coding pays for it.
+         *
+         * @param encoding the coding to produce.
+         * @param level    the deflate level to use on a miss.
+         * @return the compressed body.
+         */
+        public byte[] getCompressedBody(ResponseCompression.Encoding encoding, int level) {
+            byte[] compressed = encoding == ResponseCompression.Encoding.GZIP ? gzipBody : deflateBody;
+            if (compressed == null) {
+                // concurrent misses may both compress, the bodies are identical
+                compressed = ResponseCompression.compress(body, encoding, level);
+                if (encoding == ResponseCompression.Encoding.GZIP) {
+                    gzipBody = compressed;
+                } else {
+                    deflateBody = compressed;
+                }
+            }
+            return compressed;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries the number of pages kept before the least recently used is evicted.
+     */
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the current generation, to be passed back to put().
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param key a cache key.
+     * @return the cached entry, or null on a miss.
+     */
+    public Entry get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Store an entry, unless the cache was invalidated since the generation
+     * was read.
+     *
+     * @param key        a cache key.
+     * @param generation the generation read before the data was loaded.
+     * @param entry      the encoded response.
+     */
+    public void put(String key, long generation, Entry entry) {
+        synchronized (entries) {
+            if (this.generation.get() == generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
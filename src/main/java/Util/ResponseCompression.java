@@ -0,0 +1,180 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The ResponseCompression class decides if and how a response body is
+ * compressed. Bodies smaller than the threshold are sent as they are, larger
+ * ones are compressed with the level configured for their route.
+ *
+ * Only gzip and deflate are offered: the JDK ships pure-Java encoders for
+ * both, while brotli would need a native library.
+ */
+public class ResponseCompression {
+    /**
+     * The content codings this class can produce, in order of preference.
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private final int minSize;
+    private final int defaultLevel;
+    private final Map<String, Integer> routeLevels = new HashMap<>();
+
+    /**
+     * @param minSize      bodies smaller than this many bytes are not compressed.
+     * @param defaultLevel the deflate level (1-9) of routes without their own level.
+     */
+    public ResponseCompression(int minSize, int defaultLevel) {
+        this.minSize = minSize;
+        this.defaultLevel = checkLevel(defaultLevel);
+    }
+
+    /**
+     * @param level a deflate level.
+     * @return the level.
+     * @throws IllegalArgumentException if the level is not between 1 and 9.
+     */
+    public static int checkLevel(int level) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("compression level must be between 1 and 9: " + level);
+        }
+        return level;
+    }
+
+    /**
+     * Set the compression level of a single route.
+     *
+     * @param route a route template such as /messages.
+     * @param level a deflate level, 1 being fastest and 9 smallest.
+     * @return this, for chaining.
+     */
+    public ResponseCompression routeLevel(String route, int level) {
+        routeLevels.put(route, checkLevel(level));
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param route a route template.
+     * @return the compression level used for the route.
+     */
+    public int levelFor(String route) {
+        return routeLevels.getOrDefault(route, defaultLevel);
+    }
+
+    /**
+     * @param size the size of a body in bytes.
+     * @return true if the body is large enough to be worth compressing.
+     */
+    public boolean shouldCompress(int size) {
+        return size >= minSize;
+    }
+
+    /**
+     * Pick the coding to use from an Accept-Encoding header: the one with
+     * the highest q, gzip on a tie. A coding that is not listed gets the q of
+     * "*", if there is one. Codings with q=0 are treated as refused.
+     *
+     * @param acceptEncoding an Accept-Encoding header, may be null.
+     * @return the coding to use, or null to send the body as is.
+     */
+    public static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String token = parts[0].trim().toLowerCase();
+            if (token.equals("gzip")) {
+                gzip = quality(parts);
+            } else if (token.equals("deflate")) {
+                deflate = quality(parts);
+            } else if (token.equals("*")) {
+                any = quality(parts);
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Compress a body.
+     *
+     * @param body     the uncompressed bytes.
+     * @param encoding the coding to produce.
+     * @param level    the deflate level.
+     * @return the compressed bytes.
+     */
+    public static byte[] compress(byte[] body, Encoding encoding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        Deflater deflater = new Deflater(level, encoding == Encoding.GZIP);
+        try {
+            DeflaterOutputStream stream;
+            if (encoding == Encoding.GZIP) {
+                stream = new GZIPOutputStream(out, 8192) {
+                    {
+                        def.end();
+                        def = deflater;
+                    }
+                };
+            } else {
+                stream = new DeflaterOutputStream(out, deflater, 8192);
+            }
+            stream.write(body);
+            stream.close();
+        } catch (IOException e) {
+            // writing to memory can not fail
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
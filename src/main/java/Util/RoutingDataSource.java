@@ -0,0 +1,433 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The RoutingDataSource class sends writes to a primary database and spreads
+ * reads over one or more read replicas.
+ *
+ * H2 has no replication of its own, so the application keeps the replicas in
+ * sync. After a write commits on the primary, the DAO calls replicate() with
+ * the table and key of the changed row. Each replica has one sync thread
+ * that copies the current primary version of that row, or deletes the row
+ * when it is gone. Copying the current version instead of replaying the
+ * statement makes the sync idempotent and insensitive to the order in which
+ * concurrent writers reach replicate().
+ *
+ * Every write gets a sequence number. Writes are remembered per session (an
+ * account or a client address, bound with setSession() for the duration of
+ * a request). A session only reads from replicas that have applied all of
+ * its writes and falls back to the primary otherwise, so clients always read
+ * their own writes.
+ *
+ * Reads whose result is shared between sessions, such as a cached page or a
+ * read other requests join, run in readLatest(). They only read from replicas
+ * that have applied every write committed so far, whoever made it, so a
+ * stale page never reaches a session that wrote since.
+ *
+ * A health check probes every replica periodically. A replica that fails the
+ * probe, a connection attempt or a sync is taken out of rotation. Once it
+ * answers again its tables are copied from the primary before it serves
+ * reads again. When no replica can serve a read, the primary does.
+ */
+public class RoutingDataSource implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RoutingDataSource.class);
+
+    /**
+     * The tables kept in sync, parents first.
+     */
+    private static final String[] TABLES = { "account", "message" };
+    private static final String[] KEYS = { "account_id", "message_id" };
+
+    private static final ThreadLocal<String> session = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> latest = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ScheduledExecutorService healthCheck;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ConcurrentHashMap<String, Long> sessionPositions = new ConcurrentHashMap<>();
+    private final int maxSessions;
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+
+    /**
+     * A read replica, its sync thread and the writes it has not applied yet.
+     */
+    public class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private final ExecutorService sync;
+        private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+        private volatile boolean healthy;
+        private volatile boolean resyncing;
+        private final LongAdder failures = new LongAdder();
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.sync = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-sync-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * @param position a write sequence number.
+         * @return true if the replica has applied every write up to position.
+         */
+        boolean caughtUp(long position) {
+            Long oldest = pending.ceiling(Long.MIN_VALUE);
+            return oldest == null || oldest > position;
+        }
+
+        private void fail(Exception e) {
+            failures.increment();
+            if (healthy) {
+                healthy = false;
+                log.warn("replica {} out of rotation: {}", name, e.getMessage());
+            }
+        }
+
+        private void syncRow(String table, String keyColumn, long key, long position) {
+            try {
+                if (healthy && !resyncing) {
+                    copyRow(table, keyColumn, key);
+                }
+            } catch (SQLException e) {
+                fail(e);
+            } finally {
+                pending.remove(position);
+            }
+        }
+
+        private void copyRow(String table, String keyColumn, long key) throws SQLException {
+            try (Connection source = primary.getConnection();
+                    Connection target = dataSource.getConnection()) {
+                PreparedStatement select = source.prepareStatement(
+                        "SELECT * FROM " + table + " WHERE " + keyColumn + " = ?");
+                select.setLong(1, key);
+                ResultSet rs = select.executeQuery();
+                if (rs.next()) {
+                    merge(target, table, keyColumn, rs);
+                } else {
+                    PreparedStatement delete = target.prepareStatement(
+                            "DELETE FROM " + table + " WHERE " + keyColumn + " = ?");
+                    delete.setLong(1, key);
+                    delete.executeUpdate();
+                }
+            }
+        }
+
+        /**
+         * Copy every table from the primary, then put the replica back in
+         * rotation. Runs on the sync thread, so writes queued meanwhile are
+         * applied after it.
+         */
+        private void resync() {
+            try (Connection source = primary.getConnection();
+                    Connection target = dataSource.getConnection()) {
+                try (Reader schema = new InputStreamReader(
+                        RoutingDataSource.class.getResourceAsStream("/SocialMediaSchema.sql"),
+                        StandardCharsets.UTF_8)) {
+                    RunScript.execute(target, schema);
+                }
+                target.setAutoCommit(false);
+                try {
+                    Statement statement = target.createStatement();
+                    for (int i = TABLES.length - 1; i >= 0; i--) {
+                        statement.executeUpdate("DELETE FROM " + TABLES[i]);
+                    }
+                    for (int i = 0; i < TABLES.length; i++) {
+                        ResultSet rs = source.createStatement().executeQuery("SELECT * FROM " + TABLES[i]);
+                        while (rs.next()) {
+                            merge(target, TABLES[i], KEYS[i], rs);
+                        }
+                    }
+                    target.commit();
+                } catch (SQLException e) {
+                    target.rollback();
+                    throw e;
+                } finally {
+                    target.setAutoCommit(true);
+                }
+                healthy = true;
+                log.info("replica {} in rotation", name);
+            } catch (SQLException | IOException e) {
+                failures.increment();
+            } finally {
+                resyncing = false;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public int getLag() {
+            return pending.size();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+    }
+
+    /**
+     * @param primary             receives every write and the reads no replica
+     *                            can serve.
+     * @param replicas            the read replicas.
+     * @param healthIntervalMillis how often replicas are probed.
+     * @param maxSessions         the number of session positions kept before
+     *                            the ones every replica has caught up with are
+     *                            dropped.
+     */
+    public RoutingDataSource(DataSource primary, List<DataSource> replicas, long healthIntervalMillis,
+            int maxSessions) {
+        this.primary = primary;
+        this.maxSessions = maxSessions;
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica("replica-" + (i + 1), replicas.get(i)));
+        }
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // replicas start out of rotation, the first check copies the primary to them
+        healthCheck.scheduleWithFixedDelay(this::checkHealth, 0, healthIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Bind the session of the current request, the reads and writes of the
+     * thread are attributed to it until clearSession().
+     *
+     * @param key identifies the client, such as "account:1".
+     */
+    public static void setSession(String key) {
+        session.set(key);
+    }
+
+    public static void clearSession() {
+        session.remove();
+    }
+
+    /**
+     * Run reads whose result is shared between sessions. Their connections
+     * come from replicas that have applied every write committed before, or
+     * from the primary.
+     *
+     * @param reads the reads.
+     * @return the result of the reads.
+     */
+    public static <T> T readLatest(Supplier<T> reads) {
+        if (latest.get() != null) {
+            return reads.get();
+        }
+        latest.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            latest.remove();
+        }
+    }
+
+    /**
+     * @return a connection to the primary, for writes.
+     * @throws SQLException if the primary is unavailable.
+     */
+    public Connection getWriteConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * @return a connection to a replica that has applied the writes of the
+     *         current session, or to the primary if none has.
+     * @throws SQLException if the primary is unavailable.
+     */
+    public Connection getReadConnection() throws SQLException {
+        String key = session.get();
+        Long position = key == null ? null : sessionPositions.get(key);
+        if (latest.get() != null && sequence.get() > 0) {
+            // reads shared with other sessions wait for everyone's writes
+            key = null;
+            position = sequence.get();
+        }
+        int size = replicas.size();
+        boolean allCaughtUp = true;
+        Connection connection = null;
+        for (int i = 0; i < size && connection == null; i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), size));
+            if (!replica.healthy) {
+                continue;
+            }
+            if (position != null && !replica.caughtUp(position)) {
+                allCaughtUp = false;
+                continue;
+            }
+            try {
+                connection = replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.fail(e);
+            }
+        }
+        if (key != null && position != null && allCaughtUp && caughtUpEverywhere(position, true)) {
+            sessionPositions.remove(key, position);
+        }
+        if (connection != null) {
+            replicaReads.increment();
+            return connection;
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * Queue a committed write for the replicas and remember it for the
+     * current session.
+     *
+     * @param table     the table written to.
+     * @param keyColumn the primary key column of the table.
+     * @param key       the key of the changed row.
+     */
+    public void replicate(String table, String keyColumn, long key) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        long position = sequence.incrementAndGet();
+        String current = session.get();
+        if (current != null) {
+            sessionPositions.merge(current, position, Math::max);
+            if (sessionPositions.size() > maxSessions) {
+                // a replica that is down may hold positions back for long, only healthy ones count here
+                sessionPositions.values().removeIf(p -> caughtUpEverywhere(p, false));
+            }
+        }
+        for (Replica replica : replicas) {
+            replica.pending.add(position);
+            replica.sync.execute(() -> replica.syncRow(table, keyColumn, key, position));
+        }
+    }
+
+    /**
+     * Copy the primary to every replica again, such as after the primary was
+     * reset.
+     */
+    public void resyncAll() {
+        for (Replica replica : replicas) {
+            replica.healthy = false;
+            replica.resyncing = true;
+            replica.sync.execute(replica::resync);
+        }
+    }
+
+    /**
+     * @param position           a write sequence number.
+     * @param includeUnhealthy   whether replicas out of rotation count, they
+     *                           may come back before their queue is drained.
+     * @return true if the replicas have applied every write up to position.
+     */
+    private boolean caughtUpEverywhere(long position, boolean includeUnhealthy) {
+        for (Replica replica : replicas) {
+            if ((includeUnhealthy || replica.healthy) && !replica.caughtUp(position)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            if (replica.resyncing) {
+                continue;
+            }
+            boolean alive;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                alive = connection.isValid(1);
+            } catch (SQLException e) {
+                alive = false;
+            }
+            if (!alive) {
+                replica.fail(new SQLException("health check failed"));
+            } else if (!replica.healthy) {
+                replica.resyncing = true;
+                replica.sync.execute(replica::resync);
+            }
+        }
+    }
+
+    private static void merge(Connection target, String table, String keyColumn, ResultSet row)
+            throws SQLException {
+        ResultSetMetaData meta = row.getMetaData();
+        int columns = meta.getColumnCount();
+        StringBuilder names = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 1; i <= columns; i++) {
+            names.append(i > 1 ? ", " : "").append(meta.getColumnName(i));
+            values.append(i > 1 ? ", ?" : "?");
+        }
+        PreparedStatement merge = target.prepareStatement("MERGE INTO " + table + " (" + names + ") KEY ("
+                + keyColumn + ") VALUES (" + values + ")");
+        for (int i = 1; i <= columns; i++) {
+            merge.setObject(i, row.getObject(i));
+        }
+        merge.executeUpdate();
+    }
+
+    /**
+     * @return the replicas, for monitoring.
+     */
+    public List<Replica> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    @Override
+    public void close() {
+        healthCheck.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.sync.shutdownNow();
+        }
+    }
+}
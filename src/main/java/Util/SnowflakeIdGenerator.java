@@ -0,0 +1,124 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SnowflakeIdGenerator class hands out time-ordered 64-bit ids without
+ * asking the database, laid out as
+ *
+ *   41 bits milliseconds since 2022-01-01 | 10 bits node | 12 bits sequence
+ *
+ * which lasts until 2091. The node tells apart processes writing to the same
+ * database, each one must be configured with its own. Ids of one node are
+ * strictly increasing, and ids of all nodes sort by creation time to the
+ * millisecond.
+ *
+ * The state of the generator, the timestamp and sequence of the last id, is
+ * one AtomicLong updated with compare-and-set, so generating never takes a
+ * lock. When the 4096 ids of a millisecond are used up, callers spin until
+ * the next millisecond. When the clock goes backwards, the generator carries
+ * on from the last timestamp instead, running ahead of the clock until it
+ * catches up.
+ *
+ * Ids exceed 2^53, the largest integer a double holds exactly, from 2^31 ms
+ * after the epoch, late January 2022, so JSON clients must not read them as
+ * doubles.
+ *
+ * The sequence space can be split into lanes: lane l only hands out
+ * sequences congruent to l modulo the number of lanes, so laneOf() recovers
+ * the lane of any id. MessageShards uses one lane per shard.
+ */
+public class SnowflakeIdGenerator {
+    /**
+     * 2022-01-01T00:00:00Z in milliseconds since 1970.
+     */
+    public static final long EPOCH = 1640995200000L;
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private final int lanes;
+    // per lane, the timestamp and sequence of the last id: timestamp << SEQUENCE_BITS | sequence
+    private final AtomicLong[] last;
+
+    /**
+     * @param node  the node id of this process, 0 to 1023.
+     * @param lanes the number of lanes, 1 to 4096.
+     */
+    public SnowflakeIdGenerator(int node, int lanes) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE + ": " + node);
+        }
+        if (lanes < 1 || lanes > SEQUENCE_MASK + 1) {
+            throw new IllegalArgumentException("lanes must be between 1 and " + (SEQUENCE_MASK + 1) + ": " + lanes);
+        }
+        this.node = node;
+        this.lanes = lanes;
+        this.last = new AtomicLong[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            last[lane] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @return a new id in lane 0.
+     */
+    public long nextId() {
+        return nextId(0);
+    }
+
+    /**
+     * @param lane the lane of the id.
+     * @return a new id, larger than every id this generator returned before
+     *         in the lane.
+     */
+    public long nextId(int lane) {
+        AtomicLong state = last[lane];
+        while (true) {
+            long previous = state.get();
+            long previousTime = previous >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - EPOCH;
+            long time = now;
+            long sequence = lane;
+            if (now <= previousTime) {
+                // same millisecond, or the clock went back: continue after the last id
+                time = previousTime;
+                sequence = (previous & SEQUENCE_MASK) + lanes;
+                if (sequence > SEQUENCE_MASK) {
+                    if (now == previousTime) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    time++;
+                    sequence = lane;
+                }
+            }
+            if (state.compareAndSet(previous, time << SEQUENCE_BITS | sequence)) {
+                return time << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | sequence;
+            }
+        }
+    }
+
+    /**
+     * @param id    an id from a generator with the given number of lanes.
+     * @param lanes the number of lanes.
+     * @return the lane of the id.
+     */
+    public static int laneOf(long id, int lanes) {
+        return (int) ((id & SEQUENCE_MASK) % lanes);
+    }
+
+    /**
+     * @param id an id.
+     * @return the time the id was generated, in milliseconds since 1970.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+}
@@ -0,0 +1,267 @@
+package Util;
+
+import Model.Account;
+import Model.Message;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The StreamingCodec class encodes and decodes Message and Account objects
+ * with Jackson's streaming JsonGenerator and JsonParser, skipping the
+ * reflection and bean introspection done by the databind ObjectMapper.
+ *
+ * The field names are written and matched by hand, so they must be kept in
+ * sync with the Model classes.
+ */
+public class StreamingCodec {
+    /**
+     * Output buffer reused by every encode on the same thread. It is reset
+     * before each use, so only the final byte array is allocated per call.
+     */
+    private static final ThreadLocal<ByteArrayBuilder> BUFFER = ThreadLocal.withInitial(
+            () -> new ByteArrayBuilder(512));
+
+    /**
+     * Field names pre-encoded once, so generators copy their bytes instead of
+     * encoding the names on every write.
+     */
+    private static final SerializableString MESSAGE_ID = new SerializedString("message_id");
+    private static final SerializableString POSTED_BY = new SerializedString("posted_by");
+    private static final SerializableString MESSAGE_TEXT = new SerializedString("message_text");
+    private static final SerializableString TIME_POSTED_EPOCH = new SerializedString("time_posted_epoch");
+    private static final SerializableString ACCOUNT_ID = new SerializedString("account_id");
+    private static final SerializableString USERNAME = new SerializedString("username");
+    private static final SerializableString PASSWORD = new SerializedString("password");
+
+    private final JsonFactory factory;
+
+    /**
+     * Constructor for a codec writing plain JSON.
+     */
+    public StreamingCodec() {
+        this(new JsonFactory());
+    }
+
+    /**
+     * Constructor for a codec writing the format of the provided factory.
+     *
+     * @param factory the Jackson factory used to create generators and parsers.
+     */
+    public StreamingCodec(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Determine if a value can be written by this codec.
+     *
+     * @param value any object.
+     * @return true for a Message, an Account or a List of Messages.
+     */
+    public boolean canWrite(Object value) {
+        if (value instanceof Message || value instanceof Account) {
+            return true;
+        }
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (!(item instanceof Message)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determine if a type can be read by this codec.
+     *
+     * @param type a class.
+     * @return true for Message and Account.
+     */
+    public boolean canRead(Class<?> type) {
+        return type == Message.class || type == Account.class;
+    }
+
+    /**
+     * Encode a Message, an Account or a List of Messages.
+     *
+     * @param value an object accepted by canWrite.
+     * @return the encoded bytes.
+     * @throws IOException if the value can not be written.
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] write(Object value) throws IOException {
+        ByteArrayBuilder buffer = BUFFER.get();
+        buffer.reset();
+        JsonGenerator generator = factory.createGenerator(buffer);
+        if (value instanceof Message) {
+            writeMessage(generator, (Message) value);
+        } else if (value instanceof Account) {
+            writeAccount(generator, (Account) value);
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (Message message : (List<Message>) value) {
+                writeMessage(generator, message);
+            }
+            generator.writeEndArray();
+        } else {
+            throw new IOException("Unsupported type " + value.getClass().getName());
+        }
+        generator.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decode a Message or an Account.
+     *
+     * @param content the encoded bytes.
+     * @param type    Message.class or Account.class.
+     * @return the decoded object.
+     * @throws IOException if the content is malformed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(byte[] content, Class<T> type) throws IOException {
+        JsonParser parser = factory.createParser(content);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected an object");
+            }
+            if (type == Message.class) {
+                return (T) readMessage(parser);
+            } else if (type == Account.class) {
+                return (T) readAccount(parser);
+            }
+            throw new IOException("Unsupported type " + type.getName());
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Decode a List of Messages.
+     *
+     * @param content the encoded bytes of an array of messages.
+     * @return the decoded messages.
+     * @throws IOException if the content is malformed.
+     */
+    public List<Message> readMessages(byte[] content) throws IOException {
+        JsonParser parser = factory.createParser(content);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array");
+            }
+            List<Message> messages = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                messages.add(readMessage(parser));
+            }
+            return messages;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(MESSAGE_ID);
+        generator.writeNumber(message.getMessage_id());
+        generator.writeFieldName(POSTED_BY);
+        generator.writeNumber(message.getPosted_by());
+        generator.writeFieldName(MESSAGE_TEXT);
+        generator.writeString(message.getMessage_text());
+        generator.writeFieldName(TIME_POSTED_EPOCH);
+        generator.writeNumber(message.getTime_posted_epoch());
+        generator.writeEndObject();
+    }
+
+    private void writeAccount(JsonGenerator generator, Account account) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ACCOUNT_ID);
+        generator.writeNumber(account.getAccount_id());
+        generator.writeFieldName(USERNAME);
+        generator.writeString(account.getUsername());
+        generator.writeFieldName(PASSWORD);
+        generator.writeString(account.getPassword());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Read the fields of a message, the parser being positioned on its
+     * START_OBJECT. Unknown fields are skipped, known ones must be scalars.
+     */
+    private Message readMessage(JsonParser parser) throws IOException {
+        Message message = new Message();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "message_id":
+                    // getValueAsLong also accepts ids sent as strings
+                    message.setMessage_id(parser.getValueAsLong());
+                    break;
+                case "posted_by":
+                    message.setPosted_by(parser.getValueAsInt());
+                    break;
+                case "message_text":
+                    message.setMessage_text(parser.getValueAsString());
+                    break;
+                case "time_posted_epoch":
+                    message.setTime_posted_epoch(parser.getValueAsLong());
+                    break;
+                default:
+                    parser.skipChildren();
+                    continue;
+            }
+            requireScalar(parser, field);
+        }
+        return message;
+    }
+
+    /**
+     * Read the fields of an account, the parser being positioned on its
+     * START_OBJECT. Unknown fields are skipped, known ones must be scalars.
+     */
+    private Account readAccount(JsonParser parser) throws IOException {
+        Account account = new Account();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "account_id":
+                    account.setAccount_id(parser.getValueAsInt());
+                    break;
+                case "username":
+                    account.setUsername(parser.getValueAsString());
+                    break;
+                case "password":
+                    account.setPassword(parser.getValueAsString());
+                    break;
+                default:
+                    parser.skipChildren();
+                    continue;
+            }
+            requireScalar(parser, field);
+        }
+        return account;
+    }
+
+    /**
+     * Fail on an object or an array in a field holding a scalar. The
+     * getValueAs methods return a default for them without consuming them,
+     * so their fields would be read as fields of the enclosing object.
+     */
+    private static void requireScalar(JsonParser parser, String field) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            throw new IOException("Expected a scalar value for " + field);
+        }
+    }
+}
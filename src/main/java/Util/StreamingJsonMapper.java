@@ -0,0 +1,97 @@
+package Util;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The StreamingJsonMapper class plugs the StreamingCodec into Javalin, so
+ * context.json() and context.bodyAsClass() use it for Message and Account.
+ * Every other type falls back to the default Jackson databind mapper.
+ */
+public class StreamingJsonMapper implements JsonMapper {
+    private final StreamingCodec codec = new StreamingCodec();
+    private final JavalinJackson fallback = new JavalinJackson();
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        if (!codec.canWrite(obj)) {
+            return fallback.toJsonString(obj, type);
+        }
+        try {
+            return new String(codec.write(obj), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encode an object straight to UTF-8 bytes, skipping the String that
+     * toJsonString() builds.
+     *
+     * @param obj any object.
+     * @return the JSON bytes.
+     */
+    public byte[] toJsonBytes(Object obj) {
+        try {
+            if (codec.canWrite(obj)) {
+                return codec.write(obj);
+            }
+            return fallback.getMapper().writeValueAsBytes(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        if (!codec.canWrite(obj)) {
+            return fallback.toJsonStream(obj, type);
+        }
+        try {
+            return new ByteArrayInputStream(codec.write(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type type) {
+        if (!(type instanceof Class) || !codec.canRead((Class<?>) type)) {
+            return fallback.fromJsonString(json, type);
+        }
+        return read(json.getBytes(StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type type) {
+        if (!(type instanceof Class) || !codec.canRead((Class<?>) type)) {
+            return fallback.fromJsonStream(json, type);
+        }
+        try {
+            return read(json.readAllBytes(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(byte[] content, Type type) {
+        try {
+            return codec.read(content, (Class<T>) type);
+        } catch (IOException e) {
+            // a malformed body is the client's fault
+            throw new BadRequestResponse();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package Util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Tracer class records request spans, in the shape of distributed
+ * tracing but without a collector: a request gets a root span, and the
+ * controller, service and DAO calls it makes get child spans, all carrying
+ * the trace id of the request.
+ *
+ * The trace id and sampling decision come from the W3C traceparent header
+ * when the request has one, so the spans join the trace of the caller.
+ * Otherwise a new trace is started and sampled with the probability
+ * socialmedia.tracing.sample-rate. Unsampled requests get a shared no-op
+ * span, so tracing them costs a ThreadLocal lookup per span.
+ *
+ * The current span is kept in a ThreadLocal, so child spans find their
+ * parent without it being passed around. This follows a request as long as
+ * it stays on its Jetty thread.
+ *
+ * Finished spans go to a ring buffer of socialmedia.tracing.buffer spans,
+ * served by /diagnostics/traces, and, when socialmedia.tracing.file is set,
+ * are appended to that file as JSON lines by a background thread. A full
+ * file queue drops spans rather than slowing requests down.
+ */
+public class Tracer {
+    private static final Logger log = LoggerFactory.getLogger(Tracer.class);
+
+    public static final String TRACEPARENT = "traceparent";
+
+    private static volatile Tracer shared;
+
+    private final double sampleRate;
+    private final AtomicReferenceArray<Span> finished;
+    private final AtomicLong written = new AtomicLong();
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final BlockingQueue<Span> fileQueue;
+    private final Span noop = new Span(this);
+
+    /**
+     * A timed operation of a trace. Spans are closed by the thread that
+     * started them, in reverse order, which try-with-resources ensures.
+     */
+    public static class Span implements AutoCloseable {
+        private final Tracer tracer;
+        private final String traceId;
+        private final String spanId;
+        private final String parentSpanId;
+        private final Span previous;
+        private final long startEpochMicros;
+        private final long startNanos;
+        private String name;
+        private long durationNanos = -1;
+        private Map<String, Object> attributes;
+
+        private Span(Tracer tracer) {
+            this(tracer, null, null, null, null, null);
+        }
+
+        private Span(Tracer tracer, String name, String traceId, String parentSpanId, Span previous,
+                String spanId) {
+            this.tracer = tracer;
+            this.name = name;
+            this.traceId = traceId;
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.previous = previous;
+            this.startEpochMicros = traceId == null ? 0 : System.currentTimeMillis() * 1000;
+            this.startNanos = traceId == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * @return false for the no-op span of an unsampled request.
+         */
+        @JsonIgnore
+        public boolean isSampled() {
+            return traceId != null;
+        }
+
+        /**
+         * Rename the span, such as a root span whose route is only known
+         * once the request was matched.
+         *
+         * @param name the new name.
+         * @return this span.
+         */
+        public Span rename(String name) {
+            if (isSampled()) {
+                this.name = name;
+            }
+            return this;
+        }
+
+        /**
+         * @param key   the name of the attribute, such as http.status_code.
+         * @param value a string, number or boolean.
+         * @return this span.
+         */
+        public Span set(String key, Object value) {
+            if (isSampled()) {
+                if (attributes == null) {
+                    attributes = new LinkedHashMap<>();
+                }
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * End the span, make its parent current again and export it.
+         */
+        public void end() {
+            if (!isSampled() || durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            if (previous == null) {
+                tracer.current.remove();
+            } else {
+                tracer.current.set(previous);
+            }
+            tracer.export(this);
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+
+        /**
+         * @return the traceparent header naming this span, for the response
+         *         or an outgoing call.
+         */
+        public String traceparent() {
+            return "00-" + traceId + "-" + spanId + "-01";
+        }
+
+        public String getTraceId() {
+            return traceId;
+        }
+
+        public String getSpanId() {
+            return spanId;
+        }
+
+        public String getParentSpanId() {
+            return parentSpanId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStartEpochMicros() {
+            return startEpochMicros;
+        }
+
+        public long getDurationMicros() {
+            return durationNanos / 1000;
+        }
+
+        public Map<String, Object> getAttributes() {
+            return attributes == null ? Collections.emptyMap() : attributes;
+        }
+    }
+
+    /**
+     * @param sampleRate the share of new traces to sample, 0 to 1.
+     * @param bufferSize how many finished spans the ring buffer keeps.
+     * @param file       the file spans are appended to, or null.
+     */
+    public Tracer(double sampleRate, int bufferSize, Path file) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sample rate must be between 0 and 1: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.finished = new AtomicReferenceArray<>(bufferSize);
+        if (file == null) {
+            this.fileQueue = null;
+        } else {
+            this.fileQueue = new ArrayBlockingQueue<>(4096);
+            Thread writer = new Thread(() -> writeFile(file), "trace-file-exporter");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * @return the process-wide tracer, configured by the socialmedia.tracing
+     *         settings.
+     */
+    public static Tracer shared() {
+        if (shared == null) {
+            synchronized (Tracer.class) {
+                if (shared == null) {
+                    AppConfig config = AppConfig.shared();
+                    String file = config.get(AppConfig.TRACING_FILE);
+                    shared = new Tracer(config.get(AppConfig.TRACING_SAMPLE_RATE),
+                            config.get(AppConfig.TRACING_BUFFER), file == null ? null : Paths.get(file));
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Start the root span of a request and make it current.
+     *
+     * @param name        the name of the span.
+     * @param traceparent the traceparent header of the request, may be null.
+     * @return the span, a no-op span if the request is not sampled.
+     */
+    public Span startTrace(String name, String traceparent) {
+        String traceId = null;
+        String parentSpanId = null;
+        boolean sample;
+        if (isValidTraceparent(traceparent)) {
+            traceId = traceparent.substring(3, 35);
+            parentSpanId = traceparent.substring(36, 52);
+            sample = (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+        } else {
+            sample = sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+        if (!sample) {
+            current.remove();
+            return noop;
+        }
+        if (traceId == null) {
+            traceId = randomHex(2);
+        }
+        sampled.increment();
+        Span span = new Span(this, name, traceId, parentSpanId, null, randomHex(1));
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Start a child of the current span and make it current.
+     *
+     * @param name the name of the span, such as MessageDAO.insertMessage.
+     * @return the span, a no-op span if the request is not sampled.
+     */
+    public Span startSpan(String name) {
+        Span parent = current.get();
+        if (parent == null) {
+            return noop;
+        }
+        Span span = new Span(this, name, parent.traceId, parent.spanId, parent, randomHex(1));
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * @return the current span, a no-op span outside a sampled request.
+     */
+    public Span currentSpan() {
+        Span span = current.get();
+        return span == null ? noop : span;
+    }
+
+    /**
+     * @param traceId only return spans of this trace, or null for all.
+     * @param limit   the maximum number of spans.
+     * @return the finished spans in the ring buffer, newest first.
+     */
+    public List<Span> getSpans(String traceId, int limit) {
+        List<Span> spans = new ArrayList<>();
+        long last = written.get();
+        int size = finished.length();
+        for (long i = last - 1; i >= 0 && i >= last - size && spans.size() < limit; i--) {
+            Span span = finished.get((int) (i % size));
+            if (span != null && (traceId == null || traceId.equals(span.traceId))) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    /**
+     * @return the spans the file exporter could not keep up with.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void export(Span span) {
+        long slot = written.getAndIncrement();
+        finished.set((int) (slot % finished.length()), span);
+        if (fileQueue != null && !fileQueue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    private void writeFile(Path file) {
+        ObjectMapper mapper = new ObjectMapper();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (true) {
+                Span span = fileQueue.take();
+                writer.write(mapper.writeValueAsString(span));
+                writer.newLine();
+                if (fileQueue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            log.error("trace file exporter stopped: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param traceparent a header value, may be null.
+     * @return true for a version 00 traceparent with non-zero ids.
+     */
+    static boolean isValidTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+                || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return false;
+        }
+        for (int i = 3; i < 55; i++) {
+            char c = traceparent.charAt(i);
+            if (i != 35 && i != 52 && Character.digit(c, 16) < 0 || Character.isUpperCase(c)) {
+                return false;
+            }
+        }
+        return !traceparent.startsWith("00000000000000000000000000000000", 3)
+                && !traceparent.startsWith("0000000000000000", 36);
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder hex = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            long value;
+            do {
+                value = ThreadLocalRandom.current().nextLong();
+            } while (value == 0);
+            String digits = Long.toHexString(value);
+            for (int pad = digits.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(digits);
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,270 @@
+package Util;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The UdpInvalidationBus class sends every batch of keys as one UDP datagram
+ * to each configured peer, and delivers the datagrams the peers send to it.
+ * Peers are the other instances, listed as host:port in
+ * socialmedia.invalidation.peers, each listening on its
+ * socialmedia.invalidation.port.
+ *
+ * A datagram is a line with the random id of the sending instance and the
+ * sequence number of the batch, then one key per line. A datagram can be
+ * lost, so each instance also sends its last sequence number every
+ * heartbeat-ms while idle. A receiver that sees a sequence number skip
+ * delivers ALL instead of the keys it missed, so after a lost datagram a
+ * cache is stale for at most about one heartbeat. A batch too large for one
+ * datagram is sent as ALL.
+ *
+ * Datagrams are only accepted from the address and port of a peer, which is
+ * where a peer sends from since it sends on the socket it listens on.
+ * Anything else on the network could otherwise flush the caches with ALL.
+ * Peers are resolved once at startup, so a peer must be listed by an address
+ * it sends from, such as 127.0.0.1 rather than a name resolving to ::1.
+ */
+public class UdpInvalidationBus extends BatchingInvalidationBus {
+    private static final Logger log = LoggerFactory.getLogger(UdpInvalidationBus.class);
+    private static final int MAX_DATAGRAM = 1400;
+
+    private static volatile UdpInvalidationBus shared;
+    private static volatile boolean configured;
+
+    private final DatagramSocket socket;
+    private final List<InetSocketAddress> peers;
+    private final Set<SocketAddress> peerAddresses;
+    private final long heartbeatMillis;
+    private final long node = ThreadLocalRandom.current().nextLong();
+    private final Object sendLock = new Object();
+    private final LongAdder gaps = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Thread receiver;
+    private volatile boolean closed;
+
+    // guarded by sendLock
+    private long sequence;
+    private long lastSend;
+
+    // used by the receiver thread only
+    private final Map<Long, Long> lastSequences = new HashMap<>();
+
+    /**
+     * @param port            the port to receive on, 0 for any free one.
+     * @param peers           the instances to send to.
+     * @param batchMillis     how long keys are collected before they are
+     *                        sent.
+     * @param heartbeatMillis how often an idle instance sends its sequence
+     *                        number.
+     * @throws SocketException if the port cannot be bound.
+     */
+    public UdpInvalidationBus(int port, List<InetSocketAddress> peers, long batchMillis, long heartbeatMillis)
+            throws SocketException {
+        super("udp-invalidation-bus", batchMillis);
+        this.socket = new DatagramSocket(port);
+        this.peers = new ArrayList<>(peers);
+        this.peerAddresses = new HashSet<>(peers);
+        this.heartbeatMillis = heartbeatMillis;
+        socket.setSoTimeout((int) heartbeatMillis);
+        this.receiver = new Thread(this::receive, "udp-invalidation-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * @return the process-wide bus, configured by the
+     *         socialmedia.invalidation settings, or null if
+     *         socialmedia.invalidation.port is not set.
+     */
+    public static UdpInvalidationBus shared() {
+        if (!configured) {
+            synchronized (UdpInvalidationBus.class) {
+                if (!configured) {
+                    AppConfig config = AppConfig.shared();
+                    int port = config.get(AppConfig.INVALIDATION_PORT);
+                    if (port > 0) {
+                        try {
+                            shared = new UdpInvalidationBus(port, parsePeers(config.get(AppConfig.INVALIDATION_PEERS)),
+                                    config.get(AppConfig.INVALIDATION_BATCH_MS),
+                                    config.get(AppConfig.INVALIDATION_HEARTBEAT_MS));
+                        } catch (SocketException e) {
+                            throw new IllegalArgumentException("cannot listen for invalidations on port " + port, e);
+                        }
+                    }
+                    configured = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param peers a comma-separated list of host:port, or null.
+     * @return the addresses.
+     */
+    static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        if (peers == null) {
+            return addresses;
+        }
+        for (String peer : peers.split(",")) {
+            String trimmed = peer.trim();
+            int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("invalidation peer " + trimmed + " is not host:port");
+            }
+            addresses.add(new InetSocketAddress(trimmed.substring(0, colon),
+                    Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    /**
+     * @return the port invalidations are received on.
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return the times a lost datagram was detected.
+     */
+    public long getGaps() {
+        return gaps.sum();
+    }
+
+    /**
+     * @return the datagrams ignored because they did not come from a peer.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closed = true;
+        socket.close();
+    }
+
+    @Override
+    protected void send(Set<String> keys) throws IOException {
+        synchronized (sendLock) {
+            byte[] datagram = encode(sequence + 1, keys);
+            if (datagram.length > MAX_DATAGRAM) {
+                datagram = encode(sequence + 1, Collections.singleton(ALL));
+            }
+            sequence++;
+            transmit(datagram);
+        }
+    }
+
+    private void heartbeat() throws IOException {
+        synchronized (sendLock) {
+            if (System.currentTimeMillis() - lastSend >= heartbeatMillis) {
+                transmit(encode(sequence, Collections.emptySet()));
+            }
+        }
+    }
+
+    private void transmit(byte[] datagram) throws IOException {
+        for (InetSocketAddress peer : peers) {
+            socket.send(new DatagramPacket(datagram, datagram.length, peer));
+        }
+        lastSend = System.currentTimeMillis();
+    }
+
+    private byte[] encode(long sequence, Set<String> keys) {
+        StringBuilder datagram = new StringBuilder().append(node).append(' ').append(sequence);
+        for (String key : keys) {
+            datagram.append('\n').append(key);
+        }
+        return datagram.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM * 2];
+        while (!closed) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                    if (peerAddresses.contains(packet.getSocketAddress())) {
+                        handle(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                    } else {
+                        rejected.increment();
+                        log.debug("invalidation datagram from {} ignored, not a peer", packet.getSocketAddress());
+                    }
+                } catch (SocketTimeoutException e) {
+                    // idle, time for a heartbeat
+                }
+                heartbeat();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("invalidation datagram not received: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the keys of a datagram, or ALL if datagrams of its sender were
+     * lost. Duplicate and reordered datagrams are ignored. The sequence of a
+     * sender starts at 1, so the first datagram of a sender not heard from
+     * before is a gap too unless it is its first batch, or a heartbeat sent
+     * before any batch.
+     */
+    void handle(String datagram) {
+        String[] lines = datagram.split("\n");
+        String[] header = lines[0].split(" ");
+        long sender;
+        long received;
+        try {
+            sender = Long.parseLong(header[0]);
+            received = Long.parseLong(header[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            log.debug("malformed invalidation datagram ignored: {}", lines[0]);
+            return;
+        }
+        if (sender == node) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (int i = 1; i < lines.length; i++) {
+            keys.add(lines[i]);
+        }
+        Long last = lastSequences.get(sender);
+        if (last != null && received <= last) {
+            return;
+        }
+        lastSequences.put(sender, received);
+        long previous = last == null ? 0 : last;
+        // a heartbeat carries the sequence number of a batch already sent
+        boolean lost = keys.isEmpty() ? received > previous : received > previous + 1;
+        if (lost) {
+            gaps.increment();
+            deliver(Collections.singleton(ALL));
+        } else if (!keys.isEmpty()) {
+            deliver(keys);
+        }
+    }
+}
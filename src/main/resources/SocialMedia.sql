@@ -6,12 +6,17 @@ create table account (
     password varchar(255)
 );
 create table message (
-    message_id int primary key auto_increment,
+    message_id bigint primary key auto_increment,
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
+    version bigint default 0 not null,
+    deleted boolean default false not null,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_posted_by_idx on message(posted_by);
+create index message_time_posted_epoch_idx on message(time_posted_epoch);
+create index message_deleted_idx on message(deleted);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
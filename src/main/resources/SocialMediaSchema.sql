@@ -0,0 +1,23 @@
+create table if not exists account (
+    account_id int primary key auto_increment,
+    username varchar(255) unique,
+    password varchar(255)
+);
+create table if not exists message (
+    message_id bigint primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    version bigint default 0 not null,
+    deleted boolean default false not null,
+    foreign key (posted_by) references  account(account_id)
+);
+-- databases created before message ids were widened to bigint
+alter table message alter column message_id set data type bigint;
+-- databases created before messages were versioned
+alter table message add column if not exists version bigint default 0 not null;
+-- databases created before deletes left tombstones
+alter table message add column if not exists deleted boolean default false not null;
+create index if not exists message_posted_by_idx on message(posted_by);
+create index if not exists message_time_posted_epoch_idx on message(time_posted_epoch);
+create index if not exists message_deleted_idx on message(deleted);
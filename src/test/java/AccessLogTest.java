@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Util.AccessLog;
+
+public class AccessLogTest {
+    Path directory;
+    AccessLog accessLog;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("access-log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<JsonNode> lines(Path file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            lines.add(mapper.readTree(line));
+        }
+        return lines;
+    }
+
+    /**
+     * A recorded request is written as one JSON line once the log closes.
+     */
+    @Test
+    public void writesOneLinePerRequest() throws IOException {
+        accessLog = new AccessLog(directory.resolve("access.log"), 16, 60000, 1 << 20, 3600, 10);
+        Assert.assertTrue(accessLog.record(1669947792000L, "PATCH", "/messages/{message_id}", 200, 85, 1234,
+                "abc-123"));
+        Assert.assertTrue(accessLog.record(1669947792001L, "GET", null, 404, 9, 56, null));
+        accessLog.close();
+
+        List<JsonNode> lines = lines(directory.resolve("access.log"));
+        Assert.assertEquals(2, lines.size());
+        JsonNode first = lines.get(0);
+        Assert.assertEquals("2022-12-02T02:23:12Z", first.get("time").asText());
+        Assert.assertEquals("PATCH", first.get("method").asText());
+        Assert.assertEquals("/messages/{message_id}", first.get("route").asText());
+        Assert.assertEquals(200, first.get("status").asInt());
+        Assert.assertEquals(85, first.get("bytes").asLong());
+        Assert.assertEquals(1234, first.get("micros").asLong());
+        Assert.assertEquals("abc-123", first.get("requestId").asText());
+        Assert.assertTrue(lines.get(1).get("route").isNull());
+    }
+
+    /**
+     * Until the writer wakes up, requests beyond the capacity of the ring
+     * buffer are dropped and counted.
+     */
+    @Test
+    public void dropsWhenFull() throws IOException {
+        accessLog = new AccessLog(directory.resolve("access.log"), 4, 60000, 1 << 20, 3600, 10);
+        int recorded = 0;
+        for (int i = 0; i < 10; i++) {
+            if (accessLog.record(1669947792000L, "GET", "/messages", 200, 2, 10, null)) {
+                recorded++;
+            }
+        }
+        accessLog.close();
+        Assert.assertEquals(4, recorded);
+        Assert.assertEquals(6, accessLog.getDropped());
+        Assert.assertEquals(4, accessLog.getWritten());
+        Assert.assertEquals(4, Files.readAllLines(directory.resolve("access.log")).size());
+    }
+
+    /**
+     * The file is rotated once it reaches max-bytes, and only max-files
+     * rotated files are kept.
+     */
+    @Test
+    public void rotatesBySize() throws IOException, InterruptedException {
+        accessLog = new AccessLog(directory.resolve("access.log"), 16, 10, 100, 3600, 2);
+        for (int i = 0; i < 4; i++) {
+            accessLog.record(1669947792000L, "GET", "/messages", 200, 2, 10, null);
+            long rotations = accessLog.getRotations();
+            for (int wait = 0; wait < 500 && accessLog.getRotations() == rotations; wait++) {
+                Thread.sleep(10);
+            }
+        }
+        accessLog.close();
+        Assert.assertEquals(4, accessLog.getRotations());
+        List<Path> files = files();
+        Assert.assertEquals(3, files.size());
+        Assert.assertEquals("access.log", files.get(0).getFileName().toString());
+        Assert.assertEquals(0, Files.size(files.get(0)));
+        Assert.assertEquals(1, Files.readAllLines(files.get(2)).size());
+    }
+
+    /**
+     * A failed write is retried instead of ending the writer, and reported
+     * through isHealthy() until the file can be written again. The log is a
+     * link to /dev/full, which fails every write, until the test removes it.
+     */
+    @Test
+    public void recoversFromFailedWrites() throws IOException, InterruptedException {
+        Path full = Paths.get("/dev/full");
+        Assume.assumeTrue(Files.isWritable(full));
+        Path file = Files.createSymbolicLink(directory.resolve("access.log"), full);
+        accessLog = new AccessLog(file, 16, 10, 1 << 20, 3600, 10);
+        Assert.assertTrue(accessLog.isHealthy());
+        accessLog.record(1669947792000L, "GET", "/messages", 200, 2, 10, "lost");
+        for (int wait = 0; wait < 500 && accessLog.isHealthy(); wait++) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(accessLog.isHealthy());
+        Assert.assertTrue(accessLog.getLastError(), accessLog.getLastError().contains("IOException"));
+        Assert.assertEquals(1, accessLog.getLost());
+
+        Files.delete(file);
+        for (int wait = 0; wait < 500 && !accessLog.isHealthy(); wait++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(accessLog.isHealthy());
+        accessLog.record(1669947792001L, "GET", "/messages", 200, 2, 10, "written");
+        accessLog.close();
+
+        Assert.assertTrue(accessLog.getFailures() >= 1);
+        Assert.assertEquals(1, accessLog.getLost());
+        Assert.assertEquals(1, accessLog.getWritten());
+        List<JsonNode> lines = lines(file);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("written", lines.get(0).get("requestId").asText());
+    }
+}
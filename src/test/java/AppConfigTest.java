@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Controller.SocialMediaController;
+import Util.AppConfig;
+
+/**
+ * A setting is taken from the command line, else a system property, else
+ * the environment, else the properties file. A value that does not parse
+ * fails with the name and source of the setting, and dump() masks secrets.
+ *
+ * The build sets SOCIALMEDIA_TEST_FROM_ENVIRONMENT for the precedence test.
+ */
+public class AppConfigTest {
+    static final String NAME = "socialmedia.test.from-environment";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        System.clearProperty(NAME);
+        AppConfig.init(new String[0]);
+    }
+
+    @Test
+    public void argumentsWinOverPropertiesOverEnvironmentOverFile() throws IOException {
+        Assume.assumeNotNull(System.getenv("SOCIALMEDIA_TEST_FROM_ENVIRONMENT"));
+        String file = "--config=" + file(NAME + "=file", "socialmedia.test.from-file=file");
+        System.setProperty(NAME, "property");
+
+        AppConfig config = new AppConfig(new String[] { file, "--test.from-environment=argument" });
+        Assert.assertEquals("argument", config.getString(NAME, null));
+        Assert.assertEquals("argument", config.sourceOf(NAME));
+
+        config = new AppConfig(new String[] { file });
+        Assert.assertEquals("property", config.getString(NAME, null));
+        Assert.assertEquals("system property", config.sourceOf(NAME));
+
+        System.clearProperty(NAME);
+        config = new AppConfig(new String[] { file });
+        Assert.assertEquals("environment", config.getString(NAME, null));
+        Assert.assertEquals("environment", config.sourceOf(NAME));
+
+        Assert.assertEquals("file", config.getString("socialmedia.test.from-file", null));
+        Assert.assertEquals("file", config.sourceOf("socialmedia.test.from-file"));
+        Assert.assertNull(config.getString("socialmedia.test.unset", null));
+        Assert.assertEquals("default", config.sourceOf("socialmedia.test.unset"));
+    }
+
+    /**
+     * Declared settings are typed, and both the long and the short name of a
+     * setting work as arguments.
+     */
+    @Test
+    public void declaredSettingsAreParsed() {
+        AppConfig config = new AppConfig(new String[] { "--socialmedia.db.pool.max-connections=4",
+                "--auth.required=TRUE", "--limiter.tolerance= 1.5 " });
+        Assert.assertEquals(Integer.valueOf(4), config.get(AppConfig.DB_POOL_MAX_CONNECTIONS));
+        Assert.assertTrue(config.get(AppConfig.AUTH_REQUIRED));
+        Assert.assertEquals(1.5, config.get(AppConfig.LIMITER_TOLERANCE), 0.0);
+        Assert.assertEquals(AppConfig.DB_USER.getDefaultValue(), config.get(AppConfig.DB_USER));
+    }
+
+    @Test
+    public void badValuesNameTheSettingAndItsSource() throws IOException {
+        assertInvalid("socialmedia.db.pool.max-connections from argument is not valid: many",
+                new AppConfig(new String[] { "--db.pool.max-connections=many" }), AppConfig.DB_POOL_MAX_CONNECTIONS);
+        assertInvalid("socialmedia.auth.required from argument is not valid: yes",
+                new AppConfig(new String[] { "--auth.required=yes" }), AppConfig.AUTH_REQUIRED);
+        AppConfig fromFile = new AppConfig(new String[] { "--config=" + file("socialmedia.ids.node=x") });
+        assertInvalid("socialmedia.ids.node from file is not valid: x", fromFile, AppConfig.IDS_NODE);
+
+        try {
+            new AppConfig(new String[] { "db.url=jdbc:h2:mem:x" });
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("expected --name=value, got db.url=jdbc:h2:mem:x", e.getMessage());
+        }
+        try {
+            new AppConfig(new String[] { "--config=" + new File(folder.getRoot(), "missing.properties") });
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("does not exist"));
+        }
+    }
+
+    /**
+     * Overrides named after a limit or a route fail when the controller is
+     * created, naming the setting, instead of with a bare parse error.
+     */
+    @Test
+    public void badOverridesNameTheSetting() {
+        assertControllerFails("socialmedia.ratelimit.login from argument is not valid: 5", "--ratelimit.login=5");
+        assertControllerFails("socialmedia.ratelimit.login from argument is not valid: fast/20",
+                "--ratelimit.login=fast/20");
+        assertControllerFails("socialmedia.ratelimit.register from argument is not valid: 0/10",
+                "--ratelimit.register=0/10");
+        assertControllerFails("socialmedia.compression.level./messages from argument is not valid: high",
+                "--compression.level./messages=high");
+        assertControllerFails("socialmedia.compression.level./messages from argument is not valid: 12",
+                "--compression.level./messages=12");
+    }
+
+    @Test
+    public void dumpMasksSecrets() {
+        AppConfig config = new AppConfig(new String[] { "--db.password=hunter2", "--admin.token=open-sesame",
+                "--ratelimit.login=1/5" });
+        String dump = config.dump();
+        Assert.assertFalse(dump, dump.contains("hunter2"));
+        Assert.assertFalse(dump, dump.contains("open-sesame"));
+        Assert.assertTrue(dump, dump.contains("socialmedia.db.password = ****  [argument]"));
+        Assert.assertTrue(dump, dump.contains("socialmedia.admin.token = ****  [argument]"));
+        Assert.assertTrue(dump, dump.contains("socialmedia.token.secret = (unset)  [default]"));
+        Assert.assertTrue(dump, dump.contains("socialmedia.db.user = sa  [default]"));
+        Assert.assertTrue(dump, dump.contains("socialmedia.ratelimit.login = 1/5  [argument]"));
+    }
+
+    private String file(String... lines) throws IOException {
+        File file = folder.newFile();
+        try (Writer writer = new FileWriter(file)) {
+            for (String line : lines) {
+                writer.write(line + System.lineSeparator());
+            }
+        }
+        return file.getPath();
+    }
+
+    private static void assertInvalid(String message, AppConfig config, AppConfig.Setting<?> setting) {
+        try {
+            config.get(setting);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertControllerFails(String message, String argument) {
+        AppConfig.init(new String[] { argument });
+        try {
+            new SocialMediaController();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.AccessLog;
+
+/**
+ * What logging one request costs the request thread: copying it into the
+ * ring buffer of AccessLog, or formatting it and writing it to the file
+ * right away, serialized by a lock as a shared file must be.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+public class AccessLogBenchmark {
+    @Param({"async", "sync"})
+    String writes;
+
+    Path file;
+    AccessLog accessLog;
+    FileChannel channel;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("access-log-benchmark", ".log");
+        if (writes.equals("async")) {
+            accessLog = new AccessLog(file, 16384, 200, Long.MAX_VALUE, 86400, 1);
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (accessLog != null) {
+            accessLog.close();
+            System.out.println("wrote " + accessLog.getWritten() + " and dropped " + accessLog.getDropped()
+                    + " requests");
+        } else {
+            channel.close();
+        }
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public void logRequest() throws IOException {
+        long now = System.currentTimeMillis();
+        if (accessLog != null) {
+            accessLog.record(now, "GET", "/messages/{message_id}", 200, 85, 412, "5c3bb3d965ebc9a4");
+            return;
+        }
+        String line = "{\"time\":\"" + Instant.ofEpochMilli(now) + "\",\"method\":\"GET\","
+                + "\"route\":\"/messages/{message_id}\",\"status\":200,\"bytes\":85,\"micros\":412,"
+                + "\"requestId\":\"5c3bb3d965ebc9a4\"}\n";
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        synchronized (channel) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package Benchmark;
+
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.RunScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.ConnectionUtil;
+
+/**
+ * Compares the test and production database profiles on the statements the
+ * DAOs run: message inserts, per-account lookups served by the posted_by
+ * index and primary key lookups. Each profile gets its own database file
+ * under target/bench-h2, loaded with 100 accounts and 10000 messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+public class DatabaseProfileBenchmark {
+    static final int ACCOUNTS = 100;
+    static final int MESSAGES = 10000;
+
+    @Param({"test", "production"})
+    String profile;
+
+    JdbcDataSource dataSource;
+    Connection setupConnection;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:./target/bench-h2/" + profile + ";" + ConnectionUtil.profileSettings(profile));
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        // held open so the database is not closed between connections
+        setupConnection = dataSource.getConnection();
+        RunScript.execute(setupConnection, new FileReader("src/main/resources/SocialMedia.sql"));
+        PreparedStatement account = setupConnection.prepareStatement(
+                "INSERT INTO account (username, password) VALUES (?, ?)");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            account.setString(1, "user" + i);
+            account.setString(2, "password");
+            account.executeUpdate();
+        }
+        PreparedStatement message = setupConnection.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)");
+        for (int i = 0; i < MESSAGES; i++) {
+            message.setInt(1, 1 + i % ACCOUNTS);
+            message.setString(2, "message " + i);
+            message.setLong(3, 1669947792L + i);
+            message.executeUpdate();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        setupConnection.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadConnection {
+        Connection connection;
+        PreparedStatement insert;
+        PreparedStatement byAccount;
+        PreparedStatement byId;
+
+        @Setup(Level.Trial)
+        public void setUp(DatabaseProfileBenchmark benchmark) throws SQLException {
+            connection = benchmark.dataSource.getConnection();
+            insert = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)");
+            byAccount = connection.prepareStatement("SELECT * FROM message WHERE posted_by = ?");
+            byId = connection.prepareStatement("SELECT * FROM message WHERE message_id = ?");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public int insertMessage(ThreadConnection thread) throws SQLException {
+        thread.insert.setInt(1, 1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+        thread.insert.setString(2, "benchmark message");
+        thread.insert.setLong(3, System.currentTimeMillis() / 1000);
+        return thread.insert.executeUpdate();
+    }
+
+    @Benchmark
+    public int getAccountMessages(ThreadConnection thread) throws SQLException {
+        thread.byAccount.setInt(1, 1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+        return count(thread.byAccount.executeQuery());
+    }
+
+    @Benchmark
+    public int getMessageById(ThreadConnection thread) throws SQLException {
+        thread.byId.setInt(1, 1 + ThreadLocalRandom.current().nextInt(MESSAGES));
+        return count(thread.byId.executeQuery());
+    }
+
+    private int count(ResultSet rs) throws SQLException {
+        int rows = 0;
+        while (rs.next()) {
+            rows++;
+        }
+        rs.close();
+        return rows;
+    }
+}
@@ -0,0 +1,85 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.FlightEvents;
+import Util.MessageShards;
+import jdk.jfr.Recording;
+
+/**
+ * Measures what the flight recorder events cost, on their own and around a
+ * DAO lookup, with no recording running and with one recording all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class FlightEventsBenchmark {
+    @Param({"off", "on"})
+    String recording;
+
+    JdbcConnectionPool pool;
+    MessageDAO messageDAO;
+    Recording jfr;
+    long id;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:jfr;DB_CLOSE_DELAY=-1", "sa", "sa");
+        MessageShards shards = new MessageShards(List.<DataSource>of(pool));
+        shards.initShards(true);
+        messageDAO = new MessageDAO(shards);
+        id = messageDAO.insertMessage(new Message(1, "benchmark message", 1669947792L)).getMessage_id();
+        if (recording.equals("on")) {
+            jfr = new Recording();
+            jfr.enable(FlightEvents.Statement.class);
+            jfr.enable(FlightEvents.ConnectionAcquire.class);
+            jfr.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        if (jfr != null) {
+            jfr.close();
+        }
+        try (Connection connection = pool.getConnection()) {
+            connection.createStatement().execute("DROP ALL OBJECTS");
+        }
+        pool.dispose();
+    }
+
+    @Benchmark
+    public FlightEvents.Statement statementEvent() {
+        FlightEvents.Statement event = FlightEvents.statement("FlightEventsBenchmark.statementEvent");
+        event.finish(1);
+        return event;
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(id);
+    }
+}
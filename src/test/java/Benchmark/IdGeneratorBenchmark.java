@@ -0,0 +1,78 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.MessageShards;
+import Util.SnowflakeIdGenerator;
+
+/**
+ * Compares message inserts with ids from the H2 identity column, read back
+ * with getGeneratedKeys(), against ids generated up front, and measures the
+ * generator on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+public class IdGeneratorBenchmark {
+    @Param({"auto", "snowflake"})
+    String ids;
+
+    JdbcConnectionPool pool;
+    MessageDAO messageDAO;
+    SnowflakeIdGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:ids;DB_CLOSE_DELAY=-1", "sa", "sa");
+        generator = new SnowflakeIdGenerator(1, 1);
+        MessageShards shards = new MessageShards(List.<DataSource>of(pool),
+                ids.equals("snowflake") ? generator : null);
+        shards.initShards(true);
+        messageDAO = new MessageDAO(shards);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.createStatement().execute("DROP ALL OBJECTS");
+        }
+        pool.dispose();
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageDAO.insertMessage(new Message(1 + ThreadLocalRandom.current().nextInt(100),
+                "benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public long nextId() {
+        return generator.nextId();
+    }
+}
@@ -0,0 +1,107 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Account;
+import Model.Message;
+import Util.StreamingCodec;
+
+/**
+ * Compares the hand-rolled StreamingCodec against the Jackson databind
+ * ObjectMapper for the payloads served by the API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonCodecBenchmark {
+    ObjectMapper objectMapper;
+    StreamingCodec codec;
+    Message message;
+    Account account;
+    List<Message> messages;
+    byte[] messageJson;
+    byte[] accountJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper();
+        codec = new StreamingCodec();
+        message = new Message(1, 1, "test message 1", 1669947792);
+        account = new Account(1, "testuser1", "password");
+        messages = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            messages.add(new Message(i, i % 10, "test message " + i, 1669947792L + i));
+        }
+        messageJson = "{\"posted_by\":1, \"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}"
+                .getBytes(StandardCharsets.UTF_8);
+        accountJson = "{\"username\": \"testuser1\", \"password\": \"password\"}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeMessageDatabind() throws IOException {
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] writeMessageStreaming() throws IOException {
+        return codec.write(message);
+    }
+
+    @Benchmark
+    public byte[] writeMessageListDatabind() throws IOException {
+        return objectMapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public byte[] writeMessageListStreaming() throws IOException {
+        return codec.write(messages);
+    }
+
+    @Benchmark
+    public byte[] writeAccountDatabind() throws IOException {
+        return objectMapper.writeValueAsBytes(account);
+    }
+
+    @Benchmark
+    public byte[] writeAccountStreaming() throws IOException {
+        return codec.write(account);
+    }
+
+    @Benchmark
+    public Message readMessageDatabind() throws IOException {
+        return objectMapper.readValue(messageJson, Message.class);
+    }
+
+    @Benchmark
+    public Message readMessageStreaming() throws IOException {
+        return codec.read(messageJson, Message.class);
+    }
+
+    @Benchmark
+    public Account readAccountDatabind() throws IOException {
+        return objectMapper.readValue(accountJson, Account.class);
+    }
+
+    @Benchmark
+    public Account readAccountStreaming() throws IOException {
+        return codec.read(accountJson, Account.class);
+    }
+}
@@ -0,0 +1,125 @@
+package Benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.MDC;
+
+import Util.JsonLogAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * Error storm: every request fails its statement and logs it, from 16
+ * threads at once. Compares the throughput of requests that log with
+ * System.out.println, the way the DAOs used to, with requests that log
+ * through JsonLogAppender and with requests that do not log at all. Each
+ * request burns a few microseconds of CPU as its own work.
+ *
+ * Standard output is usually a pipe to a log shipper or a terminal, where a
+ * write can block. The sink models that with a file whose flush takes 20us.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(16)
+public class LoggingBenchmark {
+    @Param({"none", "println", "async"})
+    String sink;
+
+    File file;
+    PrintStream out;
+    LoggerContext context;
+    JsonLogAppender appender;
+    Logger logger;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("logging-benchmark", ".log");
+        if (sink.equals("println")) {
+            // the same as System.out: synchronized and flushed on every line
+            out = new PrintStream(new SlowOutputStream(new FileOutputStream(file)), true);
+        } else if (sink.equals("async")) {
+            context = new LoggerContext();
+            appender = new JsonLogAppender();
+            appender.setContext(context);
+            appender.setOutputStream(new SlowOutputStream(new FileOutputStream(file)));
+            appender.setCapacity(8192);
+            appender.start();
+            logger = context.getLogger("DAO.MessageDAO");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (out != null) {
+            out.close();
+        }
+        if (appender != null) {
+            appender.stop();
+            System.out.println("wrote " + appender.getWritten() + " and dropped " + appender.getDropped()
+                    + " log events");
+        }
+        file.delete();
+    }
+
+    static class SlowOutputStream extends FilterOutputStream {
+        SlowOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            LockSupport.parkNanos(20_000);
+            out.flush();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        @Setup
+        public void setUp() {
+            MDC.put("requestId", Long.toHexString(Thread.currentThread().getId()));
+            MDC.put("route", "GET /messages/{message_id}");
+        }
+    }
+
+    @Benchmark
+    public void failingRequest(Request request) {
+        Blackhole.consumeCPU(2000);
+        String error = "Timeout trying to lock table \"MESSAGE\"";
+        if (out != null) {
+            out.println(error);
+        } else if (logger != null) {
+            logger.error("MessageDAO.getMessageById failed: {}", error);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package Benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountService;
+import Service.PasswordHasher;
+
+/**
+ * Measures login throughput through AccountService and the shared hashing
+ * pool at several PBKDF2 cost factors. The database is replaced by an
+ * in-memory AccountDAO, so only the hashing cost is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(Threads.MAX)
+public class LoginBenchmark {
+    @Param({"10000", "100000", "210000", "600000"})
+    int iterations;
+
+    AccountService accountService;
+    Account credentials;
+
+    @Setup
+    public void setUp() {
+        PasswordHasher hasher = new PasswordHasher(iterations);
+        Account stored = new Account(1, "testuser1", hasher.hash("password"));
+        accountService = new AccountService(new AccountDAO() {
+            @Override
+            public Account getAccountByUsername(String username) {
+                return stored;
+            }
+        }, hasher);
+        credentials = new Account("testuser1", "password");
+    }
+
+    @Benchmark
+    public Account login() {
+        return accountService.getAccount(credentials);
+    }
+}
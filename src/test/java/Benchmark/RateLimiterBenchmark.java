@@ -0,0 +1,55 @@
+package Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.RateLimiter;
+
+/**
+ * Measures the per-request overhead of the rate limiter with many threads,
+ * from every thread hammering the same bucket to requests spread over many
+ * keys with idle bucket eviction kicking in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+public class RateLimiterBenchmark {
+    @Param({"1", "1000", "1000000"})
+    int keys;
+
+    RateLimiter rateLimiter;
+    RateLimiter.Limit limit;
+    String[] keyNames;
+
+    @Setup
+    public void setUp() {
+        rateLimiter = new RateLimiter(100000);
+        limit = new RateLimiter.Limit("bench", 1000000, 1000);
+        keyNames = new String[Math.min(keys, 100000)];
+        for (int i = 0; i < keyNames.length; i++) {
+            keyNames[i] = "ip:10.0." + (i / 256) + "." + (i % 256);
+        }
+    }
+
+    @Benchmark
+    public long tryAcquire() {
+        int index = keys == 1 ? 0 : ThreadLocalRandom.current().nextInt(keys);
+        String key = index < keyNames.length ? keyNames[index] : "ip:" + index;
+        return rateLimiter.tryAcquire(limit, key);
+    }
+}
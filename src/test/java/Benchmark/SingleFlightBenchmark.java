@@ -0,0 +1,72 @@
+package Benchmark;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.SingleFlight;
+
+/**
+ * Thundering-herd workload: many threads read the same message at once from
+ * a simulated database that takes 1ms per query and runs at most 4 queries
+ * concurrently. Compares reads coalesced by SingleFlight with direct reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(32)
+public class SingleFlightBenchmark {
+    @Param({"true", "false"})
+    boolean coalesce;
+
+    SingleFlight singleFlight;
+    Semaphore database;
+
+    @Setup
+    public void setUp() {
+        singleFlight = new SingleFlight();
+        database = new Semaphore(4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (coalesce) {
+            System.out.println("deduplicated " + singleFlight.getDeduplicated() + " of "
+                    + singleFlight.getCalls() + " reads");
+        }
+    }
+
+    @Benchmark
+    public Message getMessage() {
+        if (coalesce) {
+            return singleFlight.execute("message:1", this::query);
+        }
+        return query();
+    }
+
+    private Message query() {
+        database.acquireUninterruptibly();
+        try {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            return new Message(1, 1, "test message 1", 1669947792);
+        } finally {
+            database.release();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.MessageShards;
+
+/**
+ * Measures posting and then deleting a message in a table of 100,000, with
+ * the delete either removing the row from the table and its indexes or
+ * marking it deleted for the purger. Both pay the same insert, the
+ * difference is the delete a request waits for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class SoftDeleteBenchmark {
+    @Param({"hard", "soft"})
+    String delete;
+
+    JdbcConnectionPool pool;
+    Connection connection;
+    PreparedStatement insert;
+    PreparedStatement remove;
+    long time = 1669947792L;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        pool = JdbcConnectionPool.create("jdbc:h2:mem:softdelete;DB_CLOSE_DELAY=-1", "sa", "sa");
+        new MessageShards(List.<DataSource>of(pool)).initShards(true);
+        connection = pool.getConnection();
+        insert = connection.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS);
+        for (int i = 0; i < 100_000; i++) {
+            insert.setInt(1, i % 1000);
+            insert.setString(2, "message " + i);
+            insert.setLong(3, time++);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        remove = connection.prepareStatement(delete.equals("hard")
+                ? "DELETE FROM message WHERE message_id = ?"
+                : "UPDATE message SET deleted = TRUE, version = version + 1 WHERE message_id = ? AND NOT deleted");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.createStatement().execute("DROP ALL OBJECTS");
+        connection.close();
+        pool.dispose();
+    }
+
+    @Benchmark
+    public int postAndDelete() throws SQLException {
+        insert.setInt(1, (int) (time % 1000));
+        insert.setString(2, "deleted soon");
+        insert.setLong(3, time++);
+        insert.executeUpdate();
+        ResultSet keys = insert.getGeneratedKeys();
+        keys.next();
+        remove.setLong(1, keys.getLong(1));
+        return remove.executeUpdate();
+    }
+}
@@ -0,0 +1,118 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Measures startup in fresh JVMs, one shot per fork: the time until the
+ * server is ready, and the time the first requests after that take, with
+ * and without the warm-up routine. The first trades against the second.
+ *
+ * The database is in memory, so only the application is measured. Class-data
+ * sharing of the -Pcds build does not apply here, JMH runs from the class
+ * directories, compare the "Ready ... ms after JVM start" line of Main with
+ * and without -XX:SharedArchiveFile for that.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 5, jvmArgsAppend = "-Dsocialmedia.db.url=jdbc:h2:mem:startup;DB_CLOSE_DELAY=-1")
+public class StartupBenchmark {
+    private static final String[] FIRST_REQUESTS = { "/messages", "/messages/1", "/accounts/1/messages" };
+
+    /**
+     * A server that is started by the benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Cold {
+        @Param({"0", "20"})
+        int warmupRounds;
+
+        Javalin app;
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            app.stop();
+        }
+    }
+
+    /**
+     * A server that is started and ready before the benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Ready {
+        @Param({"0", "20"})
+        int warmupRounds;
+
+        Javalin app;
+        HttpClient client;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException, InterruptedException {
+            app = start(warmupRounds);
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            // load the client classes, so only the server side is cold
+            get(client, app, "/ready");
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            app.stop();
+        }
+    }
+
+    static Javalin start(int warmupRounds) throws IOException, InterruptedException {
+        SocialMediaController controller = new SocialMediaController();
+        controller.setReady(false);
+        Javalin app = controller.startAPI().start(0);
+        ConnectionUtil.initDatabase();
+        controller.warmUp(app.port(), warmupRounds);
+        controller.setReady(true);
+        return app;
+    }
+
+    static int get(HttpClient client, Javalin app, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + app.port() + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+    }
+
+    @Benchmark
+    public Javalin startToReady(Cold cold) throws IOException, InterruptedException {
+        cold.app = start(cold.warmupRounds);
+        return cold.app;
+    }
+
+    @Benchmark
+    public int firstRequests(Ready ready) throws IOException, InterruptedException {
+        int status = 0;
+        for (int i = 0; i < 20; i++) {
+            for (String path : FIRST_REQUESTS) {
+                status += get(ready.client, ready.app, path);
+            }
+        }
+        return status;
+    }
+}
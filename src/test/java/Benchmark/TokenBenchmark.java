@@ -0,0 +1,52 @@
+package Benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Service.TokenService;
+
+/**
+ * Measures issuing and verifying session tokens, the per-request cost that
+ * replaces a database lookup on authenticated message routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenBenchmark {
+    TokenService tokenService;
+    String token;
+    String forgedToken;
+
+    @Setup
+    public void setUp() {
+        tokenService = new TokenService(new byte[32], 3600);
+        token = tokenService.issue(42);
+        forgedToken = token.substring(0, token.length() - 2) + "AA";
+    }
+
+    @Benchmark
+    public String issue() {
+        return tokenService.issue(42);
+    }
+
+    @Benchmark
+    public Integer verifyValid() {
+        return tokenService.verify(token);
+    }
+
+    @Benchmark
+    public Integer verifyForged() {
+        return tokenService.verify(forgedToken);
+    }
+}
@@ -0,0 +1,80 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Util.BinaryFormat;
+import Util.StreamingCodec;
+
+/**
+ * Compares encode/decode throughput of the negotiable wire formats for a
+ * single message and for a list response. The payload size of each format is
+ * printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WireFormatBenchmark {
+    @Param({"json", "cbor", "smile"})
+    String format;
+
+    StreamingCodec codec;
+    Message message;
+    List<Message> messages;
+    byte[] encodedMessage;
+    byte[] encodedMessages;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (format.equals("json")) {
+            codec = new StreamingCodec();
+        } else {
+            codec = BinaryFormat.valueOf(format.toUpperCase()).getCodec();
+        }
+        message = new Message(1, 1, "test message 1", 1669947792);
+        messages = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            messages.add(new Message(i, i % 10, "test message " + i, 1669947792L + i));
+        }
+        encodedMessage = codec.write(message);
+        encodedMessages = codec.write(messages);
+        System.out.println(format + " payload size: message=" + encodedMessage.length
+                + " bytes, list of 100=" + encodedMessages.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() throws IOException {
+        return codec.write(message);
+    }
+
+    @Benchmark
+    public byte[] encodeMessageList() throws IOException {
+        return codec.write(messages);
+    }
+
+    @Benchmark
+    public Message decodeMessage() throws IOException {
+        return codec.read(encodedMessage, Message.class);
+    }
+
+    @Benchmark
+    public List<Message> decodeMessageList() throws IOException {
+        return codec.readMessages(encodedMessages);
+    }
+}
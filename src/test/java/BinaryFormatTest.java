@@ -0,0 +1,43 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.BinaryFormat;
+
+/**
+ * The Accept header picks a binary format by the weight its q parameters
+ * give it, JSON being the answer for ties, wildcards and anything unknown.
+ */
+public class BinaryFormatTest {
+
+    @Test
+    public void withoutWeightsTheFirstListedWins() {
+        Assert.assertNull(BinaryFormat.fromAccept(null));
+        Assert.assertNull(BinaryFormat.fromAccept("*/*"));
+        Assert.assertNull(BinaryFormat.fromAccept("application/json, application/cbor"));
+        Assert.assertEquals(BinaryFormat.CBOR, BinaryFormat.fromAccept("application/cbor, application/json"));
+        Assert.assertEquals(BinaryFormat.SMILE,
+                BinaryFormat.fromAccept("text/html, application/x-jackson-smile, */*"));
+        Assert.assertNull(BinaryFormat.fromAccept("text/html"));
+    }
+
+    @Test
+    public void theHighestWeightWins() {
+        Assert.assertEquals(BinaryFormat.CBOR,
+                BinaryFormat.fromAccept("application/json;q=0.5, application/cbor;q=0.9"));
+        Assert.assertNull(BinaryFormat.fromAccept("application/cbor;q=0.4, application/json"));
+        Assert.assertEquals(BinaryFormat.SMILE, BinaryFormat.fromAccept(
+                "application/cbor;q=0.5, application/x-jackson-smile;q=0.8, */*;q=0.1"));
+        Assert.assertEquals(BinaryFormat.CBOR, BinaryFormat.fromAccept("APPLICATION/CBOR; Q=1, */*; q=0.9"));
+    }
+
+    @Test
+    public void zeroWeightsAreNotAcceptable() {
+        Assert.assertNull(BinaryFormat.fromAccept("application/cbor;q=0, application/json;q=0.1"));
+        Assert.assertNull(BinaryFormat.fromAccept("application/cbor;q=0"));
+        Assert.assertNull(BinaryFormat.fromAccept("application/cbor;q=abc"));
+        Assert.assertEquals(BinaryFormat.CBOR, BinaryFormat.fromAccept("application/json;q=0, application/cbor"));
+        // the most specific range decides, here that JSON is not acceptable
+        Assert.assertEquals(BinaryFormat.SMILE,
+                BinaryFormat.fromAccept("*/*;q=0.1, application/json;q=0, application/x-jackson-smile;q=0.2"));
+    }
+}
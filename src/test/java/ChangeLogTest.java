@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageService;
+import Util.ChangeLog;
+
+/**
+ * Every committed insert, update and delete of a message is appended to the
+ * change log, which consumers read from an offset, waiting for new events,
+ * and which survives a restart and keeps only what retention allows.
+ */
+public class ChangeLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Rule
+    public MessageDatabase database = new MessageDatabase("changes");
+
+    ChangeLog changeLog;
+    MessageService messageService;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws IOException {
+        changeLog = open(16 << 20, 1L << 30);
+        messageService = database.messageService(new MessageDAO(database.getShards(), changeLog));
+    }
+
+    @After
+    public void tearDown() {
+        changeLog.close();
+    }
+
+    @Test
+    public void changesAreReadFromAnOffset() throws IOException {
+        Message message = messageService.addMessage(new Message(1, "first", 1669947792L), true);
+        long id = message.getMessage_id();
+        messageService.updateMessage(id, "second");
+        messageService.deleteMessage(id);
+        Assert.assertNull(messageService.updateMessage(id, "too late"));
+
+        ChangeLog.Batch batch = changeLog.read(0, 100, 5000);
+        while (batch.getNext() < 3) {
+            batch = changeLog.read(0, 100, 5000);
+        }
+        List<JsonNode> events = events(batch);
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals(3, batch.getNext());
+        String[] types = {"insert", "update", "delete"};
+        String[] texts = {"first", "second", "second"};
+        for (int i = 0; i < 3; i++) {
+            JsonNode event = events.get(i);
+            Assert.assertEquals(i, event.get("offset").asLong());
+            Assert.assertEquals(types[i], event.get("type").asText());
+            Assert.assertEquals(id, event.get("message_id").asLong());
+            Assert.assertEquals(1, event.get("posted_by").asInt());
+            Assert.assertEquals(texts[i], event.get("message_text").asText());
+            Assert.assertEquals(i, event.get("version").asLong());
+        }
+
+        ChangeLog.Batch rest = changeLog.read(1, 1, 0);
+        Assert.assertEquals(1, rest.getCount());
+        Assert.assertEquals(2, rest.getNext());
+        Assert.assertEquals("update", events(rest).get(0).get("type").asText());
+        Assert.assertEquals(0, changeLog.read(3, 100, 0).getCount());
+    }
+
+    @Test
+    public void readWaitsForTheNextChange() throws InterruptedException {
+        List<ChangeLog.Batch> read = new ArrayList<>();
+        Thread consumer = new Thread(() -> read.add(changeLog.read(0, 100, 10000)));
+        consumer.start();
+        Thread.sleep(200);
+        Assert.assertTrue(consumer.isAlive());
+
+        long start = System.currentTimeMillis();
+        messageService.addMessage(new Message(1, "awaited", 1669947792L), true);
+        consumer.join();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(1, read.get(0).getCount());
+        Assert.assertEquals(1, read.get(0).getNext());
+    }
+
+    @Test
+    public void reopeningContinuesAfterTheLastCompleteChange() throws IOException {
+        append(10);
+        changeLog.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            segment = files.sorted().reduce((first, second) -> second).get();
+        }
+        // a crash in the middle of writing an event
+        Files.write(segment, "{\"offset\":10,\"ty".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        changeLog = open(16 << 20, 1L << 30);
+        Assert.assertEquals(10, changeLog.getNextOffset());
+        append(1);
+        List<JsonNode> events = events(changeLog.read(0, 100, 0));
+        Assert.assertEquals(11, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(i, events.get(i).get("offset").asLong());
+        }
+    }
+
+    @Test
+    public void retentionDeletesTheOldestSegments() throws IOException {
+        changeLog.close();
+        changeLog = open(1024, 4096);
+        append(200);
+
+        Assert.assertTrue(changeLog.getDeletedSegments() > 0);
+        Assert.assertTrue(changeLog.getBytes() <= 4096 + 1024 + 200);
+        long first = changeLog.getFirstOffset();
+        Assert.assertTrue(first > 0);
+
+        // an offset retention deleted reads from the oldest event kept
+        ChangeLog.Batch batch = changeLog.read(0, 1000, 0);
+        List<JsonNode> events = events(batch);
+        Assert.assertEquals(200 - first, events.size());
+        Assert.assertEquals(first, events.get(0).get("offset").asLong());
+        Assert.assertEquals(200, batch.getNext());
+
+        // and the sparse index finds an offset in the middle of a segment
+        ChangeLog.Batch last = changeLog.read(199, 1000, 0);
+        Assert.assertEquals(199, events(last).get(0).get("offset").asLong());
+    }
+
+    /**
+     * A writer that cannot write, here because its directory is gone, makes
+     * appends drop and count their changes instead of blocking the writes of
+     * messages, and catches up once it can write again. The offsets of the
+     * dropped changes are written as gap events, so consumers see the loss.
+     */
+    @Test
+    public void failingWriterDropsInsteadOfBlocking() throws IOException, InterruptedException {
+        changeLog.close();
+        changeLog = open(256, 1L << 30);
+        append(5);
+        Assert.assertTrue(changeLog.isHealthy());
+        deleteFolder();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 200; i++) {
+            changeLog.append(ChangeLog.Type.INSERT, new Message(i, 1, "message " + i, 1669947792L + i));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        Assert.assertFalse(changeLog.isHealthy());
+        Assert.assertTrue(changeLog.getFailures() > 0);
+        Assert.assertNotNull(changeLog.getLastError());
+        long dropped = changeLog.getDropped();
+        Assert.assertTrue(dropped > 0);
+
+        Files.createDirectories(folder.getRoot().toPath());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (changeLog.getNextOffset() < 205) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(changeLog.isHealthy());
+        Assert.assertEquals(205, changeLog.getNextOffset());
+
+        // the segment of the first five was deleted with the directory
+        List<JsonNode> events = events(changeLog.read(0, 1000, 0));
+        long next = 5;
+        long gaps = 0;
+        for (JsonNode event : events) {
+            if (event.get("type").asText().equals("gap")) {
+                Assert.assertEquals(next, event.get("from").asLong());
+                next += event.get("dropped").asLong();
+                gaps += event.get("dropped").asLong();
+                Assert.assertEquals(next - 1, event.get("offset").asLong());
+            } else {
+                Assert.assertEquals(next++, event.get("offset").asLong());
+            }
+        }
+        Assert.assertEquals(205, next);
+        Assert.assertEquals(dropped, gaps);
+
+        // and reopening continues after the last gap like after any event
+        changeLog.close();
+        changeLog = open(256, 1L << 30);
+        Assert.assertEquals(205, changeLog.getNextOffset());
+        append(1);
+        Assert.assertEquals(205, events(changeLog.read(205, 10, 0)).get(0).get("offset").asLong());
+    }
+
+    private void deleteFolder() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(folder.getRoot().toPath());
+    }
+
+    private ChangeLog open(long segmentBytes, long retentionBytes) throws IOException {
+        return new ChangeLog(folder.getRoot().toPath(), 64, 50, segmentBytes, 3600, retentionBytes, 3600, true);
+    }
+
+    /**
+     * Append changes and wait until they are written.
+     */
+    private void append(int count) {
+        long end = changeLog.getNextOffset() + count;
+        for (int i = 0; i < count; i++) {
+            Message message = new Message(i, 1, "message " + i, 1669947792L + i);
+            changeLog.append(ChangeLog.Type.INSERT, message);
+        }
+        while (changeLog.getNextOffset() < end) {
+            changeLog.read(changeLog.getNextOffset(), 1, 1000);
+        }
+    }
+
+    private List<JsonNode> events(ChangeLog.Batch batch) {
+        String lines = new String(batch.getLines(), StandardCharsets.UTF_8);
+        return lines.lines().map(line -> {
+            try {
+                return objectMapper.readTree(line);
+            } catch (IOException e) {
+                throw new AssertionError(line, e);
+            }
+        }).collect(Collectors.toList());
+    }
+}
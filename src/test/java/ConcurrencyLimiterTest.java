@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Service.ConcurrencyLimiter;
+import Service.ConcurrencyLimiter.Priority;
+import Service.OverloadedException;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Calls over the share of the limit their priority may use are shed, and
+ * the limit grows by one per busy window and shrinks by a tenth per
+ * congested one. The clock is a counter the tests move, one window being
+ * 100 ms long.
+ */
+public class ConcurrencyLimiterTest {
+    static final long MILLISECOND = 1_000_000;
+    static final long WINDOW = 100 * MILLISECOND;
+
+    AtomicLong clock;
+
+    @Before
+    public void setUp() {
+        clock = new AtomicLong();
+    }
+
+    /**
+     * With a limit of 4, bulk reads may use 2 slots, writes 3 and single-row
+     * reads all 4. Calls are nested to hold their slots.
+     */
+    @Test
+    public void prioritiesGetTheirShareOfTheLimit() {
+        ConcurrencyLimiter limiter = limiter(4, 1, 8);
+        limiter.call(Priority.BULK, () -> limiter.call(Priority.BULK, () -> {
+            Assert.assertEquals(2, limiter.getInFlight());
+            assertShed(limiter, Priority.BULK);
+            return limiter.call(Priority.WRITE, () -> {
+                assertShed(limiter, Priority.WRITE);
+                return limiter.call(Priority.READ, () -> {
+                    assertShed(limiter, Priority.READ);
+                    return null;
+                });
+            });
+        }));
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(3, limiter.getShed());
+        Assert.assertEquals(4, limiter.getCompleted());
+    }
+
+    /**
+     * Windows in which at least half the limit was in use and calls stayed
+     * fast grow the limit by one, up to the maximum.
+     */
+    @Test
+    public void busyWindowsGrowTheLimit() {
+        ConcurrencyLimiter limiter = limiter(2, 1, 3);
+        call(limiter, 10);
+        Assert.assertEquals(2.0, limiter.getLimit(), 0.0);
+
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(3.0, limiter.getLimit(), 0.0);
+
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(3.0, limiter.getLimit(), 0.0);
+    }
+
+    /**
+     * A single call does not use half of a limit of 4, so the limit stays.
+     */
+    @Test
+    public void idleWindowsKeepTheLimit() {
+        ConcurrencyLimiter limiter = limiter(4, 1, 8);
+        call(limiter, 10);
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(4.0, limiter.getLimit(), 0.0);
+    }
+
+    /**
+     * A call much slower than the fastest one, or a failed call, cuts the
+     * limit by a tenth at the end of the window, down to the minimum.
+     */
+    @Test
+    public void congestedWindowsShrinkTheLimit() {
+        ConcurrencyLimiter limiter = limiter(10, 8, 20);
+        call(limiter, 10);
+        call(limiter, 5 * MILLISECOND);
+        Assert.assertEquals(10.0, limiter.getLimit(), 0.0);
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(9.0, limiter.getLimit(), 1e-9);
+
+        try {
+            limiter.call(Priority.WRITE, () -> {
+                throw new IllegalStateException("connection lost");
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // counts as congestion
+        }
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(8.1, limiter.getLimit(), 1e-9);
+
+        call(limiter, 5 * MILLISECOND);
+        clock.addAndGet(WINDOW);
+        call(limiter, 10);
+        Assert.assertEquals(8.0, limiter.getLimit(), 0.0);
+    }
+
+    /**
+     * A shed call is answered with 503 and a Retry-After, so clients back
+     * off. The test holds every slot of the shared limiter while it lists the
+     * messages.
+     */
+    @Test
+    public void shedRequestsAreServiceUnavailable() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages")).build();
+            HttpResponse<String> response = whileSaturated(ConcurrencyLimiter.shared(), () -> {
+                try {
+                    return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Assert.assertEquals(503, response.statusCode());
+            Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+        } finally {
+            app.stop();
+        }
+    }
+
+    private ConcurrencyLimiter limiter(int initial, int min, int max) {
+        return new ConcurrencyLimiter(initial, min, max, 2.0, WINDOW, clock::get);
+    }
+
+    private void call(ConcurrencyLimiter limiter, long latency) {
+        limiter.call(Priority.READ, () -> clock.addAndGet(latency));
+    }
+
+    private static void assertShed(ConcurrencyLimiter limiter, Priority priority) {
+        try {
+            limiter.call(priority, () -> null);
+            Assert.fail(priority + " was not shed");
+        } catch (OverloadedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Run a body while nested calls hold every slot of a limiter.
+     */
+    private static <T> T whileSaturated(ConcurrencyLimiter limiter, Supplier<T> body) {
+        try {
+            return limiter.call(Priority.READ, () -> whileSaturated(limiter, body));
+        } catch (OverloadedException e) {
+            return body.get();
+        }
+    }
+}
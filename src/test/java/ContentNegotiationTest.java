@@ -0,0 +1,102 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.AppConfig;
+import Util.BinaryFormat;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Message bodies are encoded in the format the Accept header prefers, and
+ * every negotiated response says it varies on Accept and Accept-Encoding so
+ * a shared cache does not serve one client's format to another. The
+ * compression threshold is one byte, so every body is compressed for clients
+ * that accept it.
+ */
+public class ContentNegotiationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        AppConfig.init(new String[] { "--compression.min-size=1" });
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        AppConfig.init(new String[0]);
+    }
+
+    @Test
+    public void bodiesFollowAcceptAndVaryOnIt() throws IOException, InterruptedException {
+        HttpResponse<byte[]> json = get("/messages", "application/json", null);
+        Assert.assertEquals(200, json.statusCode());
+        Assert.assertEquals("application/json", json.headers().firstValue("Content-Type").orElse(null));
+        Assert.assertEquals("Accept, Accept-Encoding", json.headers().firstValue("Vary").orElse(null));
+
+        HttpResponse<byte[]> cbor = get("/messages", "application/cbor", null);
+        Assert.assertEquals(200, cbor.statusCode());
+        Assert.assertEquals("application/cbor", cbor.headers().firstValue("Content-Type").orElse(null));
+        Assert.assertEquals("Accept, Accept-Encoding", cbor.headers().firstValue("Vary").orElse(null));
+        List<Message> messages = BinaryFormat.CBOR.getCodec().readMessages(cbor.body());
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), messages);
+    }
+
+    @Test
+    public void notModifiedVariesToo() throws IOException, InterruptedException {
+        HttpResponse<byte[]> message = get("/messages/1", "application/x-jackson-smile", null);
+        Assert.assertEquals("application/x-jackson-smile", message.headers().firstValue("Content-Type").orElse(null));
+        String etag = message.headers().firstValue("ETag").orElse(null);
+
+        HttpResponse<byte[]> notModified = get("/messages/1", "application/x-jackson-smile", etag);
+        Assert.assertEquals(304, notModified.statusCode());
+        Assert.assertEquals("Accept, Accept-Encoding", notModified.headers().firstValue("Vary").orElse(null));
+    }
+
+    @Test
+    public void bodiesAreCompressedWhenAccepted() throws IOException, InterruptedException {
+        HttpResponse<byte[]> plain = get("/messages/1", "application/json", null);
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+
+        HttpResponse<byte[]> gzip = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept-Encoding", "deflate;q=0.5, gzip").build(), HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertEquals("Accept, Accept-Encoding", gzip.headers().firstValue("Vary").orElse(null));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.body()))) {
+            Assert.assertArrayEquals(plain.body(), in.readAllBytes());
+        }
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept, String ifNoneMatch)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                .header("Accept", accept);
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
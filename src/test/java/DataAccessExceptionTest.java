@@ -0,0 +1,133 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.ConstraintViolationException;
+import DAO.DataAccessException;
+import DAO.DuplicateKeyException;
+import DAO.MessageDAO;
+import DAO.TransientDataAccessException;
+import Model.Account;
+import Model.Message;
+import Service.OverloadedException;
+import Service.RetryPolicy;
+
+/**
+ * The DAOs throw a DataAccessException of the right kind for real H2
+ * failures, and the retry policy retries only the transient ones.
+ */
+public class DataAccessExceptionTest {
+    @Rule
+    public MessageDatabase database = new MessageDatabase("locks", ";LOCK_TIMEOUT=100");
+
+    JdbcConnectionPool pool;
+    MessageDAO messageDAO;
+
+    @Before
+    public void setUp() {
+        pool = database.getPool();
+        messageDAO = new MessageDAO(database.getShards());
+    }
+
+    @Test
+    public void takenUsernameIsADuplicateKey() {
+        AccountDAO accountDAO = new AccountDAO();
+        accountDAO.insertAccount(new Account("duplicate", "password"));
+        try {
+            accountDAO.insertAccount(new Account("duplicate", "password"));
+            Assert.fail("the unique constraint on username should fail the insert");
+        } catch (DuplicateKeyException e) {
+            Assert.assertTrue(e.getMessage().startsWith("AccountDAO.insertAccount failed: "));
+        }
+    }
+
+    /**
+     * An update waiting on a row locked by another transaction times out
+     * with an error that is safe to retry.
+     */
+    @Test
+    public void lockTimeoutIsTransient() throws SQLException {
+        Message message = messageDAO.insertMessage(new Message(1, "locked", 1669947792L));
+        try (Connection other = pool.getConnection()) {
+            other.setAutoCommit(false);
+            PreparedStatement update = other.prepareStatement("UPDATE message SET message_text = ? WHERE message_id = ?");
+            update.setString(1, "holding the lock");
+            update.setLong(2, message.getMessage_id());
+            update.executeUpdate();
+            try {
+                messageDAO.updateMessage(message.getMessage_id(), "waiting");
+                Assert.fail("the row is locked by the other transaction");
+            } catch (TransientDataAccessException e) {
+                Assert.assertTrue(e.getMessage().startsWith("MessageDAO.updateMessage failed: "));
+            } finally {
+                other.rollback();
+            }
+        }
+        Assert.assertEquals("waiting", messageDAO.updateMessage(message.getMessage_id(), "waiting").getMessage_text());
+    }
+
+    @Test
+    public void retriesTransientFailuresUpToTheLimit() {
+        RetryPolicy retry = new RetryPolicy(3, 1, 5);
+        AtomicInteger attempts = new AtomicInteger();
+        String result = retry.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new TransientDataAccessException("lock timeout", new SQLException("timeout", "HYT00"));
+            }
+            return "done";
+        });
+        Assert.assertEquals("done", result);
+        Assert.assertEquals(2, retry.getRetries());
+
+        attempts.set(0);
+        try {
+            retry.call(() -> {
+                attempts.incrementAndGet();
+                throw new TransientDataAccessException("lock timeout", new SQLException("timeout", "HYT00"));
+            });
+            Assert.fail();
+        } catch (TransientDataAccessException e) {
+            Assert.assertEquals(3, attempts.get());
+            Assert.assertEquals(1, retry.getExhausted());
+        }
+    }
+
+    /**
+     * Failures that would fail the same way again are not retried.
+     */
+    @Test
+    public void failsFastOnEverythingElse() {
+        RetryPolicy retry = new RetryPolicy(3, 1, 5);
+        List<RuntimeException> failures = List.of(
+                DataAccessException.translate("x", new SQLException("duplicate", "23505")),
+                DataAccessException.translate("x", new SQLException("no parent", "23506")),
+                DataAccessException.translate("x", new SQLException("syntax", "42000")),
+                new OverloadedException("shed"));
+        for (RuntimeException failure : failures) {
+            AtomicInteger attempts = new AtomicInteger();
+            try {
+                retry.call(() -> {
+                    attempts.incrementAndGet();
+                    throw failure;
+                });
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertSame(failure, e);
+                Assert.assertEquals(1, attempts.get());
+            }
+        }
+        Assert.assertTrue(failures.get(1) instanceof ConstraintViolationException);
+        Assert.assertFalse(failures.get(1) instanceof DuplicateKeyException);
+        Assert.assertEquals(DataAccessException.class, failures.get(2).getClass());
+        Assert.assertEquals(0, retry.getRetries());
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.FlightRecording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecordingTest {
+    @Rule
+    public MessageDatabase database = new MessageDatabase("recording");
+
+    MessageDAO messageDAO;
+    FlightRecording recording;
+
+    @Before
+    public void setUp() {
+        messageDAO = new MessageDAO(database.getShards());
+        recording = new FlightRecording();
+    }
+
+    @After
+    public void tearDown() {
+        recording.stop();
+    }
+
+    /**
+     * DAO statements and connection acquisitions made while recording show
+     * up in the dump, with their statement id and row count.
+     */
+    @Test
+    public void recordsStatementEvents() throws IOException {
+        Assert.assertTrue(recording.start("default", Duration.ofMinutes(1)));
+        Assert.assertFalse("only one recording runs at a time", recording.start("default", Duration.ofMinutes(1)));
+        Message message = messageDAO.insertMessage(new Message(1, "recorded", 1669947792L));
+        messageDAO.getMessageById(message.getMessage_id());
+        Assert.assertTrue(recording.stop());
+
+        Path file = recording.dump();
+        List<RecordedEvent> statements = new ArrayList<>();
+        int connections = 0;
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                // background threads, such as the purger, record statements of their own
+                if (event.getThread() == null
+                        || !Thread.currentThread().getName().equals(event.getThread().getJavaName())) {
+                    continue;
+                }
+                String name = event.getEventType().getName();
+                if (name.equals("socialmedia.Statement")) {
+                    statements.add(event);
+                } else if (name.equals("socialmedia.ConnectionAcquire")) {
+                    connections++;
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+        Assert.assertEquals(2, statements.size());
+        Assert.assertEquals("MessageDAO.insertMessage", statements.get(0).getString("id"));
+        Assert.assertEquals("MessageDAO.getMessageById", statements.get(1).getString("id"));
+        Assert.assertEquals(1, statements.get(1).getInt("rows"));
+        Assert.assertEquals(2, connections);
+    }
+
+    @Test
+    public void nothingToDumpBeforeStart() throws IOException {
+        Assert.assertNull(recording.dump());
+        Assert.assertEquals("NEW", recording.getState());
+    }
+}
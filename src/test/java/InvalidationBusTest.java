@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageService;
+import Service.SingleFlight;
+import Service.Transactions;
+import Util.InvalidationBus;
+import Util.LocalInvalidationBus;
+import Util.UdpInvalidationBus;
+
+/**
+ * Instances tell each other the keys they wrote over an invalidation bus,
+ * batched and each key once per batch, and a lost UDP datagram makes the
+ * receiver invalidate everything.
+ */
+public class InvalidationBusTest {
+    @Rule
+    public MessageDatabase database = new MessageDatabase("invalidations");
+
+    @Test
+    public void keysAreBatchedAndCoalesced() throws InterruptedException {
+        LocalInvalidationBus.Hub hub = new LocalInvalidationBus.Hub();
+        try (LocalInvalidationBus a = new LocalInvalidationBus(hub, 50);
+                LocalInvalidationBus b = new LocalInvalidationBus(hub, 50);
+                LocalInvalidationBus c = new LocalInvalidationBus(hub, 50)) {
+            BlockingQueue<Set<String>> atA = subscribe(a);
+            BlockingQueue<Set<String>> atB = subscribe(b);
+            BlockingQueue<Set<String>> atC = subscribe(c);
+            for (int i = 0; i < 3; i++) {
+                a.publish("message:1");
+                a.publish("messages");
+            }
+            a.publish("account-messages:1");
+
+            Set<String> expected = keys("message:1", "messages", "account-messages:1");
+            Assert.assertEquals(expected, atB.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(expected, atC.poll(5, TimeUnit.SECONDS));
+            Assert.assertNull(atB.poll(200, TimeUnit.MILLISECONDS));
+            Assert.assertTrue(atA.isEmpty());
+            Assert.assertEquals(7, a.getPublished());
+            Assert.assertEquals(4, a.getCoalesced());
+            Assert.assertEquals(1, a.getSent());
+        }
+    }
+
+    @Test
+    public void largeBatchesInvalidateEverything() throws InterruptedException {
+        LocalInvalidationBus.Hub hub = new LocalInvalidationBus.Hub();
+        try (LocalInvalidationBus a = new LocalInvalidationBus(hub, 50);
+                LocalInvalidationBus b = new LocalInvalidationBus(hub, 50)) {
+            BlockingQueue<Set<String>> atB = subscribe(b);
+            for (int i = 0; i < 1000; i++) {
+                a.publish("message:" + i);
+            }
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void allForgetsEveryRunningRead() throws InterruptedException {
+        LocalInvalidationBus.Hub hub = new LocalInvalidationBus.Hub();
+        SingleFlight singleFlight = SingleFlight.shared();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread reader = new Thread(() -> singleFlight.execute("message:9", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "before";
+        }));
+        try (LocalInvalidationBus a = new LocalInvalidationBus(hub, 10);
+                LocalInvalidationBus b = new LocalInvalidationBus(hub, 10)) {
+            new MessageService(null, null, new Transactions(Connection.TRANSACTION_READ_COMMITTED), b);
+            BlockingQueue<Set<String>> atB = subscribe(b);
+            reader.start();
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            a.publish(InvalidationBus.ALL);
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals("after", singleFlight.execute("message:9", () -> "after"));
+        } finally {
+            release.countDown();
+            reader.join();
+        }
+    }
+
+    @Test
+    public void writesOfOneInstanceReachTheOthers() throws InterruptedException {
+        LocalInvalidationBus.Hub hub = new LocalInvalidationBus.Hub();
+        try (LocalInvalidationBus a = new LocalInvalidationBus(hub, 10);
+                LocalInvalidationBus b = new LocalInvalidationBus(hub, 10)) {
+            MessageService writer = new MessageService(new MessageDAO(database.getShards(), null),
+                    new AccountDAO(database.getShards()), database.getTransactions(), a);
+            BlockingQueue<Set<String>> atB = subscribe(b);
+
+            Message message = writer.addMessage(new Message(7, "posted", 1669947792L));
+            Assert.assertEquals(keys("messages", "account-messages:7"), atB.poll(5, TimeUnit.SECONDS));
+            writer.updateMessage(message.getMessage_id(), "updated");
+            Assert.assertEquals(keys("messages", "account-messages:7", "message:" + message.getMessage_id()),
+                    atB.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void udpPeersDeliverAndDetectLostDatagrams() throws IOException, InterruptedException {
+        int portA = freePort();
+        int portB = freePort();
+        try (DatagramSocket other = new DatagramSocket();
+                DatagramSocket stranger = new DatagramSocket();
+                UdpInvalidationBus a = new UdpInvalidationBus(portA,
+                        List.of(new InetSocketAddress("127.0.0.1", portB)), 10, 60000);
+                UdpInvalidationBus b = new UdpInvalidationBus(portB, List.of(new InetSocketAddress("127.0.0.1", portA),
+                        new InetSocketAddress("127.0.0.1", other.getLocalPort())), 10, 60000)) {
+            BlockingQueue<Set<String>> atB = subscribe(b);
+            a.publish("message:1");
+            a.publish("messages");
+            Assert.assertEquals(keys("message:1", "messages"), atB.poll(5, TimeUnit.SECONDS));
+
+            // another instance, whose second batch and fourth batch are lost
+            send(other, portB, "42 1\nmessage:2");
+            Assert.assertEquals(keys("message:2"), atB.poll(5, TimeUnit.SECONDS));
+            send(other, portB, "42 3\nmessage:3");
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+            send(other, portB, "42 3\nmessage:3");
+            send(other, portB, "42 4");
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+            send(other, portB, "42 4");
+            send(other, portB, "not a datagram of the bus");
+            Assert.assertNull(atB.poll(200, TimeUnit.MILLISECONDS));
+
+            // instances first heard from after their first batch was lost
+            send(other, portB, "43 2\nmessage:4");
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+            send(other, portB, "44 1");
+            Assert.assertEquals(keys(InvalidationBus.ALL), atB.poll(5, TimeUnit.SECONDS));
+            send(other, portB, "45 0");
+            Assert.assertNull(atB.poll(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(4, b.getGaps());
+
+            // a sender that is not a peer
+            send(stranger, portB, "46 1\nmessage:5");
+            send(stranger, portB, "46 3\nmessage:6");
+            Assert.assertNull(atB.poll(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, b.getRejected());
+            Assert.assertEquals(4, b.getGaps());
+        }
+    }
+
+    private static BlockingQueue<Set<String>> subscribe(InvalidationBus bus) {
+        BlockingQueue<Set<String>> batches = new LinkedBlockingQueue<>();
+        bus.subscribe(batches::add);
+        return batches;
+    }
+
+    private static Set<String> keys(String... keys) {
+        return new LinkedHashSet<>(Arrays.asList(keys));
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void send(DatagramSocket socket, int port, String datagram) throws IOException {
+        byte[] bytes = datagram.getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(bytes, bytes.length, new InetSocketAddress("127.0.0.1", port)));
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Util.JsonLogAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+
+public class JsonLogAppenderTest {
+    LoggerContext context;
+    JsonLogAppender appender;
+    ByteArrayOutputStream output;
+
+    @Before
+    public void setUp() {
+        context = new LoggerContext();
+        appender = new JsonLogAppender();
+        appender.setContext(context);
+        output = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() {
+        appender.stop();
+        MDC.clear();
+    }
+
+    private Logger logger() {
+        Logger logger = context.getLogger("DAO.MessageDAO");
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        return logger;
+    }
+
+    private List<JsonNode> lines() throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(mapper.readTree(line));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Every line is a JSON object carrying the MDC of the logging thread.
+     */
+    @Test
+    public void writesJsonLinesWithTheMdc() throws IOException {
+        appender.setCapacity(16);
+        appender.setOutputStream(output);
+        appender.start();
+        Logger logger = logger();
+
+        MDC.put("requestId", "abc-123");
+        MDC.put("route", "PATCH /messages/{message_id}");
+        logger.error("MessageDAO.updateMessage failed: {}", "Timeout trying to lock table \"MESSAGE\"");
+        MDC.clear();
+        logger.info("no request");
+        appender.stop();
+
+        List<JsonNode> lines = lines();
+        Assert.assertEquals(2, lines.size());
+        JsonNode error = lines.get(0);
+        Assert.assertEquals("ERROR", error.get("level").asText());
+        Assert.assertEquals("DAO.MessageDAO", error.get("logger").asText());
+        Assert.assertEquals("MessageDAO.updateMessage failed: Timeout trying to lock table \"MESSAGE\"",
+                error.get("message").asText());
+        Assert.assertEquals("abc-123", error.get("requestId").asText());
+        Assert.assertEquals("PATCH /messages/{message_id}", error.get("route").asText());
+        Assert.assertFalse(lines.get(1).has("requestId"));
+        Assert.assertEquals(2, appender.getWritten());
+    }
+
+    /**
+     * While the writer is stuck, logging does not block: events that do not
+     * fit in the ring buffer are dropped, counted and reported once the
+     * writer catches up.
+     */
+    @Test
+    public void dropsAndCountsWhenFull() throws IOException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        appender.setCapacity(4);
+        appender.setOutputStream(new FilterOutputStream(output) {
+            @Override
+            public void flush() throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.flush();
+            }
+        });
+        appender.start();
+        Logger logger = logger();
+
+        for (int i = 0; i < 100; i++) {
+            logger.error("error {}", i);
+        }
+        Assert.assertTrue(appender.getDropped() > 0);
+        release.countDown();
+        appender.stop();
+
+        Assert.assertEquals(100, appender.getWritten() + appender.getDropped());
+        List<JsonNode> lines = lines();
+        // the writer reports the drops it saw whenever the buffer ran empty
+        long reported = 0;
+        for (JsonNode line : lines) {
+            if (line.has("dropped")) {
+                Assert.assertEquals("WARN", line.get("level").asText());
+                reported += line.get("dropped").asLong();
+            }
+        }
+        Assert.assertEquals(appender.getDropped(), reported);
+        Assert.assertEquals("error 0", lines.get(0).get("message").asText());
+    }
+}
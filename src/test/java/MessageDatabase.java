@@ -0,0 +1,85 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.rules.ExternalResource;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Service.MessageService;
+import Service.Transactions;
+import Util.ConnectionUtil;
+import Util.MessageShards;
+
+/**
+ * The MessageDatabase rule runs each test of a service or DAO test against
+ * the reset main test database and one message shard of its own, an
+ * in-memory H2 database that is dropped after the test.
+ */
+public class MessageDatabase extends ExternalResource {
+    private final String url;
+    private JdbcConnectionPool pool;
+    private MessageShards shards;
+    private Transactions transactions;
+
+    /**
+     * @param name the name of the in-memory shard database.
+     */
+    public MessageDatabase(String name) {
+        this(name, "");
+    }
+
+    /**
+     * @param name     the name of the in-memory shard database.
+     * @param settings more H2 URL settings, such as ";LOCK_TIMEOUT=100".
+     */
+    public MessageDatabase(String name, String settings) {
+        this.url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1" + settings;
+    }
+
+    @Override
+    protected void before() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        pool = JdbcConnectionPool.create(url, "sa", "sa");
+        shards = new MessageShards(List.<DataSource>of(pool));
+        shards.initShards(true);
+        transactions = new Transactions(Connection.TRANSACTION_READ_COMMITTED);
+    }
+
+    @Override
+    protected void after() {
+        try (Connection connection = pool.getConnection()) {
+            connection.createStatement().execute("DROP ALL OBJECTS");
+        } catch (SQLException e) {
+            throw new IllegalStateException("cannot drop " + url, e);
+        } finally {
+            pool.dispose();
+        }
+    }
+
+    public JdbcConnectionPool getPool() {
+        return pool;
+    }
+
+    public MessageShards getShards() {
+        return shards;
+    }
+
+    /**
+     * @return the read-committed units of work of the services of the test.
+     */
+    public Transactions getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @param messageDAO the messages, in the shard of this database.
+     * @return a service over the messages and the accounts of this database.
+     */
+    public MessageService messageService(MessageDAO messageDAO) {
+        return new MessageService(messageDAO, new AccountDAO(shards), transactions);
+    }
+}
@@ -0,0 +1,135 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.ConcurrencyLimiter;
+import Service.MessagePurger;
+import Service.MessageService;
+import Service.Transactions;
+
+/**
+ * Deleted messages are tombstones every read skips until the purger removes
+ * them, in batches and only while the database is not busy.
+ */
+public class MessagePurgerTest {
+    @Rule
+    public MessageDatabase database = new MessageDatabase("purge");
+
+    MessageDAO messageDAO;
+    Transactions transactions;
+    MessageService messageService;
+
+    @Before
+    public void setUp() {
+        messageDAO = new MessageDAO(database.getShards());
+        transactions = database.getTransactions();
+        messageService = database.messageService(messageDAO);
+    }
+
+    @Test
+    public void deletesLeaveTombstonesUntilPurged() throws SQLException {
+        for (int i = 0; i < 25; i++) {
+            Message message = messageDAO.insertMessage(new Message(1, "message " + i, 1669947792L + i));
+            if (i >= 5) {
+                Assert.assertEquals(message, messageService.deleteMessage(message.getMessage_id()));
+                Assert.assertNull(messageService.getMessage(message.getMessage_id()));
+                Assert.assertNull(messageService.updateMessage(message.getMessage_id(), "too late"));
+                Assert.assertNull(messageService.deleteMessage(message.getMessage_id()));
+            }
+        }
+        Assert.assertEquals(5, messageService.getAllMessages().size());
+        AccountDAO accountDAO = new AccountDAO(database.getShards());
+        Assert.assertEquals(5, accountDAO.getAccountMessages(1).size());
+        Assert.assertEquals(25, rows());
+
+        MessagePurger purger = new MessagePurger(messageDAO, transactions, new ConcurrencyLimiter(4, 1, 4, 2.0), 8,
+                1.0, 0);
+        Assert.assertEquals(8, purger.purge());
+        Assert.assertEquals(12, purger.getBacklog());
+        Assert.assertEquals(8, purger.purge());
+        Assert.assertEquals(4, purger.purge());
+        Assert.assertEquals(0, purger.purge());
+        Assert.assertEquals(0, purger.getBacklog());
+        Assert.assertEquals(20, purger.getPurged());
+        Assert.assertEquals(5, rows());
+        Assert.assertEquals(5, messageService.getAllMessages().size());
+    }
+
+    @Test
+    public void busyDatabaseSkipsPurging() throws InterruptedException {
+        Message message = messageDAO.insertMessage(new Message(1, "deleted", 1669947792L));
+        messageService.deleteMessage(message.getMessage_id());
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 4, 2.0);
+        MessagePurger purger = new MessagePurger(messageDAO, transactions, limiter, 8, 0.0, 0);
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread request = new Thread(() -> limiter.call(ConcurrencyLimiter.Priority.READ, () -> {
+            inFlight.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        request.start();
+        inFlight.await();
+        Assert.assertEquals(-1, purger.purge());
+        Assert.assertEquals(1, purger.getSkipped());
+
+        release.countDown();
+        request.join();
+        Assert.assertEquals(1, purger.purge());
+        Assert.assertEquals(0, purger.getBacklog());
+    }
+
+    /**
+     * A pass that fails with an unexpected exception is logged, and the next
+     * scheduled pass runs anyway.
+     */
+    @Test
+    public void failedPassKeepsTheSchedule() throws InterruptedException, SQLException {
+        Message message = messageDAO.insertMessage(new Message(1, "deleted", 1669947792L));
+        messageService.deleteMessage(message.getMessage_id());
+        AtomicBoolean failed = new AtomicBoolean();
+        MessageDAO failingOnce = new MessageDAO(database.getShards()) {
+            @Override
+            public long countDeleted(int shard) {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("unexpected");
+                }
+                return super.countDeleted(shard);
+            }
+        };
+
+        try (MessagePurger purger = new MessagePurger(failingOnce, transactions, new ConcurrencyLimiter(4, 1, 4, 2.0),
+                8, 1.0, 10)) {
+            for (int i = 0; i < 200 && purger.getPasses() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(failed.get());
+            Assert.assertTrue(purger.getPasses() > 0);
+            Assert.assertEquals(0, purger.getBacklog());
+            Assert.assertEquals(0, rows());
+        }
+    }
+
+    private int rows() throws SQLException {
+        try (Connection connection = database.getPool().getConnection()) {
+            ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM message");
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.MessageShards;
+import Util.SnowflakeIdGenerator;
+
+/**
+ * Runs the message DAOs over three in-memory H2 shard databases.
+ */
+public class MessageShardsTest {
+    List<JdbcConnectionPool> pools;
+    MessageShards shards;
+    MessageDAO messageDAO;
+    AccountDAO accountDAO;
+
+    @Before
+    public void setUp() throws SQLException {
+        pools = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pools.add(JdbcConnectionPool.create("jdbc:h2:mem:shard" + i + ";DB_CLOSE_DELAY=-1", "sa", "sa"));
+        }
+        shards = new MessageShards(new ArrayList<DataSource>(pools));
+        shards.initShards(true);
+        messageDAO = new MessageDAO(shards);
+        accountDAO = new AccountDAO(shards);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        for (JdbcConnectionPool pool : pools) {
+            try (Connection connection = pool.getConnection()) {
+                connection.createStatement().execute("DROP ALL OBJECTS");
+            }
+            pool.dispose();
+        }
+    }
+
+    /**
+     * Every message is stored in the shard of its account, and its id is
+     * unique and names that same shard.
+     */
+    @Test
+    public void messagesAreStoredInTheShardOfTheirAccount() throws SQLException {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 60; i++) {
+            Message message = messageDAO.insertMessage(new Message(1 + i % 20, "message " + i, 1669947792L + i));
+            Assert.assertTrue(ids.add(message.getMessage_id()));
+            Assert.assertEquals(shards.forAccount(message.getPosted_by()), shards.forMessage(message.getMessage_id()));
+        }
+        int[] rows = new int[3];
+        for (int shard = 0; shard < 3; shard++) {
+            try (Connection connection = shards.getReadConnection(shard)) {
+                ResultSet rs = connection.createStatement().executeQuery("SELECT posted_by FROM message");
+                while (rs.next()) {
+                    Assert.assertEquals(shard, shards.forAccount(rs.getInt(1)));
+                    rows[shard]++;
+                }
+            }
+        }
+        for (int count : rows) {
+            Assert.assertTrue("accounts are spread over every shard", count > 0);
+        }
+    }
+
+    /**
+     * The messages of all shards are merged in time_posted_epoch order.
+     */
+    @Test
+    public void allMessagesAreMergedByTime() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            messageDAO.insertMessage(new Message(1 + random.nextInt(20), "message " + i, random.nextInt(1000)));
+        }
+        List<Message> messages = messageDAO.getAllMessages();
+        Assert.assertEquals(100, messages.size());
+        for (int i = 1; i < messages.size(); i++) {
+            Assert.assertTrue(messages.get(i - 1).getTime_posted_epoch() <= messages.get(i).getTime_posted_epoch());
+        }
+    }
+
+    /**
+     * A single shard returns all messages in the order the merge of several
+     * shards does, by time_posted_epoch and then message_id.
+     */
+    @Test
+    public void oneShardOrdersAllMessagesAsTheMerge() throws SQLException {
+        JdbcConnectionPool pool = JdbcConnectionPool.create("jdbc:h2:mem:oneshard;DB_CLOSE_DELAY=-1", "sa", "sa");
+        try {
+            MessageShards one = new MessageShards(List.<DataSource>of(pool));
+            one.initShards(true);
+            MessageDAO dao = new MessageDAO(one);
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                dao.insertMessage(new Message(1 + random.nextInt(20), "message " + i, random.nextInt(20)));
+            }
+            List<Message> messages = dao.getAllMessages();
+            Assert.assertEquals(100, messages.size());
+            for (int i = 1; i < messages.size(); i++) {
+                Message previous = messages.get(i - 1);
+                Message message = messages.get(i);
+                Assert.assertTrue(previous.getTime_posted_epoch() < message.getTime_posted_epoch()
+                        || previous.getTime_posted_epoch() == message.getTime_posted_epoch()
+                                && previous.getMessage_id() < message.getMessage_id());
+            }
+        } finally {
+            try (Connection connection = pool.getConnection()) {
+                connection.createStatement().execute("DROP ALL OBJECTS");
+            }
+            pool.dispose();
+        }
+    }
+
+    /**
+     * Lookups, updates and deletes by id and per-account queries find the
+     * right shard.
+     */
+    @Test
+    public void queriesFindTheRightShard() {
+        List<Message> inserted = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            inserted.add(messageDAO.insertMessage(new Message(1 + i % 10, "message " + i, 1669947792L + i)));
+        }
+        for (Message message : inserted) {
+            Assert.assertEquals(message, messageDAO.getMessageById(message.getMessage_id()));
+        }
+        List<Message> account = accountDAO.getAccountMessages(3);
+        Assert.assertEquals(3, account.size());
+        for (Message message : account) {
+            Assert.assertEquals(3, message.getPosted_by());
+        }
+
+        Message first = inserted.get(0);
+        Assert.assertEquals("updated", messageDAO.updateMessage(first.getMessage_id(), "updated").getMessage_text());
+        Assert.assertEquals(first.getMessage_id(), messageDAO.deleteMessageById(first.getMessage_id()).getMessage_id());
+        Assert.assertNull(messageDAO.getMessageById(first.getMessage_id()));
+        Assert.assertEquals(29, messageDAO.getAllMessages().size());
+    }
+
+    /**
+     * With ids generated by the application, each id still names the shard of
+     * its message, and ids grow with insertion order.
+     */
+    @Test
+    public void snowflakeIdsNameTheirShard() throws SQLException {
+        shards = new MessageShards(new ArrayList<DataSource>(pools), new SnowflakeIdGenerator(1, 3));
+        messageDAO = new MessageDAO(shards);
+        long previous = 0;
+        for (int i = 0; i < 30; i++) {
+            Message message = messageDAO.insertMessage(new Message(1 + i % 10, "message " + i, 1669947792L + i));
+            Assert.assertTrue(message.getMessage_id() > Integer.MAX_VALUE);
+            Assert.assertEquals(shards.forAccount(message.getPosted_by()), shards.forMessage(message.getMessage_id()));
+            Assert.assertEquals(message, messageDAO.getMessageById(message.getMessage_id()));
+            if (shards.forAccount(message.getPosted_by()) == 0) {
+                Assert.assertTrue(message.getMessage_id() > previous);
+                previous = message.getMessage_id();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Messages carry a version, incremented by every update and served as their
+ * ETag, and PATCH and DELETE with an If-Match header only apply to the
+ * version the client has seen.
+ */
+public class MessageVersionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Test
+    public void getServesTheVersionAsETag() throws IOException, InterruptedException {
+        HttpResponse<String> response = get(null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("W/\"0\"", response.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> notModified = get("W/\"0\"");
+        Assert.assertEquals(304, notModified.statusCode());
+        notModified = get("\"0\"");
+        Assert.assertEquals(304, notModified.statusCode());
+        Assert.assertEquals("", notModified.body());
+
+        Assert.assertEquals(200, patch("updated", "\"0\"").statusCode());
+        HttpResponse<String> modified = get("\"0\"");
+        Assert.assertEquals(200, modified.statusCode());
+        Assert.assertEquals("W/\"1\"", modified.headers().firstValue("ETag").orElse(null));
+    }
+
+    @Test
+    public void patchWithAStaleVersionFails() throws IOException, InterruptedException {
+        HttpResponse<String> first = patch("first", "\"0\"");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("W/\"1\"", first.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals(new Message(1, 1, "first", 1669947792), objectMapper.readValue(first.body(), Message.class));
+
+        // a second client still holding version 0
+        HttpResponse<String> second = patch("second", "\"0\"");
+        Assert.assertEquals(412, second.statusCode());
+        Assert.assertEquals("", second.body());
+        Assert.assertEquals(new Message(1, 1, "first", 1669947792),
+                objectMapper.readValue(get(null).body(), Message.class));
+
+        // the ETag as served, weak, is accepted back in If-Match
+        Assert.assertEquals(200, patch("second", "W/\"1\"").statusCode());
+        Assert.assertEquals(200, patch("unconditional", null).statusCode());
+        Assert.assertEquals("W/\"3\"", get(null).headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals(412, patch("garbage", "\"not a version\"").statusCode());
+    }
+
+    @Test
+    public void deleteWithAStaleVersionFails() throws IOException, InterruptedException {
+        Assert.assertEquals(200, patch("updated", null).statusCode());
+        Assert.assertEquals(412, delete("\"0\"").statusCode());
+        Assert.assertEquals(200, get(null).statusCode());
+
+        HttpResponse<String> deleted = delete("\"1\"");
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals(new Message(1, 1, "updated", 1669947792),
+                objectMapper.readValue(deleted.body(), Message.class));
+
+        // If-Match asks for a current version, there is none
+        Assert.assertEquals(412, delete("*").statusCode());
+        Assert.assertEquals(412, patch("gone", "*").statusCode());
+        Assert.assertEquals(200, delete(null).statusCode());
+    }
+
+    private HttpResponse<String> get(String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1"));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> patch(String text, String ifMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json");
+        if (ifMatch != null) {
+            request.header("If-Match", ifMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> delete(String ifMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE();
+        if (ifMatch != null) {
+            request.header("If-Match", ifMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * /health answers as long as the server runs, /ready only once it is warmed
+ * up and the database answers, and /diagnostics only to the admin: the
+ * holder of socialmedia.admin.token, or without one the local machine.
+ */
+public class ProbeEndpointsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    private void start(String... arguments) throws InterruptedException {
+        AppConfig.init(arguments);
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        AppConfig.init(new String[0]);
+    }
+
+    @Test
+    public void readyOnceWarmedUp() throws IOException, InterruptedException {
+        start();
+        socialMediaController.setReady(false);
+        assertAnswer(200, "ok", get("/health"));
+        assertAnswer(503, "starting", get("/ready"));
+        HttpResponse<String> messages = get("/messages");
+        Assert.assertEquals(503, messages.statusCode());
+        Assert.assertEquals("1", messages.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals(200, get("/diagnostics").statusCode());
+
+        socialMediaController.setReady(true);
+        assertAnswer(200, "ready", get("/ready"));
+        Assert.assertEquals(200, get("/messages").statusCode());
+    }
+
+    @Test
+    public void notReadyWhileTheDatabaseIsDown() throws IOException, InterruptedException {
+        start();
+        socialMediaController.setDatabaseCheck(() -> false);
+        assertAnswer(503, "database unavailable", get("/ready"));
+        assertAnswer(200, "ok", get("/health"));
+
+        socialMediaController.setDatabaseCheck(() -> true);
+        assertAnswer(200, "ready", get("/ready"));
+    }
+
+    @Test
+    public void diagnosticsNeedTheAdminToken() throws IOException, InterruptedException {
+        start("--admin.token=open-sesame");
+        Assert.assertEquals(403, get("/diagnostics").statusCode());
+        Assert.assertEquals(403, send(request("/diagnostics").header("X-Admin-Token", "open")).statusCode());
+        Assert.assertEquals(403, get("/diagnostics/traces").statusCode());
+        Assert.assertEquals(403, send(request("/diagnostics/recording/start").POST(
+                HttpRequest.BodyPublishers.noBody())).statusCode());
+
+        HttpResponse<String> diagnostics = send(request("/diagnostics").header("X-Admin-Token", "open-sesame"));
+        Assert.assertEquals(200, diagnostics.statusCode());
+        Assert.assertEquals("no-store", diagnostics.headers().firstValue("Cache-Control").orElse(null));
+        JsonNode snapshot = new ObjectMapper().readTree(diagnostics.body());
+        Assert.assertTrue(snapshot.has("jvm"));
+        Assert.assertTrue(snapshot.has("database"));
+        Assert.assertTrue(snapshot.has("services"));
+    }
+
+    /**
+     * Without a token, a request to an address of this machine other than
+     * loopback arrives from that address and is refused.
+     */
+    @Test
+    public void withoutATokenOnlyLoopbackIsAdmin() throws IOException, InterruptedException {
+        start();
+        Assert.assertEquals(200, get("/diagnostics").statusCode());
+
+        InetAddress address = siteAddress();
+        Assume.assumeNotNull(address);
+        HttpResponse<String> remote = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://" + address.getHostAddress() + ":8080/diagnostics")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(403, remote.statusCode());
+    }
+
+    private static InetAddress siteAddress() throws SocketException {
+        for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!network.isUp() || network.isLoopback()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+                    return address;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void assertAnswer(int status, String body, HttpResponse<String> response) {
+        Assert.assertEquals(status, response.statusCode());
+        Assert.assertEquals(body, response.body());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(request(path));
+    }
+
+    private static HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+/**
+ * Every limit and key has a bucket of its own that allows a burst and then
+ * the sustained rate, telling refused callers how long to wait. Buckets that
+ * are full again are evicted once there are too many. The clock is a
+ * counter the tests move.
+ */
+public class RateLimiterTest {
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    AtomicLong clock;
+
+    @Before
+    public void setUp() {
+        clock = new AtomicLong();
+    }
+
+    /**
+     * Two requests per second with a burst of three: three go through at
+     * once, the fourth has to wait half a second.
+     */
+    @Test
+    public void burstThenRate() {
+        RateLimiter rateLimiter = new RateLimiter(10, clock::get);
+        RateLimiter.Limit limit = new RateLimiter.Limit("test", 2, 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:1"));
+        }
+        Assert.assertEquals(SECOND / 2, rateLimiter.tryAcquire(limit, "ip:1"));
+
+        clock.addAndGet(SECOND / 4);
+        Assert.assertEquals(SECOND / 4, rateLimiter.tryAcquire(limit, "ip:1"));
+        clock.addAndGet(SECOND / 4);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:1"));
+        Assert.assertEquals(SECOND / 2, rateLimiter.tryAcquire(limit, "ip:1"));
+        Assert.assertEquals(4, rateLimiter.getAllowed());
+        Assert.assertEquals(3, rateLimiter.getLimited());
+    }
+
+    /**
+     * Exhausting the bucket of one IP for one limit leaves other IPs, other
+     * accounts and other limits alone.
+     */
+    @Test
+    public void bucketsArePerLimitAndKey() {
+        RateLimiter rateLimiter = new RateLimiter(10, clock::get);
+        RateLimiter.Limit login = new RateLimiter.Limit("login", 1, 1);
+        RateLimiter.Limit register = new RateLimiter.Limit("register", 1, 1);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(login, "ip:1"));
+        Assert.assertEquals(SECOND, rateLimiter.tryAcquire(login, "ip:1"));
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(login, "ip:2"));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(login, "account:1"));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(register, "ip:1"));
+        Assert.assertEquals(SECOND, rateLimiter.tryAcquire(login, "account:1"));
+        Assert.assertEquals(4, rateLimiter.size());
+    }
+
+    /**
+     * At the bucket limit, buckets that are full again are evicted to make
+     * room. While none is, new keys share the overflow bucket of the limit.
+     */
+    @Test
+    public void idleBucketsAreEvicted() {
+        RateLimiter rateLimiter = new RateLimiter(2, clock::get);
+        RateLimiter.Limit limit = new RateLimiter.Limit("test", 1, 1);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:1"));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:2"));
+
+        clock.addAndGet(SECOND / 2);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:3"));
+        Assert.assertEquals(SECOND, rateLimiter.tryAcquire(limit, "ip:4"));
+        Assert.assertEquals(2, rateLimiter.size());
+
+        clock.addAndGet(SECOND / 2);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(limit, "ip:5"));
+        Assert.assertEquals(1, rateLimiter.size());
+
+        clock.addAndGet(SECOND);
+        rateLimiter.evictIdle(clock.get());
+        Assert.assertEquals(0, rateLimiter.size());
+    }
+
+    /**
+     * A request over its limit is answered with 429 and a Retry-After in
+     * whole seconds, rounded up. Other routes have limits of their own.
+     */
+    @Test
+    public void limitedRequestsAreTooManyRequests() throws IOException, InterruptedException {
+        AppConfig.init(new String[] { "--ratelimit.default=0.2/1" });
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            HttpRequest list = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages")).build();
+            Assert.assertEquals(200, webClient.send(list, HttpResponse.BodyHandlers.ofString()).statusCode());
+            HttpResponse<String> limited = webClient.send(list, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(429, limited.statusCode());
+            Assert.assertEquals("5", limited.headers().firstValue("Retry-After").orElse(null));
+
+            Assert.assertEquals(200, post(webClient, "/register", "testuser2", "password2").statusCode());
+        } finally {
+            app.stop();
+            AppConfig.init(new String[0]);
+        }
+    }
+
+    private static HttpResponse<String> post(HttpClient webClient, String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", "
+                        + "\"password\": \"" + password + "\"}"))
+                .header("Content-Type", "application/json").build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
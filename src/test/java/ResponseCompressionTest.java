@@ -0,0 +1,102 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ResponseCache;
+import Util.ResponseCompression;
+import Util.ResponseCompression.Encoding;
+
+/**
+ * Bodies over the threshold are compressed with the coding the client
+ * weighs highest and the level of their route, and a cached page keeps its
+ * compressed forms.
+ */
+public class ResponseCompressionTest {
+    static final byte[] BODY = "{\"message_text\": \"test message 1\"}, ".repeat(100)
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void theHighestWeightWins() {
+        Assert.assertNull(ResponseCompression.negotiate(null));
+        Assert.assertNull(ResponseCompression.negotiate("identity"));
+        Assert.assertEquals(Encoding.GZIP, ResponseCompression.negotiate("gzip, deflate"));
+        Assert.assertEquals(Encoding.GZIP, ResponseCompression.negotiate("deflate, gzip"));
+        Assert.assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+        Assert.assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("deflate;q=0.8, gzip;q=0.2, br"));
+        Assert.assertEquals(Encoding.GZIP, ResponseCompression.negotiate("GZIP; q=0.9, deflate;q=0.4"));
+    }
+
+    @Test
+    public void zeroWeightsAreRefused() {
+        Assert.assertNull(ResponseCompression.negotiate("gzip;q=0"));
+        Assert.assertNull(ResponseCompression.negotiate("gzip;q=abc, deflate;q=0"));
+        Assert.assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0, deflate;q=0.1"));
+    }
+
+    /**
+     * "*" stands for the codings the header does not list.
+     */
+    @Test
+    public void wildcardCoversUnlistedCodings() {
+        Assert.assertEquals(Encoding.GZIP, ResponseCompression.negotiate("*"));
+        Assert.assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0, *"));
+        Assert.assertEquals(Encoding.GZIP, ResponseCompression.negotiate("deflate;q=0.1, *;q=0.5"));
+        Assert.assertNull(ResponseCompression.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void smallBodiesAreNotCompressed() {
+        ResponseCompression compression = new ResponseCompression(1024, 6);
+        Assert.assertFalse(compression.shouldCompress(1023));
+        Assert.assertTrue(compression.shouldCompress(1024));
+    }
+
+    /**
+     * A route with a level of its own uses it, the others the default.
+     */
+    @Test
+    public void routesHaveTheirOwnLevel() throws IOException {
+        ResponseCompression compression = new ResponseCompression(1024, 6).routeLevel("/messages", 1);
+        Assert.assertEquals(1, compression.levelFor("/messages"));
+        Assert.assertEquals(6, compression.levelFor("/messages/{message_id}"));
+
+        byte[] fast = ResponseCompression.compress(BODY, Encoding.GZIP, compression.levelFor("/messages"));
+        byte[] small = ResponseCompression.compress(BODY, Encoding.GZIP, 9);
+        Assert.assertTrue(small.length <= fast.length);
+        Assert.assertArrayEquals(BODY, gunzip(fast));
+        Assert.assertArrayEquals(BODY, gunzip(small));
+    }
+
+    /**
+     * The compressed forms of a cached page are built on first use and kept.
+     */
+    @Test
+    public void cachedEntriesKeepTheirCompressedBodies() throws IOException {
+        ResponseCache.Entry entry = new ResponseCache.Entry("application/json", BODY);
+        byte[] gzip = entry.getCompressedBody(Encoding.GZIP, 6);
+        byte[] deflate = entry.getCompressedBody(Encoding.DEFLATE, 6);
+        Assert.assertSame(gzip, entry.getCompressedBody(Encoding.GZIP, 6));
+        Assert.assertSame(deflate, entry.getCompressedBody(Encoding.DEFLATE, 6));
+        Assert.assertArrayEquals(BODY, gunzip(gzip));
+        Assert.assertArrayEquals(BODY, inflate(deflate));
+        Assert.assertSame(BODY, entry.getBody());
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.RouteStats;
+import io.javalin.http.Handler;
+
+public class RouteStatsTest {
+
+    /**
+     * A request is in flight while its handler runs, and counted once it
+     * started.
+     */
+    @Test
+    public void countsInFlightRequests() throws Exception {
+        RouteStats stats = new RouteStats();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Handler handler = stats.track("GET /messages", context -> {
+            started.countDown();
+            release.await();
+        });
+        Thread request = new Thread(() -> {
+            try {
+                handler.handle(null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        request.start();
+        started.await();
+        RouteStats.Route route = stats.getRoutes().get("GET /messages");
+        Assert.assertEquals(1, route.getInFlight());
+        Assert.assertEquals(1, route.getRequests());
+
+        release.countDown();
+        request.join();
+        Assert.assertEquals(0, route.getInFlight());
+        Assert.assertEquals(1, route.getRequests());
+        Assert.assertEquals(0, route.getFailures());
+    }
+
+    /**
+     * A handler that throws is counted as a failure and leaves no request in
+     * flight.
+     */
+    @Test
+    public void countsFailures() {
+        RouteStats stats = new RouteStats();
+        Handler handler = stats.track("POST /messages", context -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            handler.handle(null);
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+        RouteStats.Route route = stats.getRoutes().get("POST /messages");
+        Assert.assertEquals(0, route.getInFlight());
+        Assert.assertEquals(1, route.getFailures());
+    }
+}
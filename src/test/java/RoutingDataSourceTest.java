@@ -0,0 +1,252 @@
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.h2.tools.RunScript;
+import org.h2.tools.Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Service.SingleFlight;
+import Util.ResponseCache;
+import Util.RoutingDataSource;
+
+/**
+ * Runs the routing data source against three H2 instances: an in-memory
+ * primary, an in-memory replica and a replica served by an H2 TCP server,
+ * which is stopped to simulate a replica going down.
+ */
+public class RoutingDataSourceTest {
+    Server tcpServer;
+    int tcpPort;
+    JdbcConnectionPool primary;
+    JdbcConnectionPool localReplica;
+    JdbcConnectionPool remoteReplica;
+    RoutingDataSource routing;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            tcpPort = socket.getLocalPort();
+        }
+        tcpServer = Server.createTcpServer("-tcpPort", String.valueOf(tcpPort), "-ifNotExists").start();
+        primary = JdbcConnectionPool.create("jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1", "sa", "sa");
+        // replicas wait for row locks, so a sync blocked by the tests below is delayed instead of failing
+        localReplica = JdbcConnectionPool.create("jdbc:h2:mem:local;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                "sa", "sa");
+        remoteReplica = JdbcConnectionPool.create(
+                "jdbc:h2:tcp://localhost:" + tcpPort + "/mem:remote;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "sa");
+        try (Connection connection = primary.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(
+                    getClass().getResourceAsStream("/SocialMediaSchema.sql"), StandardCharsets.UTF_8));
+            connection.createStatement().executeUpdate(
+                    "INSERT INTO account (account_id, username, password) VALUES (1, 'testuser1', 'password')");
+            connection.createStatement().executeUpdate("INSERT INTO message (message_id, posted_by, message_text, "
+                    + "time_posted_epoch) VALUES (1, 1, 'test message 1', 1669947792)");
+        }
+        routing = new RoutingDataSource(primary, List.of(localReplica, remoteReplica), 50, 1000);
+        waitFor(() -> routing.getReplicas().stream().allMatch(RoutingDataSource.Replica::isHealthy));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        RoutingDataSource.clearSession();
+        routing.close();
+        for (JdbcConnectionPool pool : List.of(primary, localReplica, remoteReplica)) {
+            try (Connection connection = pool.getConnection()) {
+                connection.createStatement().execute("DROP ALL OBJECTS");
+            } catch (SQLException | IllegalStateException e) {
+                // the replica was taken down by the test
+            }
+            pool.dispose();
+        }
+        tcpServer.stop();
+    }
+
+    /**
+     * Replicas are copied from the primary when they join, and serve the reads
+     * of a session without pending writes.
+     */
+    @Test
+    public void readsGoToSyncedReplicas() throws SQLException {
+        RoutingDataSource.setSession("account:2");
+        for (int i = 0; i < 4; i++) {
+            try (Connection connection = routing.getReadConnection()) {
+                Assert.assertNotEquals("mem:primary", database(connection));
+                Assert.assertEquals("test message 1", messageText(connection, 1));
+            }
+        }
+        Assert.assertEquals(4, routing.getReplicaReads());
+        Assert.assertEquals(0, routing.getPrimaryReads());
+    }
+
+    /**
+     * A session that wrote reads from the primary until every replica applied
+     * the write, other sessions keep reading from replicas meanwhile.
+     */
+    @Test
+    public void sessionReadsItsOwnWrites() throws Exception {
+        // hold a row lock on both replicas so the sync of message 1 has to wait
+        Connection localLock = lockMessage(localReplica);
+        Connection remoteLock = lockMessage(remoteReplica);
+
+        RoutingDataSource.setSession("account:1");
+        try (Connection connection = routing.getWriteConnection()) {
+            connection.createStatement().executeUpdate("UPDATE message SET message_text = 'updated' WHERE message_id = 1");
+        }
+        routing.replicate("message", "message_id", 1);
+        try (Connection connection = routing.getReadConnection()) {
+            Assert.assertEquals("mem:primary", database(connection));
+            Assert.assertEquals("updated", messageText(connection, 1));
+        }
+
+        RoutingDataSource.setSession("account:2");
+        try (Connection connection = routing.getReadConnection()) {
+            Assert.assertNotEquals("mem:primary", database(connection));
+        }
+
+        localLock.rollback();
+        localLock.close();
+        remoteLock.rollback();
+        remoteLock.close();
+        waitFor(() -> routing.getReplicas().stream().allMatch(replica -> replica.getLag() == 0));
+
+        RoutingDataSource.setSession("account:1");
+        try (Connection connection = routing.getReadConnection()) {
+            Assert.assertNotEquals("mem:primary", database(connection));
+            Assert.assertEquals("updated", messageText(connection, 1));
+        }
+    }
+
+    /**
+     * A page another session caches while the replicas lag behind a write is
+     * read from the primary, so the writer reading the shared page sees its
+     * own write.
+     */
+    @Test
+    public void sharedPagesIncludeEveryWrite() throws Exception {
+        Connection localLock = lockMessage(localReplica);
+        Connection remoteLock = lockMessage(remoteReplica);
+        ResponseCache cache = new ResponseCache(16);
+        SingleFlight singleFlight = new SingleFlight();
+
+        RoutingDataSource.setSession("account:1");
+        try (Connection connection = routing.getWriteConnection()) {
+            connection.createStatement().executeUpdate("UPDATE message SET message_text = 'updated' WHERE message_id = 1");
+        }
+        routing.replicate("message", "message_id", 1);
+        cache.invalidateAll();
+
+        RoutingDataSource.setSession("account:2");
+        long generation = cache.generation();
+        String text = singleFlight.execute("message:1", () -> {
+            try (Connection connection = routing.getReadConnection()) {
+                return messageText(connection, 1);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        cache.put("message:1", generation, new ResponseCache.Entry("text/plain",
+                text.getBytes(StandardCharsets.UTF_8)));
+
+        RoutingDataSource.setSession("account:1");
+        Assert.assertEquals("updated", new String(cache.get("message:1").getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, routing.getPrimaryReads());
+
+        // reads of a session alone still use the replicas that have its writes
+        RoutingDataSource.setSession("account:2");
+        try (Connection connection = routing.getReadConnection()) {
+            Assert.assertNotEquals("mem:primary", database(connection));
+        }
+
+        localLock.rollback();
+        localLock.close();
+        remoteLock.rollback();
+        remoteLock.close();
+    }
+
+    /**
+     * A replica that goes down leaves the rotation, and is copied again from
+     * the primary, including the writes it missed, when it comes back.
+     */
+    @Test
+    public void failedReplicaIsResyncedWhenItComesBack() throws Exception {
+        RoutingDataSource.Replica remote = routing.getReplicas().get(1);
+        tcpServer.stop();
+        waitFor(() -> !remote.isHealthy());
+
+        try (Connection connection = routing.getWriteConnection()) {
+            connection.createStatement().executeUpdate("INSERT INTO message (message_id, posted_by, message_text, "
+                    + "time_posted_epoch) VALUES (2, 1, 'while down', 1669947793)");
+        }
+        routing.replicate("message", "message_id", 2);
+        for (int i = 0; i < 4; i++) {
+            try (Connection connection = routing.getReadConnection()) {
+                Assert.assertEquals("mem:local", database(connection));
+            }
+        }
+
+        tcpServer = Server.createTcpServer("-tcpPort", String.valueOf(tcpPort), "-ifNotExists").start();
+        waitFor(remote::isHealthy);
+        try (Connection connection = remoteReplica.getConnection()) {
+            Assert.assertEquals("while down", messageText(connection, 2));
+        }
+        Assert.assertTrue(remote.getFailures() > 0);
+    }
+
+    /**
+     * With every replica down, reads fall back to the primary.
+     */
+    @Test
+    public void readsFallBackToPrimary() throws Exception {
+        tcpServer.stop();
+        try (Connection connection = localReplica.getConnection()) {
+            connection.createStatement().execute("SHUTDOWN");
+        }
+        localReplica.dispose();
+        waitFor(() -> routing.getReplicas().stream().noneMatch(RoutingDataSource.Replica::isHealthy));
+
+        try (Connection connection = routing.getReadConnection()) {
+            Assert.assertEquals("mem:primary", database(connection));
+            Assert.assertEquals("test message 1", messageText(connection, 1));
+        }
+    }
+
+    private Connection lockMessage(DataSource replica) throws SQLException {
+        Connection connection = replica.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().executeUpdate("UPDATE message SET message_text = 'locked' WHERE message_id = 1");
+        return connection;
+    }
+
+    private String database(Connection connection) throws SQLException {
+        String url = connection.getMetaData().getURL();
+        return url.substring(url.indexOf("mem:"), url.indexOf(';') < 0 ? url.length() : url.indexOf(';'));
+    }
+
+    private String messageText(Connection connection, int id) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT message_text FROM message WHERE message_id = ?");
+        statement.setInt(1, id);
+        ResultSet rs = statement.executeQuery();
+        return rs.next() ? rs.getString(1) : null;
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
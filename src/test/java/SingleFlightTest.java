@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Service.SingleFlight;
+
+/**
+ * Callers arriving while a read of their key runs wait for its result, or
+ * its exception, instead of running their own, unless a write forgot the
+ * read first. The loaders block on a latch so the tests decide when a read
+ * completes.
+ */
+public class SingleFlightTest {
+    static final String KEY = "message:1";
+
+    SingleFlight singleFlight;
+    ExecutorService executor;
+    AtomicInteger loads;
+    CountDownLatch started;
+    CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        singleFlight = new SingleFlight();
+        executor = Executors.newCachedThreadPool();
+        loads = new AtomicInteger();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneRead() throws Exception {
+        Object result = new Object();
+        Future<Object> leader = executor.submit(() -> singleFlight.execute(KEY, blocked(() -> result)));
+        started.await();
+        List<Future<Object>> followers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute(KEY, blocked(() -> new Object()))));
+        }
+        awaitDeduplicated(4);
+        Object other = singleFlight.execute("message:2", () -> "other");
+
+        release.countDown();
+        Assert.assertSame(result, leader.get(5, TimeUnit.SECONDS));
+        for (Future<Object> follower : followers) {
+            Assert.assertSame(result, follower.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals("other", other);
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(6, singleFlight.getCalls());
+        Assert.assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    public void anErrorReachesEveryWaiter() throws Exception {
+        IllegalStateException failure = new IllegalStateException("database unavailable");
+        List<Future<Object>> callers = new ArrayList<>();
+        callers.add(executor.submit(() -> singleFlight.execute(KEY, blocked(() -> {
+            throw failure;
+        }))));
+        started.await();
+        for (int i = 0; i < 3; i++) {
+            callers.add(executor.submit(() -> singleFlight.execute(KEY, blocked(() -> "not run"))));
+        }
+        awaitDeduplicated(3);
+
+        release.countDown();
+        for (Future<Object> caller : callers) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertSame(failure, e.getCause());
+            }
+        }
+        Assert.assertEquals(1, loads.get());
+
+        // a failed read is not handed to later callers
+        Assert.assertEquals("retried", singleFlight.execute(KEY, () -> "retried"));
+    }
+
+    /**
+     * After forget(), a caller runs a read of its own, while those who joined
+     * before still get the result of the read they joined.
+     */
+    @Test
+    public void forgottenReadsAreNotJoined() throws Exception {
+        Future<Object> stale = executor.submit(() -> singleFlight.execute(KEY, blocked(() -> "stale")));
+        started.await();
+        Future<Object> joined = executor.submit(() -> singleFlight.execute(KEY, blocked(() -> "not run")));
+        awaitDeduplicated(1);
+
+        singleFlight.forget(KEY);
+        Assert.assertEquals(0, singleFlight.getInFlight());
+        Assert.assertEquals("fresh", singleFlight.execute(KEY, () -> "fresh"));
+
+        release.countDown();
+        Assert.assertEquals("stale", stale.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("stale", joined.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, singleFlight.getDeduplicated());
+    }
+
+    /**
+     * A loader that counts its runs, then waits for the test to release it.
+     */
+    private <V> Supplier<V> blocked(Supplier<V> loader) {
+        return () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return loader.get();
+        };
+    }
+
+    private void awaitDeduplicated(long callers) throws InterruptedException {
+        for (int i = 0; i < 500 && singleFlight.getDeduplicated() < callers; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(callers, singleFlight.getDeduplicated());
+    }
+}
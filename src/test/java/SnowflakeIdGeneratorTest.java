@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.SnowflakeIdGenerator;
+
+public class SnowflakeIdGeneratorTest {
+
+    /**
+     * Ids generated concurrently are unique, and increasing on every thread.
+     */
+    @Test
+    public void concurrentIdsAreUniqueAndIncreasing() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7, 1);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                long previous = 0;
+                for (int i = 0; i < 50000; i++) {
+                    long id = generator.nextId();
+                    Assert.assertTrue(id > previous);
+                    Assert.assertTrue(ids.add(id));
+                    previous = id;
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(List.of(), failures);
+        Assert.assertEquals(400000, ids.size());
+    }
+
+    /**
+     * An id carries the time it was generated and its lane.
+     */
+    @Test
+    public void idsCarryTimeAndLane() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE, 5);
+        for (int lane = 0; lane < 5; lane++) {
+            long before = System.currentTimeMillis();
+            long id = generator.nextId(lane);
+            Assert.assertEquals(lane, SnowflakeIdGenerator.laneOf(id, 5));
+            Assert.assertTrue(SnowflakeIdGenerator.timestampOf(id) >= before);
+            Assert.assertTrue(SnowflakeIdGenerator.timestampOf(id) <= System.currentTimeMillis() + 1);
+        }
+    }
+
+    /**
+     * Ids of different nodes created in the same millisecond differ.
+     */
+    @Test
+    public void nodesDoNotCollide() {
+        long first = new SnowflakeIdGenerator(1, 1).nextId();
+        long second = new SnowflakeIdGenerator(2, 1).nextId();
+        Assert.assertNotEquals(first, second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeMustFitItsBits() {
+        new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE + 1, 1);
+    }
+}
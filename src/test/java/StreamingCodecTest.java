@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Account;
+import Model.Message;
+import Util.StreamingCodec;
+
+/**
+ * The streaming codec reads the fields it knows, skips the ones it does not,
+ * and rejects an object or array where it expects a scalar instead of
+ * reading the fields nested in it.
+ */
+public class StreamingCodecTest {
+    StreamingCodec codec = new StreamingCodec();
+
+    @Test
+    public void unknownFieldsAreSkippedWithWhatTheyHold() throws IOException {
+        Message message = codec.read(bytes(
+                "{\"extra\":{\"posted_by\":999,\"list\":[1,{\"a\":2}]},\"posted_by\":1,\"message_text\":\"hello\"}"),
+                Message.class);
+        Assert.assertEquals(1, message.getPosted_by());
+        Assert.assertEquals("hello", message.getMessage_text());
+    }
+
+    @Test
+    public void nestedValuesInKnownFieldsAreRejected() {
+        assertRejected("{\"message_text\":{\"posted_by\":999}}", Message.class);
+        assertRejected("{\"posted_by\":[999]}", Message.class);
+        assertRejected("{\"username\":{\"password\":\"secret\"}}", Account.class);
+        assertRejected("{\"password\":[\"secret\"],\"username\":\"user\"}", Account.class);
+    }
+
+    private void assertRejected(String json, Class<?> type) {
+        try {
+            Object value = codec.read(bytes(json), type);
+            Assert.fail(json + " was read as " + value);
+        } catch (IOException e) {
+            // rejected
+        }
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Base64;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Service.TokenService;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Logging in issues a signed token in X-Auth-Token. A valid token lets its
+ * account post and change its own messages only, a tampered or expired one is
+ * refused with 401, and with socialmedia.auth.required a write without a
+ * token is refused too.
+ */
+public class TokenAuthenticationTest {
+    static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String ownToken;
+    String otherToken;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with a known token secret and tokens
+     * required for writes, register a second account and log both accounts in.
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        AppConfig.init(new String[] { "--token.secret=" + Base64.getEncoder().encodeToString(SECRET),
+                "--auth.required=true" });
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpResponse<String> registered = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser2\", \"password\": \"password2\"}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals(2, objectMapper.readValue(registered.body(), Account.class).getAccount_id());
+        ownToken = login("testuser1", "password");
+        otherToken = login("testuser2", "password2");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        AppConfig.init(new String[0]);
+    }
+
+    /**
+     * The token of a login names its account and is signed with the secret.
+     */
+    @Test
+    public void loginIssuesAToken() {
+        TokenService tokens = new TokenService(SECRET, 3600);
+        Assert.assertEquals(Integer.valueOf(1), tokens.verify(ownToken));
+        Assert.assertEquals(Integer.valueOf(2), tokens.verify(otherToken));
+    }
+
+    @Test
+    public void ownTokenPostsAndChangesOwnMessages() throws IOException, InterruptedException {
+        HttpResponse<String> posted = postMessage(ownToken, 1);
+        Assert.assertEquals(200, posted.statusCode());
+        Message message = objectMapper.readValue(posted.body(), Message.class);
+        Assert.assertEquals(1, message.getPosted_by());
+
+        Assert.assertEquals(200, patchMessage(ownToken, 1).statusCode());
+        Assert.assertEquals(200, deleteMessage(ownToken, message.getMessage_id()).statusCode());
+    }
+
+    /**
+     * A token of another account may not post in the name of, update or
+     * delete the messages of account 1.
+     */
+    @Test
+    public void otherOwnersTokenIsForbidden() throws IOException, InterruptedException {
+        Assert.assertEquals(403, postMessage(otherToken, 1).statusCode());
+        Assert.assertEquals(403, patchMessage(otherToken, 1).statusCode());
+        Assert.assertEquals(403, deleteMessage(otherToken, 1).statusCode());
+        Assert.assertEquals(200, postMessage(otherToken, 2).statusCode());
+    }
+
+    /**
+     * Changing the account id of a token breaks its signature, and so does
+     * signing with another secret.
+     */
+    @Test
+    public void tamperedTokenIsUnauthorized() throws IOException, InterruptedException {
+        String tampered = "2" + ownToken.substring(ownToken.indexOf('.'));
+        Assert.assertEquals(401, postMessage(tampered, 2).statusCode());
+        String forged = new TokenService("another secret of 32 bytes......".getBytes(), 3600).issue(1);
+        Assert.assertEquals(401, patchMessage(forged, 1).statusCode());
+        Assert.assertEquals(401, postMessage("not a token", 1).statusCode());
+    }
+
+    @Test
+    public void expiredTokenIsUnauthorized() throws IOException, InterruptedException {
+        String expired = new TokenService(SECRET, -60).issue(1);
+        Assert.assertEquals(401, postMessage(expired, 1).statusCode());
+        Assert.assertEquals(401, deleteMessage(expired, 1).statusCode());
+    }
+
+    /**
+     * With socialmedia.auth.required, writes need a token, reads do not.
+     */
+    @Test
+    public void writesWithoutTokenAreUnauthorized() throws IOException, InterruptedException {
+        Assert.assertEquals(401, postMessage(null, 1).statusCode());
+        Assert.assertEquals(401, patchMessage(null, 1).statusCode());
+        Assert.assertEquals(401, deleteMessage(null, 1).statusCode());
+        HttpResponse<String> read = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1")).GET());
+        Assert.assertEquals(200, read.statusCode());
+    }
+
+    private String login(String username, String password) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", "
+                        + "\"password\": \"" + password + "\"}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, response.statusCode());
+        String token = response.headers().firstValue("X-Auth-Token").orElse(null);
+        Assert.assertNotNull(token);
+        return token;
+    }
+
+    private HttpResponse<String> postMessage(String token, int postedBy) throws IOException, InterruptedException {
+        return send(authorized(token, HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": " + postedBy + ", "
+                        + "\"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")));
+    }
+
+    private HttpResponse<String> patchMessage(String token, long id) throws IOException, InterruptedException {
+        return send(authorized(token, HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")));
+    }
+
+    private HttpResponse<String> deleteMessage(String token, long id) throws IOException, InterruptedException {
+        return send(authorized(token, HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + id)).DELETE()));
+    }
+
+    private static HttpRequest.Builder authorized(String token, HttpRequest.Builder request) {
+        return token == null ? request : request.header("Authorization", "Bearer " + token);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.Tracer;
+
+public class TracerTest {
+
+    /**
+     * A sampled traceparent continues the caller's trace, and spans started
+     * under the root span become its children.
+     */
+    @Test
+    public void spansJoinTheIncomingTrace() {
+        Tracer tracer = new Tracer(0, 16, null);
+        String traceparent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+        Tracer.Span root = tracer.startTrace("POST /messages", traceparent);
+        Tracer.Span service = tracer.startSpan("MessageService.addMessage");
+        Tracer.Span dao = tracer.startSpan("MessageDAO.insertMessage");
+        dao.end();
+        service.end();
+        Tracer.Span encode = tracer.startSpan("encode");
+        encode.end();
+        root.end();
+
+        Assert.assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", root.getTraceId());
+        Assert.assertEquals("00f067aa0ba902b7", root.getParentSpanId());
+        Assert.assertEquals(root.getSpanId(), service.getParentSpanId());
+        Assert.assertEquals(service.getSpanId(), dao.getParentSpanId());
+        Assert.assertEquals(root.getSpanId(), encode.getParentSpanId());
+        Assert.assertEquals(4, tracer.getSpans(root.getTraceId(), 10).size());
+        Assert.assertFalse("the root span ended, nothing is current", tracer.currentSpan().isSampled());
+    }
+
+    /**
+     * An unsampled traceparent, or no header at a sample rate of 0, records
+     * nothing.
+     */
+    @Test
+    public void unsampledRequestsRecordNothing() {
+        Tracer tracer = new Tracer(0, 16, null);
+        Tracer.Span root = tracer.startTrace("GET /messages", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00");
+        Assert.assertFalse(root.isSampled());
+        tracer.startSpan("MessageService.getAllMessages").end();
+        root.end();
+        Assert.assertFalse(tracer.startTrace("GET /messages", null).isSampled());
+        Assert.assertEquals(List.of(), tracer.getSpans(null, 10));
+    }
+
+    /**
+     * A malformed traceparent is ignored and a new trace is started.
+     */
+    @Test
+    public void malformedTraceparentStartsANewTrace() {
+        Tracer tracer = new Tracer(1, 16, null);
+        Tracer.Span root = tracer.startTrace("GET /messages", "00-00000000000000000000000000000000-00f067aa0ba902b7-01");
+        Assert.assertTrue(root.isSampled());
+        Assert.assertNotEquals("00000000000000000000000000000000", root.getTraceId());
+        Assert.assertNull(root.getParentSpanId());
+        Assert.assertEquals(32, root.getTraceId().length());
+        root.end();
+    }
+
+    /**
+     * The ring buffer keeps the newest spans.
+     */
+    @Test
+    public void ringBufferKeepsTheNewestSpans() {
+        Tracer tracer = new Tracer(1, 4, null);
+        for (int i = 0; i < 10; i++) {
+            tracer.startTrace("span " + i, null).end();
+        }
+        List<Tracer.Span> spans = tracer.getSpans(null, 100);
+        Assert.assertEquals(4, spans.size());
+        Assert.assertEquals("span 9", spans.get(0).getName());
+        Assert.assertEquals("span 6", spans.get(3).getName());
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import DAO.TransientDataAccessException;
+import Model.Message;
+import Service.MessageService;
+import Service.OverloadedException;
+import Service.Transactions;
+import Util.ConnectionSource;
+
+/**
+ * Units of work commit or roll back as a whole, nest on one connection, and
+ * keep concurrent updates and deletes of one message from acting on what
+ * another one changed.
+ */
+public class TransactionsTest {
+    @Rule
+    public MessageDatabase database = new MessageDatabase("transactions");
+
+    JdbcConnectionPool pool;
+    MessageDAO messageDAO;
+    Transactions transactions;
+    MessageService messageService;
+
+    @Before
+    public void setUp() {
+        pool = database.getPool();
+        messageDAO = new MessageDAO(database.getShards());
+        transactions = database.getTransactions();
+        messageService = database.messageService(messageDAO);
+    }
+
+    /**
+     * Threads update and delete the same message at once. Exactly one delete
+     * gets the message back, and every update that succeeded returned its
+     * own text.
+     */
+    @Test
+    public void concurrentUpdatesAndDeletesOfOneMessage() throws InterruptedException {
+        for (int round = 0; round < 5; round++) {
+            long id = messageDAO.insertMessage(new Message(1, "original", 1669947792L)).getMessage_id();
+            int threads = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger deleted = new AtomicInteger();
+            List<String> updated = Collections.synchronizedList(new ArrayList<>());
+            List<Message> deletedMessages = Collections.synchronizedList(new ArrayList<>());
+            List<String> failures = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 40; i++) {
+                            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                                Message message = retry(() -> messageService.deleteMessage(id));
+                                if (message != null) {
+                                    deleted.incrementAndGet();
+                                    deletedMessages.add(message);
+                                }
+                            } else {
+                                String text = "thread " + thread + " update " + i;
+                                Message message = retry(() -> messageService.updateMessage(id, text));
+                                if (message != null) {
+                                    if (!text.equals(message.getMessage_text())) {
+                                        failures.add("update returned " + message.getMessage_text() + ", not " + text);
+                                    }
+                                    updated.add(text);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            // the last thread may have missed its chance to delete
+            Message last = messageService.deleteMessage(id);
+            if (last != null) {
+                deleted.incrementAndGet();
+                deletedMessages.add(last);
+            }
+
+            Assert.assertEquals(Collections.emptyList(), failures);
+            Assert.assertEquals(1, deleted.get());
+            String text = deletedMessages.get(0).getMessage_text();
+            Assert.assertTrue(text, text.equals("original") || updated.contains(text));
+            Assert.assertNull(messageDAO.getMessageById(id));
+        }
+        Assert.assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    public void failedWorkIsRolledBack() {
+        ConnectionSource source = messageDAO.writerForAccount(1);
+        long[] id = new long[1];
+        try {
+            transactions.inTransaction(source, connection -> {
+                id[0] = messageDAO.insertMessage(connection, new Message(1, "rolled back", 1669947792L))
+                        .getMessage_id();
+                throw new IllegalStateException("failed after the insert");
+            });
+            Assert.fail("the exception of the work should be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed after the insert", e.getMessage());
+        }
+        Assert.assertNull(messageDAO.getMessageById(id[0]));
+        Assert.assertEquals(1, transactions.getRolledBack());
+        Assert.assertEquals(0, transactions.getCommitted());
+        Assert.assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    public void nestedUnitsShareOneConnection() {
+        ConnectionSource source = messageDAO.writerForAccount(1);
+        boolean shared = transactions.inTransaction(source,
+                outer -> transactions.inTransaction(source, inner -> inner == outer));
+        Assert.assertTrue(shared);
+        Assert.assertEquals(1, transactions.getCommitted());
+        Assert.assertEquals(1, transactions.getJoined());
+    }
+
+    @Test
+    public void missingPosterInsertsNothing() {
+        MessageService mainDatabase = new MessageService(new MessageDAO(), new AccountDAO(), transactions);
+        Assert.assertNull(mainDatabase.addMessage(new Message(999, "nobody", 1669947792L), true));
+        Assert.assertNotNull(mainDatabase.addMessage(new Message(1, "somebody", 1669947792L), true));
+        Assert.assertEquals(2, transactions.getCommitted());
+    }
+
+    private interface Call {
+        Message get();
+    }
+
+    /**
+     * Run a call until it was not shed or timed out.
+     */
+    private static Message retry(Call call) {
+        while (true) {
+            try {
+                return call.get();
+            } catch (OverloadedException | TransientDataAccessException e) {
+                Thread.yield();
+            }
+        }
+    }
+}
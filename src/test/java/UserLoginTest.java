@@ -3,6 +3,8 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -12,7 +14,10 @@ import org.junit.Test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
+import DAO.AccountDAO;
 import Model.Account;
+import Service.AccountService;
+import Service.PasswordHasher;
 import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
@@ -119,4 +124,54 @@ public class UserLoginTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+    /**
+     * The seeded account stores its password as plain text, which the first
+     * successful login replaces with a hash that later logins verify.
+     */
+    @Test
+    public void loginRehashesLegacyPassword() throws IOException, InterruptedException {
+        AccountDAO accountDAO = new AccountDAO();
+        Assert.assertEquals("password", accountDAO.getAccountByUsername("testuser1").getPassword());
+
+        Assert.assertEquals(200, login("testuser1", "password").statusCode());
+        String stored = accountDAO.getAccountByUsername("testuser1").getPassword();
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2$"));
+
+        Assert.assertEquals(200, login("testuser1", "password").statusCode());
+        Assert.assertEquals(stored, accountDAO.getAccountByUsername("testuser1").getPassword());
+        Assert.assertEquals(401, login("testuser1", "pass123").statusCode());
+    }
+
+    /**
+     * A username that does not exist still costs a verify against a hash, as
+     * a wrong password does, so the time of the answer does not tell them apart.
+     */
+    @Test
+    public void loginInvalidUsernameVerifiesAHash() {
+        List<String> verified = new ArrayList<>();
+        PasswordHasher hasher = new PasswordHasher(1000) {
+            @Override
+            public boolean verify(String password, String stored) {
+                verified.add(stored);
+                return super.verify(password, stored);
+            }
+        };
+        AccountService accountService = new AccountService(new AccountDAO(), hasher);
+
+        Assert.assertNull(accountService.getAccount(new Account("testuser404", "password")));
+        Assert.assertEquals(1, verified.size());
+        Assert.assertTrue(verified.get(0), verified.get(0).startsWith("pbkdf2$1000$"));
+    }
+
+    private HttpResponse<String> login(String username, String password) throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
 }